@@ -228,6 +228,10 @@ object ThriftyCompiler {
             .help("When set, Field is set to Mutable.")
             .flag("--no-mutable-fields", default = false)
 
+        val emitSerializedSize by option("--serialized-size")
+            .help("When set, generates a serializedSize(ProtocolKind) method computing each struct's encoded length.")
+            .flag("--no-serialized-size", default = false)
+
         override fun help(context: Context) = "Generate Java or Kotlin code from .thrift files"
 
         override fun run() {
@@ -293,6 +297,7 @@ object ThriftyCompiler {
             gen.emitParcelable(emitParcelable)
             gen.failOnUnknownEnumValues(failOnUnknownEnumValues)
             gen.mutableFields(mutableFields)
+            gen.emitSerializedSize(emitSerializedSize)
 
             gen.generate(outputDirectory)
         }
@@ -344,6 +349,10 @@ object ThriftyCompiler {
                 gen.emitDeepCopyFunc()
             }
 
+            if (emitSerializedSize) {
+                gen.emitSerializedSize()
+            }
+
             gen.emitFileComment(!omitFileComments)
 
             if (kotlinFilePerType) {
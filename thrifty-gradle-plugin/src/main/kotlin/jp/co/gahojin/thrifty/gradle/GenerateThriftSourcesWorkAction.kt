@@ -167,6 +167,10 @@ abstract class GenerateThriftSourcesWorkAction : WorkAction<GenerateThriftSource
             gen.emitDeepCopyFunc()
         }
 
+        if (opts.isSerializedSize) {
+            gen.emitSerializedSize()
+        }
+
         if (opts.listType != null) {
             gen.listClassName(opts.listType)
         }
@@ -194,6 +198,7 @@ abstract class GenerateThriftSourcesWorkAction : WorkAction<GenerateThriftSource
         gen.emitFileComment(true)
         gen.emitParcelable(opts.isParcelable)
         gen.failOnUnknownEnumValues(!opts.isAllowUnknownEnumValues)
+        gen.emitSerializedSize(opts.isSerializedSize)
 
         if (opts.listType != null) {
             gen.withListType(opts.listType)
@@ -36,6 +36,7 @@ class SerializableThriftOptions @JvmOverloads constructor(
     val isParcelable: Boolean = false,
     val isAllowUnknownEnumValues: Boolean = false,
     val isMutableFields: Boolean = false,
+    val isSerializedSize: Boolean = false,
     val kotlinOpts: Kotlin? = null,
     val javaOpts: Java? = null,
 ) : Serializable {
@@ -71,6 +72,7 @@ class SerializableThriftOptions @JvmOverloads constructor(
         isParcelable = options.parcelable,
         isAllowUnknownEnumValues = options.allowUnknownEnumValues,
         isMutableFields = options.mutableFields,
+        isSerializedSize = options.serializedSize,
         kotlinOpts = (options as? KotlinThriftOptions)?.let {
             Kotlin(
                 serviceClientStyle = it.serviceClientStyle,
@@ -58,6 +58,9 @@ abstract class ThriftOptions : Serializable {
     @get:Input
     var mutableFields: Boolean = false
 
+    @get:Input
+    var serializedSize: Boolean = false
+
     fun setNameStyle(styleName: String) {
         val styles = TreeMap<String, FieldNameStyle>(String.CASE_INSENSITIVE_ORDER)
         for (style in FieldNameStyle.entries) {
@@ -167,6 +167,11 @@ class DebugProtocolWrapper(
         return protocol.readFieldBegin()
     }
 
+    override fun readFieldHeader(): Int {
+        println("readFieldHeader()")
+        return protocol.readFieldHeader()
+    }
+
     override fun readFieldEnd() {
         println("readFieldEnd()")
         protocol.readFieldEnd()
@@ -177,6 +182,11 @@ class DebugProtocolWrapper(
         return protocol.readMapBegin()
     }
 
+    override fun readMapHeader(): Long {
+        println("readMapHeader()")
+        return protocol.readMapHeader()
+    }
+
     override fun readMapEnd() {
         println("readMapEnd()")
         protocol.readMapEnd()
@@ -187,6 +197,11 @@ class DebugProtocolWrapper(
         return protocol.readListBegin()
     }
 
+    override fun readListHeader(): Long {
+        println("readListHeader()")
+        return protocol.readListHeader()
+    }
+
     override fun readListEnd() {
         println("readListEnd()")
         protocol.readListEnd()
@@ -197,6 +212,11 @@ class DebugProtocolWrapper(
         return protocol.readSetBegin()
     }
 
+    override fun readSetHeader(): Long {
+        println("readSetHeader()")
+        return protocol.readSetHeader()
+    }
+
     override fun readSetEnd() {
         println("readSetEnd()")
         protocol.readSetEnd()
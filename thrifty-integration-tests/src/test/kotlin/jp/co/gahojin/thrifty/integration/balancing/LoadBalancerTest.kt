@@ -0,0 +1,89 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.integration.balancing
+
+import io.kotest.matchers.shouldBe
+import jp.co.gahojin.thrifty.binaryProtocol
+import jp.co.gahojin.thrifty.integration.kgen.coro.ThriftTestClient
+import jp.co.gahojin.thrifty.service.AsyncClientBase
+import jp.co.gahojin.thrifty.service.LoadBalancer
+import jp.co.gahojin.thrifty.testing.ServerProtocol
+import jp.co.gahojin.thrifty.testing.ServerTransport
+import jp.co.gahojin.thrifty.testing.SocketBasedServer
+import jp.co.gahojin.thrifty.transport.SocketTransport
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.net.ServerSocket
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Balances calls over several local Apache Thrift test servers.
+ */
+class LoadBalancerTest {
+    private val servers = List(3) {
+        SocketBasedServer().apply { run(ServerProtocol.BINARY, ServerTransport.BLOCKING) }
+    }
+
+    private val connectedPorts = ConcurrentHashMap.newKeySet<Int>()
+
+    @AfterEach
+    fun tearDown() {
+        servers.forEach { it.close() }
+    }
+
+    private fun connect(port: Int): ThriftTestClient {
+        val transport = SocketTransport.Builder("localhost", port)
+            .readTimeout(2000)
+            .build()
+            .apply { connect() }
+        connectedPorts += port
+        return ThriftTestClient(transport.binaryProtocol(), object : AsyncClientBase.Listener {
+            override fun onTransportClosed() = Unit
+
+            override fun onError(error: Throwable) = Unit
+        })
+    }
+
+    @Test
+    fun callsAreSpreadOverEveryServer(): Unit = runBlocking {
+        val ports = servers.map { it.port() }
+        LoadBalancer.Builder(ports, ::connect).build().use { balancer ->
+            repeat(60) { i ->
+                balancer.call { it.testString("call $i") } shouldBe "call $i"
+            }
+        }
+        connectedPorts shouldBe ports.toSet()
+    }
+
+    @Test
+    fun unreachableServersAreEjected(): Unit = runBlocking {
+        val deadPort = ServerSocket(0).use { it.localPort }
+        val ports = servers.map { it.port() } + deadPort
+        LoadBalancer.Builder(ports, ::connect).maxFailures(1).build().use { balancer ->
+            repeat(60) { i ->
+                balancer.call { it.testString("call $i") } shouldBe "call $i"
+            }
+            balancer.ejectedEndpoints shouldBe listOf(deadPort)
+        }
+    }
+}
@@ -60,7 +60,7 @@ internal open class GenerateReaderVisitor(
     fun generate() {
         val fieldTypeCode = resolver.getTypeCode(fieldType)
         val codeName = TypeNames.getTypeCodeName(fieldTypeCode)
-        read.beginControlFlow("if (field.typeId == \$T.\$L)", TypeNames.TTYPE, codeName)
+        read.beginControlFlow("if (fieldType == \$T.\$L)", TypeNames.TTYPE, codeName)
 
         nameStack.addLast("value")
         fieldType.accept(this)
@@ -69,7 +69,7 @@ internal open class GenerateReaderVisitor(
         useReadValue()
 
         read.nextControlFlow("else")
-        read.addStatement("protocol.skip(field.typeId)")
+        read.addStatement("protocol.skip(fieldType)")
         read.endControlFlow()
 
     }
@@ -145,13 +145,13 @@ internal open class GenerateReaderVisitor(
         val genericListType = ParameterizedTypeName.get(TypeNames.LIST, elementType)
         val listImplType = resolver.listOf(elementType)
 
-        val listInfo = "listMetadata$scope"
+        val listSize = "listSize$scope"
         val idx = "i$scope"
         val item = "item$scope"
 
-        read.addStatement("\$T \$N = protocol.readListBegin()", TypeNames.LIST_META, listInfo)
-        read.addStatement("\$T \$N = new \$T(\$N.size)", genericListType, nameStack.last(), listImplType, listInfo)
-        read.beginControlFlow("for (int $1N = 0; $1N < $2N.size; ++$1N)", idx, listInfo)
+        read.addStatement("int \$N = \$T.size(protocol.readListHeader())", listSize, TypeNames.CONTAINER_HEADER)
+        read.addStatement("\$T \$N = new \$T(\$N)", genericListType, nameStack.last(), listImplType, listSize)
+        read.beginControlFlow("for (int $1N = 0; $1N < $2N; ++$1N)", idx, listSize)
 
         pushScope {
             nameStack.addLast(item)
@@ -171,13 +171,13 @@ internal open class GenerateReaderVisitor(
         val genericSetType = ParameterizedTypeName.get(TypeNames.SET, elementType)
         val setImplType = resolver.setOf(elementType)
 
-        val setInfo = "setMetadata$scope"
+        val setSize = "setSize$scope"
         val idx = "i$scope"
         val item = "item$scope"
 
-        read.addStatement("\$T \$N = protocol.readSetBegin()", TypeNames.SET_META, setInfo)
-        read.addStatement("\$T \$N = new \$T(\$N.size)", genericSetType, nameStack.last(), setImplType, setInfo)
-        read.beginControlFlow("for (int $1N = 0; $1N < $2N.size; ++$1N)", idx, setInfo)
+        read.addStatement("int \$N = \$T.size(protocol.readSetHeader())", setSize, TypeNames.CONTAINER_HEADER)
+        read.addStatement("\$T \$N = new \$T(\$N)", genericSetType, nameStack.last(), setImplType, setSize)
+        read.beginControlFlow("for (int $1N = 0; $1N < $2N; ++$1N)", idx, setSize)
 
         pushScope {
             nameStack.addLast(item)
@@ -198,15 +198,15 @@ internal open class GenerateReaderVisitor(
         val genericMapType = ParameterizedTypeName.get(TypeNames.MAP, keyType, valueType)
         val mapImplType = resolver.mapOf(keyType, valueType)
 
-        val mapInfo = "mapMetadata$scope"
+        val mapSize = "mapSize$scope"
         val idx = "i$scope"
         val key = "key$scope"
         val value = "value$scope"
 
         pushScope {
-            read.addStatement("\$T \$N = protocol.readMapBegin()", TypeNames.MAP_META, mapInfo)
-            read.addStatement("\$T \$N = new \$T(\$N.size)", genericMapType, nameStack.last(), mapImplType, mapInfo)
-            read.beginControlFlow("for (int $1N = 0; $1N < $2N.size; ++$1N)", idx, mapInfo)
+            read.addStatement("int \$N = \$T.size(protocol.readMapHeader())", mapSize, TypeNames.CONTAINER_HEADER)
+            read.addStatement("\$T \$N = new \$T(\$N)", genericMapType, nameStack.last(), mapImplType, mapSize)
+            read.beginControlFlow("for (int $1N = 0; $1N < $2N; ++$1N)", idx, mapSize)
 
             nameStack.addLast(key)
             mapType.keyType.accept(this)
@@ -0,0 +1,212 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.gen
+
+import com.squareup.javapoet.MethodSpec
+import com.squareup.javapoet.ParameterizedTypeName
+import jp.co.gahojin.thrifty.TType
+import jp.co.gahojin.thrifty.schema.BuiltinType
+import jp.co.gahojin.thrifty.schema.EnumType
+import jp.co.gahojin.thrifty.schema.ListType
+import jp.co.gahojin.thrifty.schema.MapType
+import jp.co.gahojin.thrifty.schema.ServiceType
+import jp.co.gahojin.thrifty.schema.SetType
+import jp.co.gahojin.thrifty.schema.StructType
+import jp.co.gahojin.thrifty.schema.ThriftType
+import jp.co.gahojin.thrifty.schema.TypedefType
+
+/**
+ * Generates Java code to add the encoded size of a field's value to a
+ * local `size` in a `serializedSize` implementation.
+ *
+ * Handles nested values like lists, sets, maps, and user types.
+ *
+ * @param resolver the [TypeResolver] singleton
+ * @param sizer the `serializedSize` method under construction
+ * @param kind the name of the `ProtocolKind` parameter to the method
+ * @param source the expression holding the value being sized
+ */
+internal class GenerateSizeVisitor(
+    private val resolver: TypeResolver,
+    private val sizer: MethodSpec.Builder,
+    private val kind: String,
+    source: String,
+) : ThriftType.Visitor<Unit> {
+    /**
+     * A stack of names, with the topmost name being the one currently
+     * being sized.
+     */
+    private val nameStack = ArrayDeque<String>().apply {
+        addLast(source)
+    }
+
+    /**
+     * A count of nested scopes.  Used to prevent name clashes for iterator
+     * and temporary names used when sizing nested collections.
+     */
+    private var scopeLevel: Int = 0
+
+    override fun visitBool(boolType: BuiltinType) {
+        sizer.addStatement("size += 1")
+    }
+
+    override fun visitByte(byteType: BuiltinType) {
+        sizer.addStatement("size += 1")
+    }
+
+    override fun visitI16(i16Type: BuiltinType) {
+        sizer.addStatement("size += \$T.i16(\$N, \$L)", TypeNames.SERIALIZED_SIZE, kind, nameStack.last())
+    }
+
+    override fun visitI32(i32Type: BuiltinType) {
+        sizer.addStatement("size += \$T.i32(\$N, \$L)", TypeNames.SERIALIZED_SIZE, kind, nameStack.last())
+    }
+
+    override fun visitI64(i64Type: BuiltinType) {
+        sizer.addStatement("size += \$T.i64(\$N, \$L)", TypeNames.SERIALIZED_SIZE, kind, nameStack.last())
+    }
+
+    override fun visitDouble(doubleType: BuiltinType) {
+        sizer.addStatement("size += 8")
+    }
+
+    override fun visitString(stringType: BuiltinType) {
+        sizer.addStatement("size += \$T.string(\$N, \$L)", TypeNames.SERIALIZED_SIZE, kind, nameStack.last())
+    }
+
+    override fun visitBinary(binaryType: BuiltinType) {
+        sizer.addStatement("size += \$T.bytes(\$N, \$L.size())", TypeNames.SERIALIZED_SIZE, kind, nameStack.last())
+    }
+
+    override fun visitVoid(voidType: BuiltinType) {
+        throw AssertionError("Fields cannot be void")
+    }
+
+    override fun visitEnum(enumType: EnumType) {
+        sizer.addStatement("size += \$T.i32(\$N, \$L.value)", TypeNames.SERIALIZED_SIZE, kind, nameStack.last())
+    }
+
+    override fun visitList(listType: ListType) {
+        visitSingleElementCollection(listType.elementType.trueType)
+    }
+
+    override fun visitSet(setType: SetType) {
+        visitSingleElementCollection(setType.elementType.trueType)
+    }
+
+    private fun visitSingleElementCollection(elementType: ThriftType) {
+        sizer.addStatement(
+            "size += \$T.listHeader(\$N, \$L.size())",
+            TypeNames.SERIALIZED_SIZE,
+            kind,
+            nameStack.last(),
+        )
+
+        val fixedSize = fixedSizeOf(elementType)
+        if (fixedSize > 0) {
+            sizer.addStatement("size += \$L.size() * \$LL", nameStack.last(), fixedSize)
+            return
+        }
+
+        val item = "item$scopeLevel"
+        val javaClass = resolver.getJavaClass(elementType)
+        sizer.beginControlFlow("for (\$T \$N : \$L)", javaClass, item, nameStack.last())
+
+        scope {
+            nameStack.addLast(item)
+            elementType.accept(this)
+            nameStack.removeLast()
+        }
+
+        sizer.endControlFlow()
+    }
+
+    override fun visitMap(mapType: MapType) {
+        val entryName = "entry$scopeLevel"
+        val keyName = "key$scopeLevel"
+        val valueName = "value$scopeLevel"
+        val kt = mapType.keyType.trueType
+        val vt = mapType.valueType.trueType
+
+        sizer.addStatement(
+            "size += \$T.mapHeader(\$N, \$L.size())",
+            TypeNames.SERIALIZED_SIZE,
+            kind,
+            nameStack.last(),
+        )
+
+        val fixedKeySize = fixedSizeOf(kt)
+        val fixedValueSize = fixedSizeOf(vt)
+        if (fixedKeySize > 0 && fixedValueSize > 0) {
+            sizer.addStatement("size += \$L.size() * \$LL", nameStack.last(), fixedKeySize + fixedValueSize)
+            return
+        }
+
+        val keyTypeName = resolver.getJavaClass(kt)
+        val valueTypeName = resolver.getJavaClass(vt)
+        val entry = ParameterizedTypeName.get(TypeNames.MAP_ENTRY, keyTypeName, valueTypeName)
+        sizer.beginControlFlow("for (\$T \$N : \$L.entrySet())", entry, entryName, nameStack.last())
+        sizer.addStatement("\$T \$N = \$N.getKey()", keyTypeName, keyName, entryName)
+        sizer.addStatement("\$T \$N = \$N.getValue()", valueTypeName, valueName, entryName)
+
+        scope {
+            nameStack.addLast(keyName)
+            kt.accept(this)
+            nameStack.removeLast()
+
+            nameStack.addLast(valueName)
+            vt.accept(this)
+            nameStack.removeLast()
+        }
+
+        sizer.endControlFlow()
+    }
+
+    override fun visitStruct(structType: StructType) {
+        sizer.addStatement("size += \$L.serializedSize(\$N)", nameStack.last(), kind)
+    }
+
+    override fun visitTypedef(typedefType: TypedefType) {
+        typedefType.trueType.accept(this)
+    }
+
+    override fun visitService(serviceType: ServiceType) {
+        throw AssertionError("Cannot size a service")
+    }
+
+    private fun fixedSizeOf(type: ThriftType): Int {
+        return when (resolver.getTypeCode(type)) {
+            TType.BOOL, TType.BYTE -> 1
+            TType.DOUBLE -> 8
+            else -> 0
+        }
+    }
+
+    private inline fun scope(fn: () -> Unit) {
+        scopeLevel++
+        try {
+            fn()
+        } finally {
+            scopeLevel--
+        }
+    }
+}
@@ -322,11 +322,12 @@ internal class ServiceBuilder(
 
         recv.addStatement("protocol.readStructBegin()")
             .beginControlFlow("while (true)")
-            .addStatement("\$T field = protocol.readFieldBegin()", TypeNames.FIELD_METADATA)
-            .beginControlFlow("if (field.typeId == \$T.STOP)", TypeNames.TTYPE)
+            .addStatement("int fieldHeader = protocol.readFieldHeader()")
+            .addStatement("byte fieldType = \$T.typeId(fieldHeader)", TypeNames.FIELD_HEADER)
+            .beginControlFlow("if (fieldType == \$T.STOP)", TypeNames.TTYPE)
             .addStatement("break")
             .endControlFlow()
-            .beginControlFlow("switch (field.fieldId)")
+            .beginControlFlow("switch (\$T.fieldId(fieldHeader))", TypeNames.FIELD_HEADER)
 
         if (hasReturnType) {
             val type = method.returnType.trueType
@@ -356,7 +357,7 @@ internal class ServiceBuilder(
             recv.addStatement("break")
         }
 
-        recv.addStatement("default: protocol.skip(field.typeId); break")
+        recv.addStatement("default: protocol.skip(fieldType); break")
         recv.endControlFlow() // end switch
         recv.addStatement("protocol.readFieldEnd()")
         recv.endControlFlow() // end while
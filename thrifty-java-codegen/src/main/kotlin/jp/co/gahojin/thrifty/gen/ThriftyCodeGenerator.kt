@@ -31,8 +31,10 @@ import com.squareup.javapoet.MethodSpec
 import com.squareup.javapoet.NameAllocator
 import com.squareup.javapoet.ParameterSpec
 import com.squareup.javapoet.ParameterizedTypeName
+import com.squareup.javapoet.TypeName
 import com.squareup.javapoet.TypeSpec
 import jp.co.gahojin.thrifty.Struct
+import jp.co.gahojin.thrifty.TType
 import jp.co.gahojin.thrifty.compiler.spi.TypeProcessor
 import jp.co.gahojin.thrifty.schema.BuiltinType
 import jp.co.gahojin.thrifty.schema.Constant
@@ -74,6 +76,7 @@ class ThriftyCodeGenerator(
     private var emitFileComment = true
     private var failOnUnknownEnumValues = true
     private var mutableFields = false
+    private var emitSerializedSize = false
 
     fun withListType(listClassName: String) = apply {
         typeResolver.listClass = ClassName.bestGuess(listClassName)
@@ -111,6 +114,10 @@ class ThriftyCodeGenerator(
         this.mutableFields = mutableFields
     }
 
+    fun emitSerializedSize(emitSerializedSize: Boolean) = apply {
+        this.emitSerializedSize = emitSerializedSize
+    }
+
     fun generate(directory: Path) {
         generate { it.writeTo(directory) }
     }
@@ -293,6 +300,10 @@ class ThriftyCodeGenerator(
         structBuilder.addMethod(buildToStringFor(type))
         structBuilder.addMethod(buildWrite())
 
+        if (emitSerializedSize) {
+            structBuilder.addMethod(buildSerializedSizeFor(type))
+        }
+
         if (mutableFields) {
             structBuilder.addMethod(buildClearFor(type))
         }
@@ -549,13 +560,14 @@ class ThriftyCodeGenerator(
         // Then, the reader - set up the field-reading loop.
         read.addStatement("protocol.readStructBegin()")
         read.beginControlFlow("while (true)")
-        read.addStatement("\$T field = protocol.readFieldBegin()", TypeNames.FIELD_METADATA)
-        read.beginControlFlow("if (field.typeId == \$T.STOP)", TypeNames.TTYPE)
+        read.addStatement("int fieldHeader = protocol.readFieldHeader()")
+        read.addStatement("byte fieldType = \$T.typeId(fieldHeader)", TypeNames.FIELD_HEADER)
+        read.beginControlFlow("if (fieldType == \$T.STOP)", TypeNames.TTYPE)
         read.addStatement("break")
         read.endControlFlow()
 
         if (structType.fields.isNotEmpty()) {
-            read.beginControlFlow("switch (field.fieldId)")
+            read.beginControlFlow("switch (\$T.fieldId(fieldHeader))", TypeNames.FIELD_HEADER)
         }
 
         for (field in structType.fields) {
@@ -604,7 +616,7 @@ class ThriftyCodeGenerator(
 
         if (structType.fields.isNotEmpty()) {
             read.beginControlFlow("default:")
-            read.addStatement("protocol.skip(field.typeId)")
+            read.addStatement("protocol.skip(fieldType)")
             read.endControlFlow() // end default
             read.addStatement("break")
             read.endControlFlow() // end switch
@@ -634,6 +646,54 @@ class ThriftyCodeGenerator(
             .build()
     }
 
+    private fun buildSerializedSizeFor(struct: StructType): MethodSpec {
+        val sizer = MethodSpec.methodBuilder("serializedSize")
+            .addModifiers(Modifier.PUBLIC)
+            .addParameter(TypeNames.PROTOCOL_KIND, "protocolKind")
+            .returns(TypeName.LONG)
+
+        // Compact field headers are delta-encoded against the last field written,
+        // which is only known at runtime once optional fields are involved.
+        val tracksFieldId = struct.fields.size > 1
+        sizer.addStatement("long size = 1L")
+        if (tracksFieldId) {
+            sizer.addStatement("int lastFieldId = 0")
+        }
+
+        for ((ix, field) in struct.fields.withIndex()) {
+            val fieldName = fieldNamer.getName(field)
+            val optional = !field.required
+            val tt = field.type.trueType
+
+            if (optional) {
+                sizer.beginControlFlow("if (this.\$N != null)", fieldName)
+            }
+
+            sizer.addStatement(
+                "size += \$T.fieldHeader(protocolKind, \$L, \$L)",
+                TypeNames.SERIALIZED_SIZE,
+                if (tracksFieldId) "lastFieldId" else "0",
+                field.id,
+            )
+            if (typeResolver.getTypeCode(tt) == TType.BOOL) {
+                sizer.addStatement("size += \$T.boolField(protocolKind)", TypeNames.SERIALIZED_SIZE)
+            } else {
+                tt.accept(GenerateSizeVisitor(typeResolver, sizer, "protocolKind", "this.$fieldName"))
+            }
+
+            if (tracksFieldId && ix < struct.fields.lastIndex) {
+                sizer.addStatement("lastFieldId = \$L", field.id)
+            }
+
+            if (optional) {
+                sizer.endControlFlow()
+            }
+        }
+
+        sizer.addStatement("return size")
+        return sizer.build()
+    }
+
     private fun buildEqualsFor(struct: StructType): MethodSpec {
         val equals = MethodSpec.methodBuilder("equals")
             .addAnnotation(TypeNames.OVERRIDE)
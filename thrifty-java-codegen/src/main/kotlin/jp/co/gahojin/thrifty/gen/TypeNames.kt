@@ -30,12 +30,12 @@ import jp.co.gahojin.thrifty.StructBuilder
 import jp.co.gahojin.thrifty.TType
 import jp.co.gahojin.thrifty.ThriftException
 import jp.co.gahojin.thrifty.ThriftField
-import jp.co.gahojin.thrifty.protocol.FieldMetadata
-import jp.co.gahojin.thrifty.protocol.ListMetadata
-import jp.co.gahojin.thrifty.protocol.MapMetadata
+import jp.co.gahojin.thrifty.protocol.ContainerHeader
+import jp.co.gahojin.thrifty.protocol.FieldHeader
 import jp.co.gahojin.thrifty.protocol.MessageMetadata
 import jp.co.gahojin.thrifty.protocol.Protocol
-import jp.co.gahojin.thrifty.protocol.SetMetadata
+import jp.co.gahojin.thrifty.protocol.ProtocolKind
+import jp.co.gahojin.thrifty.protocol.SerializedSize
 import jp.co.gahojin.thrifty.service.AsyncClientBase
 import jp.co.gahojin.thrifty.service.MethodCall
 import jp.co.gahojin.thrifty.service.ServiceMethodCallback
@@ -74,11 +74,11 @@ internal object TypeNames {
     val LINKED_HASH_MAP = classNameOf<LinkedHashMap<*, *>>()
     val LINKED_HASH_SET = classNameOf<LinkedHashSet<*>>()
 
-    val LIST_META = classNameOf<ListMetadata>()
-    val SET_META = classNameOf<SetMetadata>()
-    val MAP_META = classNameOf<MapMetadata>()
+    val CONTAINER_HEADER = classNameOf<ContainerHeader>()
 
     val PROTOCOL = classNameOf<Protocol>()
+    val PROTOCOL_KIND = classNameOf<ProtocolKind>()
+    val SERIALIZED_SIZE = classNameOf<SerializedSize>()
     val PROTOCOL_EXCEPTION = classNameOf<ProtocolException>()
     val IO_EXCEPTION = classNameOf<IOException>()
     val EXCEPTION = classNameOf<java.lang.Exception>()
@@ -91,7 +91,7 @@ internal object TypeNames {
     val BUILDER = classNameOf<StructBuilder<*>>()
     val ADAPTER = classNameOf<Adapter<*, *>>()
 
-    val FIELD_METADATA = classNameOf<FieldMetadata>()
+    val FIELD_HEADER = classNameOf<FieldHeader>()
     val MESSAGE_METADATA = classNameOf<MessageMetadata>()
 
     val OVERRIDE = classNameOf<Override>()
@@ -442,7 +442,7 @@ class ThriftyCodeGeneratorTest {
         """
         val expected = """
           case 1: {
-            if (field.typeId == TType.I32) {
+            if (fieldType == TType.I32) {
               int i32_0 = protocol.readI32();
               structs.enums.TestEnum value = structs.enums.TestEnum.findByValue(i32_0);
               if (value == null) {
@@ -450,7 +450,7 @@ class ThriftyCodeGeneratorTest {
               }
               builder.field(value);
             } else {
-              protocol.skip(field.typeId);
+              protocol.skip(fieldType);
             }
           }
           break;
@@ -476,19 +476,19 @@ class ThriftyCodeGeneratorTest {
         """
         val expected = """
           case 1: {
-            if (field.typeId == TType.I32) {
+            if (fieldType == TType.I32) {
               int i32_0 = protocol.readI32();
               structs.enums.TestEnum value = structs.enums.TestEnum.findByValue(i32_0);
               if (value != null) {
                 builder.field1(value);
               }
             } else {
-              protocol.skip(field.typeId);
+              protocol.skip(fieldType);
             }
           }
           break;
           case 2: {
-            if (field.typeId == TType.I32) {
+            if (fieldType == TType.I32) {
               int i32_0 = protocol.readI32();
               structs.enums.TestEnum value = structs.enums.TestEnum.findByValue(i32_0);
               if (value == null) {
@@ -496,7 +496,7 @@ class ThriftyCodeGeneratorTest {
               }
               builder.field2(value);
             } else {
-              protocol.skip(field.typeId);
+              protocol.skip(fieldType);
             }
           }
           break;
@@ -510,6 +510,47 @@ class ThriftyCodeGeneratorTest {
         javaFile.toString() shouldContain expected
     }
 
+    @Test
+    fun serializedSize() {
+        val thrift = """
+            namespace java serialized.size
+
+            struct Sized {
+                1: required string name
+                2: optional list<double> values
+                3: optional bool done
+            }
+        """
+
+        val expected = """
+            |  public long serializedSize(ProtocolKind protocolKind) {
+            |    long size = 1L;
+            |    int lastFieldId = 0;
+            |    size += SerializedSize.fieldHeader(protocolKind, lastFieldId, 1);
+            |    size += SerializedSize.string(protocolKind, this.name);
+            |    lastFieldId = 1;
+            |    if (this.values != null) {
+            |      size += SerializedSize.fieldHeader(protocolKind, lastFieldId, 2);
+            |      size += SerializedSize.listHeader(protocolKind, this.values.size());
+            |      size += this.values.size() * 8L;
+            |      lastFieldId = 2;
+            |    }
+            |    if (this.done != null) {
+            |      size += SerializedSize.fieldHeader(protocolKind, lastFieldId, 3);
+            |      size += SerializedSize.boolField(protocolKind);
+            |    }
+            |    return size;
+            |  }
+            |""".trimMargin()
+
+        val thriftFile = File(tmp, "serialized_size.thrift")
+        val schema = parse(thriftFile, thrift)
+        val gen = ThriftyCodeGenerator(schema).emitFileComment(false).emitSerializedSize(true)
+        val javaFile = gen.generateTypes()[0]
+
+        javaFile.toString() shouldContain expected
+    }
+
     @Test
     fun mapsWithEnumKeysAndValues () {
         val thrift = """
@@ -524,7 +565,7 @@ class ThriftyCodeGeneratorTest {
         """
 
         val expected = """
-              for (int i0 = 0; i0 < mapMetadata0.size; ++i0) {
+              for (int i0 = 0; i0 < mapSize0; ++i0) {
                 int i32_1 = protocol.readI32();
                 maps.enums.Key key0 = maps.enums.Key.findByValue(i32_1);
                 if (key0 == null) {
@@ -33,11 +33,14 @@ import com.squareup.kotlinpoet.FileSpec
 import com.squareup.kotlinpoet.FunSpec
 import com.squareup.kotlinpoet.INT
 import com.squareup.kotlinpoet.KModifier
+import com.squareup.kotlinpoet.LONG
 import com.squareup.kotlinpoet.MemberName
 import com.squareup.kotlinpoet.NameAllocator
 import com.squareup.kotlinpoet.ParameterSpec
 import com.squareup.kotlinpoet.ParameterizedTypeName.Companion.parameterizedBy
 import com.squareup.kotlinpoet.PropertySpec
+import com.squareup.kotlinpoet.SET
+import com.squareup.kotlinpoet.STRING
 import com.squareup.kotlinpoet.TypeAliasSpec
 import com.squareup.kotlinpoet.TypeName
 import com.squareup.kotlinpoet.TypeSpec
@@ -54,8 +57,12 @@ import jp.co.gahojin.thrifty.TType
 import jp.co.gahojin.thrifty.ThriftException
 import jp.co.gahojin.thrifty.ThriftField
 import jp.co.gahojin.thrifty.compiler.spi.KotlinTypeProcessor
+import jp.co.gahojin.thrifty.protocol.ContainerHeader
+import jp.co.gahojin.thrifty.protocol.FieldHeader
 import jp.co.gahojin.thrifty.protocol.MessageMetadata
 import jp.co.gahojin.thrifty.protocol.Protocol
+import jp.co.gahojin.thrifty.protocol.ProtocolKind
+import jp.co.gahojin.thrifty.protocol.SerializedSize
 import jp.co.gahojin.thrifty.schema.BuiltinType
 import jp.co.gahojin.thrifty.schema.Constant
 import jp.co.gahojin.thrifty.schema.EnumType
@@ -80,6 +87,7 @@ import jp.co.gahojin.thrifty.schema.parser.ListValueElement
 import jp.co.gahojin.thrifty.schema.parser.LiteralValueElement
 import jp.co.gahojin.thrifty.schema.parser.MapValueElement
 import jp.co.gahojin.thrifty.service.AsyncClientBase
+import jp.co.gahojin.thrifty.service.CallPolicy
 import jp.co.gahojin.thrifty.service.MethodCall
 import jp.co.gahojin.thrifty.service.ServiceMethodCallback
 import jp.co.gahojin.thrifty.service.TMessageType
@@ -104,7 +112,8 @@ private object Tags {
     const val SEND = "RESERVED:send"
     const val RECEIVE = "RESERVED:receive"
     const val RESULT = "RESERVED:resultValue"
-    const val FIELD = "RESERVED:fieldMeta"
+    const val FIELD = "RESERVED:fieldHeader"
+    const val FIELD_TYPE = "RESERVED:fieldType"
     const val DEFAULT = "RESERVED:default"
 }
 
@@ -152,6 +161,7 @@ class KotlinCodeGenerator(
     private var emitBigEnums: Boolean = false
     private var emitFileComment: Boolean = true
     private var emitDeepCopyFunc: Boolean = false
+    private var emitSerializedSize: Boolean = false
     private var failOnUnknownEnumValues: Boolean = true
     private var mutableFields: Boolean = false
 
@@ -201,7 +211,8 @@ class KotlinCodeGenerator(
                         newName("send", Tags.SEND)
                         newName("receive", Tags.RECEIVE)
                         newName("resultValue", Tags.RESULT)
-                        newName("fieldMeta", Tags.FIELD)
+                        newName("fieldHeader", Tags.FIELD)
+                        newName("fieldType", Tags.FIELD_TYPE)
 
                         for (param in key.parameters) {
                             newName(param.name, param)
@@ -279,6 +290,10 @@ class KotlinCodeGenerator(
         emitDeepCopyFunc = true
     }
 
+    fun emitSerializedSize(): KotlinCodeGenerator = apply {
+        emitSerializedSize = true
+    }
+
     fun failOnUnknownEnumValues(value: Boolean = true): KotlinCodeGenerator = apply {
         failOnUnknownEnumValues = value
     }
@@ -643,6 +658,10 @@ class KotlinCodeGenerator(
                 .build())
         }
 
+        if (emitSerializedSize) {
+            typeBuilder.addFunction(generateSerializedSize(struct))
+        }
+
         return typeBuilder
             .primaryConstructor(ctorBuilder.build())
             .addType(companionBuilder.build())
@@ -775,6 +794,10 @@ class KotlinCodeGenerator(
                     .build())
         }
 
+        if (emitSerializedSize) {
+            typeBuilder.addFunction(generateSerializedSizeForSealed(struct))
+        }
+
         return typeBuilder.addType(companionBuilder.build()).build()
     }
 
@@ -999,14 +1022,15 @@ class KotlinCodeGenerator(
         reader.addStatement("protocol.readStructBegin()")
         reader.beginControlFlow("while (true)")
 
-        reader.addStatement("val fieldMeta = protocol.readFieldBegin()")
+        reader.addStatement("val fieldHeader = protocol.readFieldHeader()")
+        reader.addStatement("val fieldType = %T.typeId(fieldHeader)", FieldHeader::class)
 
-        reader.beginControlFlow("if (fieldMeta.typeId == %T.STOP)", TType::class)
+        reader.beginControlFlow("if (fieldType == %T.STOP)", TType::class)
         reader.addStatement("break")
         reader.endControlFlow()
 
         if (struct.fields.isNotEmpty()) {
-            reader.beginControlFlow("when (fieldMeta.fieldId.toInt())")
+            reader.beginControlFlow("when (%T.fieldId(fieldHeader).toInt())", FieldHeader::class)
 
             for (field in struct.fields) {
                 val name = nameAllocator[field]
@@ -1014,7 +1038,7 @@ class KotlinCodeGenerator(
 
                 reader.addCode {
                     addStatement("${field.id}·->·{⇥")
-                    beginControlFlow("if (fieldMeta.typeId == %T.%L)", TType::class, fieldType.typeCodeName)
+                    beginControlFlow("if (fieldType == %T.%L)", TType::class, fieldType.typeCodeName)
 
                     val effectiveFailOnUnknownValues = if (fieldType.isEnum) {
                         failOnUnknownEnumValues || field.required
@@ -1031,16 +1055,16 @@ class KotlinCodeGenerator(
                         endControlFlow()
                     }
                     nextControlFlow("else")
-                    addStatement("protocol.skip(fieldMeta.typeId)")
+                    addStatement("protocol.skip(fieldType)")
                     endControlFlow()
                     addStatement("⇤}")
                 }
             }
 
-            reader.addStatement("else·-> protocol.skip(fieldMeta.typeId)")
-            reader.endControlFlow() // when (fieldMeta.fieldId.toInt())
+            reader.addStatement("else·-> protocol.skip(fieldType)")
+            reader.endControlFlow() // when (FieldHeader.fieldId(fieldHeader).toInt())
         } else {
-            reader.addStatement("protocol.skip(fieldMeta.typeId)")
+            reader.addStatement("protocol.skip(fieldType)")
         }
 
         reader.addStatement("protocol.readFieldEnd()")
@@ -1155,14 +1179,15 @@ class KotlinCodeGenerator(
 
         reader.beginControlFlow("while (true)")
 
-        reader.addStatement("val fieldMeta = protocol.readFieldBegin()")
+        reader.addStatement("val fieldHeader = protocol.readFieldHeader()")
+        reader.addStatement("val fieldType = %T.typeId(fieldHeader)", FieldHeader::class)
 
-        reader.beginControlFlow("if (fieldMeta.typeId == %T.STOP)", TType::class)
+        reader.beginControlFlow("if (fieldType == %T.STOP)", TType::class)
         reader.addStatement("break")
         reader.endControlFlow()
 
         if (struct.fields.isNotEmpty()) {
-            reader.beginControlFlow("when (fieldMeta.fieldId.toInt())")
+            reader.beginControlFlow("when (%T.fieldId(fieldHeader).toInt())", FieldHeader::class)
 
             for (field in struct.fields) {
                 val name = nameAllocator[field]
@@ -1171,23 +1196,23 @@ class KotlinCodeGenerator(
 
                 reader.addCode {
                     addStatement("${field.id}·->·{⇥")
-                    beginControlFlow("if (fieldMeta.typeId == %T.%L)", TType::class, fieldType.typeCodeName)
+                    beginControlFlow("if (fieldType == %T.%L)", TType::class, fieldType.typeCodeName)
 
                     generateReadCall(this, name, fieldType)
 
                     addStatement("%N = $typeName($name)", localResult)
 
                     nextControlFlow("else")
-                    addStatement("protocol.skip(fieldMeta.typeId)")
+                    addStatement("protocol.skip(fieldType)")
                     endControlFlow()
                     addStatement("⇤}")
                 }
             }
 
-            reader.addStatement("else·->·protocol.skip(fieldMeta.typeId)")
-            reader.endControlFlow() // when (fieldMeta.fieldId.toInt())
+            reader.addStatement("else·->·protocol.skip(fieldType)")
+            reader.endControlFlow() // when (FieldHeader.fieldId(fieldHeader).toInt())
         } else {
-            reader.addStatement("protocol.skip(fieldMeta.typeId)")
+            reader.addStatement("protocol.skip(fieldType)")
         }
 
         reader.addStatement("protocol.readFieldEnd()")
@@ -1331,6 +1356,201 @@ class KotlinCodeGenerator(
         generateRecursiveWrite(name, type, 0)
     }
 
+    /**
+     * Generates a function computing the number of bytes the struct's
+     * adapter would write, without calling any [Protocol] methods.
+     */
+    internal fun generateSerializedSize(struct: StructType): FunSpec {
+        val nameAllocator = nameAllocators[struct]
+        val sizer = FunSpec.builder("serializedSize")
+            .addParameter("protocolKind", ProtocolKind::class)
+            .returns(LONG)
+
+        if (struct.fields.isEmpty()) {
+            return sizer.addStatement("return 1L").build()
+        }
+
+        // Compact field headers are delta-encoded against the last field written,
+        // which is only known at runtime once optional fields are involved.
+        val tracksFieldId = struct.fields.size > 1
+        sizer.addStatement("var size = 1L")
+        if (tracksFieldId) {
+            sizer.addStatement("var lastFieldId = 0")
+        }
+        for ((ix, field) in struct.fields.withIndex()) {
+            val name = nameAllocator[field]
+            var source = "this.$name"
+
+            if (!field.required) {
+                sizer.beginControlFlow("this.%N?.also {", name)
+                source = "it"
+            }
+
+            generateFieldSizeCall(sizer, source, field, if (tracksFieldId) "lastFieldId" else "0")
+
+            if (tracksFieldId && ix < struct.fields.lastIndex) {
+                sizer.addStatement("lastFieldId = %L", field.id)
+            }
+
+            if (!field.required) {
+                sizer.endControlFlow()
+            }
+        }
+        sizer.addStatement("return size")
+
+        return sizer.build()
+    }
+
+    private fun generateSerializedSizeForSealed(struct: StructType): FunSpec {
+        val nameAllocator = nameAllocators[struct]
+        val sizer = FunSpec.builder("serializedSize")
+            .addParameter("protocolKind", ProtocolKind::class)
+            .returns(LONG)
+
+        sizer.addStatement("var size = 1L")
+        sizer.beginControlFlow("when (this)")
+        for (field in struct.fields) {
+            val typeName = FieldNamingPolicy.PASCAL.apply(nameAllocator[field])
+
+            sizer.beginControlFlow("is $typeName ->")
+            generateFieldSizeCall(sizer, "this.value", field, "0")
+            sizer.endControlFlow()
+        }
+        sizer.endControlFlow()
+        sizer.addStatement("return size")
+
+        return sizer.build()
+    }
+
+    private fun generateFieldSizeCall(sizer: FunSpec.Builder, name: String, field: Field, lastFieldId: String) {
+        sizer.addStatement("size += %T.fieldHeader(protocolKind, %L, %L)", SerializedSize::class, lastFieldId, field.id)
+        if (field.type.typeCode == TType.BOOL) {
+            sizer.addStatement("size += %T.boolField(protocolKind)", SerializedSize::class)
+        } else {
+            generateSizeCall(sizer, name, field.type)
+        }
+    }
+
+    private fun generateSizeCall(sizer: FunSpec.Builder, name: String, type: ThriftType) {
+
+        // Assumptions:
+        // - sizer has a parameter "protocolKind" and a local "size" to accumulate into
+
+        fun fixedSizeOf(type: ThriftType): Int {
+            return when (type.typeCode) {
+                TType.BOOL, TType.BYTE -> 1
+                TType.DOUBLE -> 8
+                else -> 0
+            }
+        }
+
+        fun generateRecursiveSize(source: String, type: ThriftType, scope: Int) {
+            type.accept(object : ThriftType.Visitor<Unit> {
+                override fun visitVoid(voidType: BuiltinType) {
+                    error("Cannot size void")
+                }
+
+                override fun visitBool(boolType: BuiltinType) {
+                    sizer.addStatement("size += 1")
+                }
+
+                override fun visitByte(byteType: BuiltinType) {
+                    sizer.addStatement("size += 1")
+                }
+
+                override fun visitI16(i16Type: BuiltinType) {
+                    sizer.addStatement("size += %T.i16(protocolKind, %L)", SerializedSize::class, source)
+                }
+
+                override fun visitI32(i32Type: BuiltinType) {
+                    sizer.addStatement("size += %T.i32(protocolKind, %L)", SerializedSize::class, source)
+                }
+
+                override fun visitI64(i64Type: BuiltinType) {
+                    sizer.addStatement("size += %T.i64(protocolKind, %L)", SerializedSize::class, source)
+                }
+
+                override fun visitDouble(doubleType: BuiltinType) {
+                    sizer.addStatement("size += 8")
+                }
+
+                override fun visitString(stringType: BuiltinType) {
+                    sizer.addStatement("size += %T.string(protocolKind, %L)", SerializedSize::class, source)
+                }
+
+                override fun visitBinary(binaryType: BuiltinType) {
+                    sizer.addStatement("size += %T.bytes(protocolKind, %L.size)", SerializedSize::class, source)
+                }
+
+                override fun visitEnum(enumType: EnumType) {
+                    sizer.addStatement("size += %T.i32(protocolKind, %L.value)", SerializedSize::class, source)
+                }
+
+                override fun visitList(listType: ListType) {
+                    visitCollection(listType.elementType)
+                }
+
+                override fun visitSet(setType: SetType) {
+                    visitCollection(setType.elementType)
+                }
+
+                private fun visitCollection(elementType: ThriftType) {
+                    sizer.addStatement("size += %T.listHeader(protocolKind, %L.size)", SerializedSize::class, source)
+
+                    val fixedSize = fixedSizeOf(elementType)
+                    if (fixedSize > 0) {
+                        sizer.addStatement("size += %L.size * %LL", source, fixedSize)
+                        return
+                    }
+
+                    val iterator = "item$scope"
+                    sizer.beginControlFlow("for ($iterator in %L)", source)
+
+                    generateRecursiveSize(iterator, elementType, scope + 1)
+
+                    sizer.endControlFlow()
+                }
+
+                override fun visitMap(mapType: MapType) {
+                    val keyType = mapType.keyType
+                    val valType = mapType.valueType
+
+                    sizer.addStatement("size += %T.mapHeader(protocolKind, %L.size)", SerializedSize::class, source)
+
+                    val fixedKeySize = fixedSizeOf(keyType)
+                    val fixedValSize = fixedSizeOf(valType)
+                    if (fixedKeySize > 0 && fixedValSize > 0) {
+                        sizer.addStatement("size += %L.size * %LL", source, fixedKeySize + fixedValSize)
+                        return
+                    }
+
+                    val keyIter = "key$scope"
+                    val valIter = "val$scope"
+                    sizer.beginControlFlow("for (($keyIter, $valIter) in %L)", source)
+
+                    generateRecursiveSize(keyIter, keyType, scope + 1)
+                    generateRecursiveSize(valIter, valType, scope + 1)
+
+                    sizer.endControlFlow()
+                }
+
+                override fun visitStruct(structType: StructType) {
+                    sizer.addStatement("size += %L.serializedSize(protocolKind)", source)
+                }
+
+                override fun visitTypedef(typedefType: TypedefType) {
+                    typedefType.oldType.accept(this)
+                }
+
+                override fun visitService(serviceType: ServiceType) {
+                    error("Cannot size a service")
+                }
+            })
+        }
+
+        generateRecursiveSize(name, type, 0)
+    }
+
     private fun generateReadCall(
         block: CodeBlock.Builder,
         name: String,
@@ -1395,15 +1615,15 @@ class KotlinCodeGenerator(
                 val elementType = listType.elementType
                 val listImplClassName = listClassName ?: ClassNames.ARRAY_LIST
                 val listImplType = listImplClassName.parameterizedBy(elementType.typeName)
-                val listMeta = if (localNamePrefix.isNotEmpty()) {
-                    "${localNamePrefix}_list$scope"
+                val listSize = if (localNamePrefix.isNotEmpty()) {
+                    "${localNamePrefix}_list${scope}Size"
                 } else {
-                    "list$scope"
+                    "list${scope}Size"
                 }
-                block.addStatement("val $listMeta = protocol.readListBegin()")
-                block.addStatement("val $name = %T($listMeta.size)", listImplType)
+                block.addStatement("val $listSize = %T.size(protocol.readListHeader())", ContainerHeader::class)
+                block.addStatement("val $name = %T($listSize)", listImplType)
 
-                block.beginControlFlow("for (i$scope in 0..<$listMeta.size)")
+                block.beginControlFlow("for (i$scope in 0..<$listSize)")
                 generateReadCall(
                     block = block,
                     name = "item$scope",
@@ -1421,16 +1641,16 @@ class KotlinCodeGenerator(
                 val elementType = setType.elementType
                 val setImplClassName = setClassName ?: ClassNames.LINKED_HASH_SET
                 val setImplType = setImplClassName.parameterizedBy(elementType.typeName)
-                val setMeta = if (localNamePrefix.isNotEmpty()) {
-                    "${localNamePrefix}_set$scope"
+                val setSize = if (localNamePrefix.isNotEmpty()) {
+                    "${localNamePrefix}_set${scope}Size"
                 } else {
-                    "set$scope"
+                    "set${scope}Size"
                 }
 
-                block.addStatement("val $setMeta = protocol.readSetBegin()")
-                block.addStatement("val $name = %T($setMeta.size)", setImplType)
+                block.addStatement("val $setSize = %T.size(protocol.readSetHeader())", ContainerHeader::class)
+                block.addStatement("val $name = %T($setSize)", setImplType)
 
-                block.beginControlFlow("for (i$scope in 0..<$setMeta.size)")
+                block.beginControlFlow("for (i$scope in 0..<$setSize)")
                 generateReadCall(
                     block = block,
                     name = "item$scope",
@@ -1449,16 +1669,16 @@ class KotlinCodeGenerator(
                 val valType = mapType.valueType
                 val mapImplClassName = mapClassName ?: ClassNames.LINKED_HASH_MAP
                 val mapImplType = mapImplClassName.parameterizedBy(keyType.typeName, valType.typeName)
-                val mapMeta = if (localNamePrefix.isNotEmpty()) {
-                    "${localNamePrefix}_map$scope"
+                val mapSize = if (localNamePrefix.isNotEmpty()) {
+                    "${localNamePrefix}_map${scope}Size"
                 } else {
-                    "map$scope"
+                    "map${scope}Size"
                 }
 
-                block.addStatement("val $mapMeta = protocol.readMapBegin()")
-                block.addStatement("val $name = %T($mapMeta.size)", mapImplType)
+                block.addStatement("val $mapSize = %T.size(protocol.readMapHeader())", ContainerHeader::class)
+                block.addStatement("val $name = %T($mapSize)", mapImplType)
 
-                block.beginControlFlow("for (i$scope in 0..<$mapMeta.size)")
+                block.beginControlFlow("for (i$scope in 0..<$mapSize)")
 
                 val keyName = "key$scope"
                 val valName = "val$scope"
@@ -2109,9 +2329,8 @@ class KotlinCodeGenerator(
             addSuperclassConstructorParameter("listener", AsyncClientBase.Listener::class)
         }
 
-        // suspendCoroutine is obviously not a class, but until kotlinpoet supports
-        // importing fully-qualified fun names, we can pun and use a ClassName.
-        val suspendCoroFn = MemberName("kotlin.coroutines", "suspendCoroutine")
+        // Cancellable, so that cancelling the caller cancels the call
+        val suspendCoroFn = MemberName("kotlinx.coroutines", "suspendCancellableCoroutine")
         val coroResultClass = ClassNames.RESULT
 
         for ((index, interfaceFun) in serviceInterface.funSpecs.withIndex()) {
@@ -2158,7 +2377,8 @@ class KotlinCodeGenerator(
                     addCode("%N, ", param.name)
                 }
 
-                addCode("%L))»\n", callback)
+                // The continuation carries any per-call CallTimeout, and cancels the call with it
+                addCode("%L), cont)»\n", callback)
 
                 addCode("⇤}\n")
             }
@@ -2166,6 +2386,30 @@ class KotlinCodeGenerator(
             type.addFunction(spec.build())
         }
 
+        // Includes inherited methods, since this list hides the base client's
+        val idempotentMethods = generateSequence(serviceType) { it.extendsService as? ServiceType }
+            .flatMap { it.methods }
+            .filter { it.isIdempotent }
+            .toList()
+        if (idempotentMethods.isNotEmpty()) {
+            val initializer = CodeBlock.builder().add("setOf(")
+            for ((index, method) in idempotentMethods.withIndex()) {
+                if (index > 0) {
+                    initializer.add(", ")
+                }
+                initializer.add("%S", method.name)
+            }
+            initializer.add(")")
+
+            val methodNames = PropertySpec.builder("IDEMPOTENT_METHODS", SET.parameterizedBy(STRING))
+                .addKdoc("The methods annotated as idempotent, which a [%T] may retry or hedge.", CallPolicy::class)
+                .initializer(initializer.build())
+                .build()
+            type.addType(TypeSpec.companionObjectBuilder()
+                .addProperty(methodNames)
+                .build())
+        }
+
         return type.build()
     }
 
@@ -2286,29 +2530,31 @@ class KotlinCodeGenerator(
                 recv.addStatement("var %N: %T = null", nameAllocator[ex], ex.type.typeName.copy(nullable = true))
             }
 
-            val fieldMeta = nameAllocator[Tags.FIELD]
+            val fieldHeader = nameAllocator[Tags.FIELD]
+            val fieldType = nameAllocator[Tags.FIELD_TYPE]
             recv.addStatement("protocol.readStructBegin()")
                 .beginControlFlow("while (true)")
-                .addStatement("val %N = protocol.readFieldBegin()", fieldMeta)
-                .beginControlFlow("if (%N.typeId == %T.STOP)", fieldMeta, TType::class)
+                .addStatement("val %N = protocol.readFieldHeader()", fieldHeader)
+                .addStatement("val %N = %T.typeId(%N)", fieldType, FieldHeader::class, fieldHeader)
+                .beginControlFlow("if (%N == %T.STOP)", fieldType, TType::class)
                 .addStatement("break")
-                .endControlFlow() // if (fieldMeta.typeId == TType.STOP)
+                .endControlFlow() // if (fieldType == TType.STOP)
 
             val readsSomething = hasResult || method.exceptions.isNotEmpty()
             if (readsSomething) {
-                recv.beginControlFlow("when (%N.fieldId.toInt())", fieldMeta)
+                recv.beginControlFlow("when (%T.fieldId(%N).toInt())", FieldHeader::class, fieldHeader)
             }
 
             if (hasResult) {
                 recv.addCode {
                     addStatement("0 -> {⇥")
-                    beginControlFlow("if (%N.typeId == %T.%L)", fieldMeta, TType::class, returnType.typeCodeName)
+                    beginControlFlow("if (%N == %T.%L)", fieldType, TType::class, returnType.typeCodeName)
 
                     generateReadCall(this, "value", returnType)
                     addStatement("%N = value", resultName)
 
                     nextControlFlow("else")
-                    addStatement("protocol.skip(%N.typeId)", fieldMeta)
+                    addStatement("protocol.skip(%N)", fieldType)
                     endControlFlow()
                     addStatement("⇤}")
                 }
@@ -2319,23 +2565,23 @@ class KotlinCodeGenerator(
                 val type = exn.type
                 recv.addCode {
                     addStatement("${exn.id}·->·{⇥")
-                    beginControlFlow("if (%N.typeId == %T.%L)", fieldMeta, TType::class, type.typeCodeName)
+                    beginControlFlow("if (%N == %T.%L)", fieldType, TType::class, type.typeCodeName)
 
                     generateReadCall(this, "value", type)
                     addStatement("$name = value")
 
                     nextControlFlow("else")
-                    addStatement("protocol.skip(%N.typeId)", fieldMeta)
+                    addStatement("protocol.skip(%N)", fieldType)
                     endControlFlow()
                     addStatement("⇤}")
                 }
             }
 
             if (readsSomething) {
-                recv.addStatement("else·-> protocol.skip(%N.typeId)", fieldMeta)
+                recv.addStatement("else·-> protocol.skip(%N)", fieldType)
                 recv.endControlFlow()
             } else {
-                recv.addStatement("protocol.skip(%N.typeId)", fieldMeta)
+                recv.addStatement("protocol.skip(%N)", fieldType)
             }
 
             recv.addStatement("protocol.readFieldEnd()")
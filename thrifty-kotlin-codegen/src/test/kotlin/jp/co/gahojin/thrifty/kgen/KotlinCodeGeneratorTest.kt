@@ -521,7 +521,7 @@ class KotlinCodeGeneratorTest {
             |  listener: AsyncClientBase.Listener,
             |) : AsyncClientBase(protocol, listener),
             |    Svc {
-            |  override suspend fun doSomething(foo: Int): Int = suspendCoroutine { cont ->
+            |  override suspend fun doSomething(foo: Int): Int = suspendCancellableCoroutine { cont ->
             |    this.enqueue(DoSomethingCall(foo, object : ServiceMethodCallback<Int> {
             |      override fun onSuccess(result: Int) {
             |        cont.resumeWith(Result.success(result))
@@ -530,12 +530,67 @@ class KotlinCodeGeneratorTest {
             |      override fun onError(error: Throwable) {
             |        cont.resumeWith(Result.failure(error))
             |      }
-            |    }))
+            |    }), cont)
             |  }
             |
         """.trimMargin())
     }
 
+    @Test
+    fun `suspend-fun service clients list idempotent methods`() {
+        val thrift = """
+            |namespace kt test.coro
+            |
+            |service Svc {
+            |  i32 getThing(1: i32 id) (idempotent = "true");
+            |  i32 findThing(1: string name) (thrifty.idempotent = "true");
+            |  void putThing(1: i32 id);
+            |}
+        """.trimMargin()
+
+        val file = generate(thrift)
+        file.shouldCompile()
+
+        file.single().toString() should contain("""
+            |  public companion object {
+            |    /**
+            |     * The methods annotated as idempotent, which a [CallPolicy] may retry or hedge.
+            |     */
+            |    public val IDEMPOTENT_METHODS: Set<String> = setOf("getThing", "findThing")
+            |  }
+        """.trimMargin())
+    }
+
+    @Test
+    fun `idempotent methods include those of extended services`() {
+        val thrift = """
+            |namespace kt test.coro
+            |
+            |service Base {
+            |  i32 getThing(1: i32 id) (idempotent = "true");
+            |}
+            |
+            |service Derived extends Base {
+            |  i32 findThing(1: string name) (idempotent = "true");
+            |}
+            |
+            |service Plain extends Base {
+            |  void putThing(1: i32 id);
+            |}
+        """.trimMargin()
+
+        val file = generate(thrift)
+        file.shouldCompile()
+
+        val text = file.single().toString()
+        text should contain("""
+            |    public val IDEMPOTENT_METHODS: Set<String> = setOf("findThing", "getThing")
+        """.trimMargin())
+        text.substringAfter("public class PlainClient(") should contain("""
+            |    public val IDEMPOTENT_METHODS: Set<String> = setOf("getThing")
+        """.trimMargin())
+    }
+
     @Test
     fun `omit service clients`() {
         val thrift = """
@@ -758,44 +813,45 @@ class KotlinCodeGeneratorTest {
             |      protocol.readStructBegin()
             |      var result : Union? = null
             |      while (true) {
-            |        val fieldMeta = protocol.readFieldBegin()
-            |        if (fieldMeta.typeId == TType.STOP) {
+            |        val fieldHeader = protocol.readFieldHeader()
+            |        val fieldType = FieldHeader.typeId(fieldHeader)
+            |        if (fieldType == TType.STOP) {
             |          break
             |        }
-            |        when (fieldMeta.fieldId.toInt()) {
+            |        when (FieldHeader.fieldId(fieldHeader).toInt()) {
             |          1 -> {
-            |            if (fieldMeta.typeId == TType.I32) {
+            |            if (fieldType == TType.I32) {
             |              val Foo = protocol.readI32()
             |              result = Foo(Foo)
             |            } else {
-            |              protocol.skip(fieldMeta.typeId)
+            |              protocol.skip(fieldType)
             |            }
             |          }
             |          2 -> {
-            |            if (fieldMeta.typeId == TType.I64) {
+            |            if (fieldType == TType.I64) {
             |              val Bar = protocol.readI64()
             |              result = Bar(Bar)
             |            } else {
-            |              protocol.skip(fieldMeta.typeId)
+            |              protocol.skip(fieldType)
             |            }
             |          }
             |          3 -> {
-            |            if (fieldMeta.typeId == TType.STRING) {
+            |            if (fieldType == TType.STRING) {
             |              val Baz = protocol.readString()
             |              result = Baz(Baz)
             |            } else {
-            |              protocol.skip(fieldMeta.typeId)
+            |              protocol.skip(fieldType)
             |            }
             |          }
             |          4 -> {
-            |            if (fieldMeta.typeId == TType.I32) {
+            |            if (fieldType == TType.I32) {
             |              val NotFoo = protocol.readI32()
             |              result = NotFoo(NotFoo)
             |            } else {
-            |              protocol.skip(fieldMeta.typeId)
+            |              protocol.skip(fieldType)
             |            }
             |          }
-            |          else -> protocol.skip(fieldMeta.typeId)
+            |          else -> protocol.skip(fieldType)
             |        }
             |        protocol.readFieldEnd()
             |      }
@@ -913,13 +969,13 @@ class KotlinCodeGeneratorTest {
 
         val expected = """
           1 -> {
-            if (fieldMeta.typeId == TType.I32) {
+            if (fieldType == TType.I32) {
               val field_ = protocol.readI32().let {
                 TestEnum.findByValue(it) ?: throw ThriftException(ThriftException.Kind.PROTOCOL_ERROR, "Unexpected value for enum type TestEnum: ${'$'}it")
               }
               _local_field = field_
             } else {
-              protocol.skip(fieldMeta.typeId)
+              protocol.skip(fieldType)
             }
           }"""
 
@@ -943,7 +999,7 @@ class KotlinCodeGeneratorTest {
 
         val expected = """
           1 -> {
-            if (fieldMeta.typeId == TType.I32) {
+            if (fieldType == TType.I32) {
               val field1 = protocol.readI32().let {
                 TestEnum.findByValue(it)
               }
@@ -951,17 +1007,17 @@ class KotlinCodeGeneratorTest {
                 _local_field1 = it
               }
             } else {
-              protocol.skip(fieldMeta.typeId)
+              protocol.skip(fieldType)
             }
           }
           2 -> {
-            if (fieldMeta.typeId == TType.I32) {
+            if (fieldType == TType.I32) {
               val field2 = protocol.readI32().let {
                 TestEnum.findByValue(it) ?: throw ThriftException(ThriftException.Kind.PROTOCOL_ERROR, "Unexpected value for enum type TestEnum: ${'$'}it")
               }
               _local_field2 = field2
             } else {
-              protocol.skip(fieldMeta.typeId)
+              protocol.skip(fieldType)
             }
           }"""
 
@@ -1372,6 +1428,41 @@ class KotlinCodeGeneratorTest {
     }
 
 
+    @Test
+    fun `generate data class with serializedSize method`() {
+        val thrift = """
+            namespace kt serialized_size
+
+            struct Sized {
+                1: required string name
+                2: optional list<double> values
+                3: optional bool done
+            }
+        """
+
+        val file = generate(thrift) { emitSerializedSize() }
+        file.toString() shouldContain """
+            |  public fun serializedSize(protocolKind: ProtocolKind): Long {
+            |    var size = 1L
+            |    var lastFieldId = 0
+            |    size += SerializedSize.fieldHeader(protocolKind, lastFieldId, 1)
+            |    size += SerializedSize.string(protocolKind, this.name)
+            |    lastFieldId = 1
+            |    this.values?.also {
+            |      size += SerializedSize.fieldHeader(protocolKind, lastFieldId, 2)
+            |      size += SerializedSize.listHeader(protocolKind, it.size)
+            |      size += it.size * 8L
+            |      lastFieldId = 2
+            |    }
+            |    this.done?.also {
+            |      size += SerializedSize.fieldHeader(protocolKind, lastFieldId, 3)
+            |      size += SerializedSize.boolField(protocolKind)
+            |    }
+            |    return size
+            |  }
+            |""".trimMargin()
+    }
+
     @Test
     fun `jvmSuppressWildcard to be attached to the collection type`() {
         val thrift = """
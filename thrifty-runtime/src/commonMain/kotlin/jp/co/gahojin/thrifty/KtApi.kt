@@ -22,6 +22,7 @@ package jp.co.gahojin.thrifty
 
 import jp.co.gahojin.thrifty.protocol.BinaryProtocol
 import jp.co.gahojin.thrifty.protocol.CompactProtocol
+import jp.co.gahojin.thrifty.protocol.HeaderProtocol
 import jp.co.gahojin.thrifty.protocol.JsonProtocol
 import jp.co.gahojin.thrifty.protocol.SimpleJsonProtocol
 import jp.co.gahojin.thrifty.transport.BufferTransport
@@ -103,3 +104,8 @@ fun <T : Transport> T.jsonProtocol() = JsonProtocol(this)
  * Creates a [SimpleJsonProtocol] from the given [Transport].
  */
 fun <T : Transport> T.simpleJsonProtocol() = SimpleJsonProtocol(this)
+
+/**
+ * Creates a [HeaderProtocol] from the given [Transport].
+ */
+fun <T : Transport> T.headerProtocol() = HeaderProtocol(this)
@@ -21,6 +21,7 @@
  */
 package jp.co.gahojin.thrifty
 
+import jp.co.gahojin.thrifty.protocol.FieldHeader
 import jp.co.gahojin.thrifty.protocol.Protocol
 import kotlin.jvm.JvmField
 import kotlin.jvm.JvmStatic
@@ -77,7 +78,13 @@ class ThriftException(
         PROTOCOL_ERROR(7),
         INVALID_TRANSFORM(8),
         INVALID_PROTOCOL(9),
-        UNSUPPORTED_CLIENT_TYPE(10);
+        UNSUPPORTED_CLIENT_TYPE(10),
+
+        /**
+         * The call did not complete before its deadline.  Raised by the
+         * client only; servers never send it.
+         */
+        TIMED_OUT(-1);
 
         companion object {
             @JvmStatic
@@ -108,24 +115,25 @@ class ThriftException(
             var kind = Kind.UNKNOWN
             protocol.readStructBegin()
             while (true) {
-                val field = protocol.readFieldBegin()
-                if (field.typeId == TType.STOP) {
+                val fieldHeader = protocol.readFieldHeader()
+                val fieldType = FieldHeader.typeId(fieldHeader)
+                if (fieldType == TType.STOP) {
                     break
                 }
-                when (field.fieldId) {
-                    1.toShort() -> if (field.typeId == TType.STRING) {
+                when (FieldHeader.fieldId(fieldHeader)) {
+                    1.toShort() -> if (fieldType == TType.STRING) {
                         message = protocol.readString()
                     } else {
-                        protocol.skip(field.typeId)
+                        protocol.skip(fieldType)
                     }
 
-                    2.toShort() -> if (field.typeId == TType.I32) {
+                    2.toShort() -> if (fieldType == TType.I32) {
                         kind = Kind.findByValue(protocol.readI32())
                     } else {
-                        protocol.skip(field.typeId)
+                        protocol.skip(fieldType)
                     }
 
-                    else -> protocol.skip(field.typeId)
+                    else -> protocol.skip(fieldType)
                 }
                 protocol.readFieldEnd()
             }
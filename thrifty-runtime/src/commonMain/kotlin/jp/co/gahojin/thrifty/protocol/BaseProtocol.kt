@@ -21,14 +21,221 @@
  */
 package jp.co.gahojin.thrifty.protocol
 
+import jp.co.gahojin.thrifty.transport.BufferTransport
 import jp.co.gahojin.thrifty.transport.Transport
+import okio.Buffer
+import okio.EOFException
+import okio.IOException
 import kotlin.jvm.JvmField
 
+/**
+ * Base class for protocols that encode into, and decode from, okio [Buffer]s
+ * rather than calling the [transport] once per primitive.
+ *
+ * When the transport is a [BufferTransport], its buffer is read and written
+ * directly.  Otherwise output accumulates in [sink] and is drained to the
+ * transport after each write call when [writeBufferSize] is zero, or once
+ * [writeBufferSize] bytes are pending and on [flush] when it is positive.
+ * Input is pulled into [source] on demand; with a positive [readBufferSize]
+ * each refill asks the transport for up to that many bytes, which requires
+ * a transport that returns partial reads rather than blocking until the
+ * request is filled.
+ *
+ * Reading and writing keep separate state, so one thread may read while
+ * another writes, as in pipelined [AsyncClientBase][jp.co.gahojin.thrifty.service.AsyncClientBase]
+ * clients; each direction must still be used by one thread at a time.
+ *
+ * @param transport
+ * @param writeBufferSize
+ *      The number of bytes to hold before draining to the transport,
+ *      or 0 to write through on every call.
+ * @param readBufferSize
+ *      The number of bytes to read ahead from the transport, or 0 to read
+ *      only as many bytes as each call needs.
+ */
 abstract class BaseProtocol(
     @JvmField
-    protected val transport: Transport
+    protected val transport: Transport,
+    private val writeBufferSize: Int = 0,
+    private val readBufferSize: Int = 0,
 ) : Protocol {
+    private val directBuffer = transport is BufferTransport
+
+    /**
+     * Pending output, not yet handed to the [transport].
+     */
+    @JvmField
+    protected val sink: Buffer = (transport as? BufferTransport)?.b ?: Buffer()
+
+    /**
+     * Input already read from the [transport], but not yet consumed.
+     */
+    @JvmField
+    protected val source: Buffer = (transport as? BufferTransport)?.b ?: Buffer()
+
+    // Separate cursors, so that one thread may read while another writes
+    private val readCursor = Buffer.UnsafeCursor()
+    private val writeCursor = Buffer.UnsafeCursor()
+
+    init {
+        require(writeBufferSize >= 0) { "writeBufferSize < 0: $writeBufferSize" }
+        require(readBufferSize >= 0) { "readBufferSize < 0: $readBufferSize" }
+    }
+
+    /**
+     * Drains [sink] to the transport if it holds at least [writeBufferSize] bytes.
+     */
+    @Throws(IOException::class)
+    protected fun drainIfFull() {
+        if (!directBuffer && sink.size >= writeBufferSize) {
+            drain()
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun drain() {
+        if (directBuffer || sink.size == 0L) {
+            return
+        }
+        val cursor = sink.readUnsafe(writeCursor)
+        try {
+            while (cursor.next() != -1) {
+                transport.write(cursor.data!!, cursor.start, cursor.end - cursor.start)
+            }
+        } finally {
+            cursor.close()
+        }
+        sink.clear()
+    }
+
+    /**
+     * Ensures that [source] holds at least [byteCount] bytes.
+     *
+     * @throws EOFException if the transport is exhausted first.
+     */
+    @Throws(IOException::class)
+    protected fun requireBytes(byteCount: Long) {
+        if (!request(byteCount)) {
+            throw EOFException("Expected $byteCount bytes; got ${source.size}")
+        }
+    }
+
+    /**
+     * Reads from the transport until [source] holds at least [byteCount] bytes.
+     *
+     * @return false if the transport is exhausted first.
+     */
+    @Throws(IOException::class)
+    protected fun request(byteCount: Long): Boolean {
+        if (source.size >= byteCount) {
+            return true
+        }
+        if (directBuffer) {
+            return false
+        }
+        val limit = maxOf(byteCount, readBufferSize.toLong())
+        while (source.size < byteCount) {
+            val cursor = source.readAndWriteUnsafe(readCursor)
+            val oldSize = source.size
+            var read = -1
+            try {
+                val capacity = cursor.expandBuffer(1)
+                read = transport.read(cursor.data!!, cursor.start, minOf(capacity, limit - oldSize).toInt())
+            } finally {
+                cursor.resizeBuffer(oldSize + read.coerceAtLeast(0))
+                cursor.close()
+            }
+            if (read == -1) {
+                return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * Discards [byteCount] bytes of input, consuming [source] before
+     * skipping in the transport.
+     */
+    @Throws(IOException::class)
+    protected fun skipBytes(byteCount: Long) {
+        if (directBuffer || source.size >= byteCount) {
+            source.skip(byteCount)
+        } else {
+            val buffered = source.size
+            source.clear()
+            transport.skip(byteCount - buffered)
+        }
+    }
+
+    /**
+     * Returns the number of bytes that every value of type [typeId] occupies
+     * in this protocol's encoding, or -1 if the size varies from value to value.
+     *
+     * Containers of fixed-size elements are skipped with a single [skipBytes].
+     */
+    protected open fun fixedSizeOf(typeId: Byte): Int = -1
+
+    @Throws(IOException::class)
+    override fun skipList() {
+        val header = readListHeader()
+        skipElements(ContainerHeader.elementTypeId(header), ContainerHeader.size(header))
+        readListEnd()
+    }
+
+    @Throws(IOException::class)
+    override fun skipSet() {
+        val header = readSetHeader()
+        skipElements(ContainerHeader.elementTypeId(header), ContainerHeader.size(header))
+        readSetEnd()
+    }
+
+    @Throws(IOException::class)
+    override fun skipMap() {
+        val header = readMapHeader()
+        skipEntries(ContainerHeader.keyTypeId(header), ContainerHeader.valueTypeId(header), ContainerHeader.size(header))
+        readMapEnd()
+    }
+
+    /**
+     * Skips the [count] elements of a list or set.
+     */
+    @Throws(IOException::class)
+    protected open fun skipElements(typeId: Byte, count: Int) {
+        val elementSize = fixedSizeOf(typeId)
+        if (elementSize > 0) {
+            if (count > 0) {
+                skipBytes(elementSize.toLong() * count)
+            }
+        } else {
+            for (i in 0..<count) {
+                skip(typeId)
+            }
+        }
+    }
+
+    /**
+     * Skips the [count] entries of a map.
+     */
+    @Throws(IOException::class)
+    protected open fun skipEntries(keyTypeId: Byte, valueTypeId: Byte, count: Int) {
+        val keySize = fixedSizeOf(keyTypeId)
+        val valueSize = fixedSizeOf(valueTypeId)
+        if (keySize > 0 && valueSize > 0) {
+            if (count > 0) {
+                skipBytes((keySize + valueSize).toLong() * count)
+            }
+        } else {
+            for (i in 0..<count) {
+                skip(keyTypeId)
+                skip(valueTypeId)
+            }
+        }
+    }
+
     override fun close() = transport.close()
 
-    override fun flush() = transport.flush()
+    override fun flush() {
+        drain()
+        transport.flush()
+    }
 }
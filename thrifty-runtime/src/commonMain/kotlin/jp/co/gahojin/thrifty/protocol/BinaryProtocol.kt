@@ -24,10 +24,9 @@ package jp.co.gahojin.thrifty.protocol
 import jp.co.gahojin.thrifty.TType
 import jp.co.gahojin.thrifty.transport.Transport
 import okio.ByteString
-import okio.ByteString.Companion.toByteString
-import okio.EOFException
 import okio.IOException
 import okio.ProtocolException
+import okio.utf8Size
 import kotlin.jvm.JvmOverloads
 
 /**
@@ -42,6 +41,13 @@ import kotlin.jvm.JvmOverloads
  * @param containerLengthLimit
  *      The maximum number of elements to read from the network for containers
  *      (maps, lists, sets).
+ * @param writeBufferSize
+ *      The number of bytes to buffer before writing to the transport, or 0 to
+ *      write through on every call.  Buffered output is always written on [flush].
+ * @param readBufferSize
+ *      The number of bytes to read ahead from the transport, or 0 to read only
+ *      what each call needs.  Read-ahead requires a transport that returns
+ *      partial reads, and may consume bytes past the end of a message.
  */
 class BinaryProtocol @JvmOverloads constructor(
     transport: Transport,
@@ -49,11 +55,9 @@ class BinaryProtocol @JvmOverloads constructor(
     private val containerLengthLimit: Long = -1,
     private val strictRead: Boolean = false,
     private val strictWrite: Boolean = false,
-) : BaseProtocol(transport) {
-    /**
-     * A shared buffer for writing.
-     */
-    private val buffer = ByteArray(8)
+    writeBufferSize: Int = 0,
+    readBufferSize: Int = 0,
+) : BaseProtocol(transport, writeBufferSize, readBufferSize) {
 
     @Throws(IOException::class)
     override fun writeMessageBegin(name: String, typeId: Byte, seqId: Int) {
@@ -134,37 +138,26 @@ class BinaryProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun writeByte(b: Byte) {
-        buffer[0] = b
-        transport.write(buffer, 0, 1)
+        sink.writeByte(b.toInt())
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeI16(i16: Short) {
-        buffer[0] = ((i16.toInt() shr 8) and 0xFF).toByte()
-        buffer[1] = (i16.toInt() and 0xFF).toByte()
-        transport.write(buffer, 0, 2)
+        sink.writeShort(i16.toInt())
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeI32(i32: Int) {
-        buffer[0] = ((i32 shr 24) and 0xFF).toByte()
-        buffer[1] = ((i32 shr 16) and 0xFF).toByte()
-        buffer[2] = ((i32 shr 8) and 0xFF).toByte()
-        buffer[3] = (i32 and 0xFF).toByte()
-        transport.write(buffer, 0, 4)
+        sink.writeInt(i32)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeI64(i64: Long) {
-        buffer[0] = ((i64 shr 56) and 0xFF).toByte()
-        buffer[1] = ((i64 shr 48) and 0xFF).toByte()
-        buffer[2] = ((i64 shr 40) and 0xFF).toByte()
-        buffer[3] = ((i64 shr 32) and 0xFF).toByte()
-        buffer[4] = ((i64 shr 24) and 0xFF).toByte()
-        buffer[5] = ((i64 shr 16) and 0xFF).toByte()
-        buffer[6] = ((i64 shr 8) and 0xFF).toByte()
-        buffer[7] = (i64 and 0xFF).toByte()
-        transport.write(buffer, 0, 8)
+        sink.writeLong(i64)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
@@ -174,15 +167,16 @@ class BinaryProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun writeString(str: String) {
-        val bs = str.encodeToByteArray()
-        writeI32(bs.size)
-        transport.write(bs)
+        sink.writeInt(str.utf8Size().toInt())
+        sink.writeUtf8(str)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeBinary(buf: ByteString) {
-        writeI32(buf.size)
-        transport.write(buf.toByteArray())
+        sink.writeInt(buf.size)
+        sink.write(buf)
+        drainIfFull()
     }
 
     //////////////////////
@@ -218,9 +212,15 @@ class BinaryProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun readFieldBegin(): FieldMetadata {
+        val header = readFieldHeader()
+        return FieldMetadata("", FieldHeader.typeId(header), FieldHeader.fieldId(header))
+    }
+
+    @Throws(IOException::class)
+    override fun readFieldHeader(): Int {
         val typeId = readByte()
         val fieldId = if (typeId == TType.STOP) 0 else readI16()
-        return FieldMetadata("", typeId, fieldId)
+        return FieldHeader.pack(typeId, fieldId)
     }
 
     @Throws(IOException::class)
@@ -229,13 +229,15 @@ class BinaryProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun readMapBegin(): MapMetadata {
+        val header = readMapHeader()
+        return MapMetadata(ContainerHeader.keyTypeId(header), ContainerHeader.valueTypeId(header), ContainerHeader.size(header))
+    }
+
+    @Throws(IOException::class)
+    override fun readMapHeader(): Long {
         val keyTypeId = readByte()
         val valueTypeId = readByte()
-        val size = readI32()
-        if (containerLengthLimit != -1L && size > containerLengthLimit) {
-            throw ProtocolException("Container size limit exceeded")
-        }
-        return MapMetadata(keyTypeId, valueTypeId, size)
+        return ContainerHeader.pack(keyTypeId, valueTypeId, readContainerSize())
     }
 
     @Throws(IOException::class)
@@ -244,12 +246,14 @@ class BinaryProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun readListBegin(): ListMetadata {
+        val header = readListHeader()
+        return ListMetadata(ContainerHeader.elementTypeId(header), ContainerHeader.size(header))
+    }
+
+    @Throws(IOException::class)
+    override fun readListHeader(): Long {
         val elementTypeId = readByte()
-        val size = readI32()
-        if (containerLengthLimit != -1L && size > containerLengthLimit) {
-            throw ProtocolException("Container size limit exceeded")
-        }
-        return ListMetadata(elementTypeId, size)
+        return ContainerHeader.pack(elementTypeId, readContainerSize())
     }
 
     @Throws(IOException::class)
@@ -258,12 +262,14 @@ class BinaryProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun readSetBegin(): SetMetadata {
+        val header = readSetHeader()
+        return SetMetadata(ContainerHeader.elementTypeId(header), ContainerHeader.size(header))
+    }
+
+    @Throws(IOException::class)
+    override fun readSetHeader(): Long {
         val elementTypeId = readByte()
-        val size = readI32()
-        if (containerLengthLimit != -1L && size > containerLengthLimit) {
-            throw ProtocolException("Container size limit exceeded")
-        }
-        return SetMetadata(elementTypeId, size)
+        return ContainerHeader.pack(elementTypeId, readContainerSize())
     }
 
     @Throws(IOException::class)
@@ -277,37 +283,26 @@ class BinaryProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun readByte(): Byte {
-        readFully(buffer, 1)
-        return buffer[0]
+        requireBytes(1)
+        return source.readByte()
     }
 
     @Throws(IOException::class)
     override fun readI16(): Short {
-        readFully(buffer, 2)
-        return (((buffer[0].toInt() and 0xFF) shl 8)
-                or (buffer[1].toInt() and 0xFF)).toShort()
+        requireBytes(2)
+        return source.readShort()
     }
 
     @Throws(IOException::class)
     override fun readI32(): Int {
-        readFully(buffer, 4)
-        return (((buffer[0].toInt() and 0xFF) shl 24)
-                or ((buffer[1].toInt() and 0xFF) shl 16)
-                or ((buffer[2].toInt() and 0xFF) shl 8)
-                or (buffer[3].toInt() and 0xFF))
+        requireBytes(4)
+        return source.readInt()
     }
 
     @Throws(IOException::class)
     override fun readI64(): Long {
-        readFully(buffer, 8)
-        return (((buffer[0].toLong() and 0xFFL) shl 56)
-                or ((buffer[1].toLong() and 0xFFL) shl 48)
-                or ((buffer[2].toLong() and 0xFFL) shl 40)
-                or ((buffer[3].toLong() and 0xFFL) shl 32)
-                or ((buffer[4].toLong() and 0xFFL) shl 24)
-                or ((buffer[5].toLong() and 0xFFL) shl 16)
-                or ((buffer[6].toLong() and 0xFFL) shl 8)
-                or ((buffer[7].toLong() and 0xFFL)))
+        requireBytes(8)
+        return source.readLong()
     }
 
     @Throws(IOException::class)
@@ -330,9 +325,9 @@ class BinaryProtocol @JvmOverloads constructor(
         if (stringLengthLimit != -1L && sizeInBytes > stringLengthLimit) {
             throw ProtocolException("Binary size limit exceeded")
         }
-        val data = ByteArray(sizeInBytes)
-        readFully(data, data.size)
-        return data.toByteString()
+        // Large payloads are returned as a snapshot sharing the buffer's segments
+        requireBytes(sizeInBytes.toLong())
+        return source.readByteString(sizeInBytes.toLong())
     }
 
     @Throws(IOException::class)
@@ -342,22 +337,22 @@ class BinaryProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun skipByte() {
-        transport.skip(1)
+        skipBytes(1)
     }
 
     @Throws(IOException::class)
     override fun skipI16() {
-        transport.skip(2)
+        skipBytes(2)
     }
 
     @Throws(IOException::class)
     override fun skipI32() {
-        transport.skip(4)
+        skipBytes(4)
     }
 
     @Throws(IOException::class)
     override fun skipI64() {
-        transport.skip(8)
+        skipBytes(8)
     }
 
     @Throws(IOException::class)
@@ -371,28 +366,32 @@ class BinaryProtocol @JvmOverloads constructor(
         if (stringLengthLimit != -1L && sizeInBytes > stringLengthLimit) {
             throw ProtocolException("String size limit exceeded")
         }
-        transport.skip(sizeInBytes.toLong())
+        skipBytes(sizeInBytes.toLong())
     }
 
-    @Throws(IOException::class)
-    private fun readStringWithSize(size: Int): String {
-        val encoded = ByteArray(size)
-        readFully(encoded, size)
-        return encoded.decodeToString()
+    override fun fixedSizeOf(typeId: Byte): Int {
+        return when (typeId) {
+            TType.BOOL, TType.BYTE -> 1
+            TType.I16 -> 2
+            TType.I32 -> 4
+            TType.I64, TType.DOUBLE -> 8
+            else -> -1
+        }
     }
 
     @Throws(IOException::class)
-    private fun readFully(buffer: ByteArray, count: Int) {
-        var toRead = count
-        var offset = 0
-        while (toRead > 0) {
-            val read = transport.read(buffer, offset, toRead)
-            if (read == -1) {
-                throw EOFException("Expected $count bytes; got $offset")
-            }
-            toRead -= read
-            offset += read
+    private fun readContainerSize(): Int {
+        val size = readI32()
+        if (containerLengthLimit != -1L && size > containerLengthLimit) {
+            throw ProtocolException("Container size limit exceeded")
         }
+        return size
+    }
+
+    @Throws(IOException::class)
+    private fun readStringWithSize(size: Int): String {
+        requireBytes(size.toLong())
+        return source.readUtf8(size.toLong())
     }
 
     companion object {
@@ -46,18 +46,32 @@ package jp.co.gahojin.thrifty.protocol
 
 import jp.co.gahojin.thrifty.TType
 import jp.co.gahojin.thrifty.transport.Transport
+import okio.Buffer
 import okio.ByteString
-import okio.ByteString.Companion.toByteString
-import okio.EOFException
 import okio.IOException
 import okio.ProtocolException
+import okio.utf8Size
+import kotlin.jvm.JvmOverloads
 
 /**
  * An implementation of the Thrift compact binary protocol.
  *
  * Instances of this class are *not* threadsafe.
+ *
+ * @param transport
+ * @param writeBufferSize
+ *      The number of bytes to buffer before writing to the transport, or 0 to
+ *      write through on every call.  Buffered output is always written on [flush].
+ * @param readBufferSize
+ *      The number of bytes to read ahead from the transport, or 0 to read only
+ *      what each call needs.  Read-ahead requires a transport that returns
+ *      partial reads, and may consume bytes past the end of a message.
  */
-class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
+class CompactProtocol @JvmOverloads constructor(
+    transport: Transport,
+    writeBufferSize: Int = 0,
+    readBufferSize: Int = 0,
+) : BaseProtocol(transport, writeBufferSize, readBufferSize) {
 
     // Boolean fields get special treatment - their value is encoded
     // directly in the field header.  As such, when a boolean field
@@ -68,7 +82,6 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
     // Similarly, we cache the value read from a field header until
     // the `readBool` call.
     private var booleanFieldType: Byte = -1
-    private val buffer = ByteArray(16)
 
     // Keep track of the most-recently-written fields, used for delta-encoding.
     private val writingFields = ShortStack()
@@ -76,6 +89,8 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
     private val readingFields = ShortStack()
     private var lastReadingField: Short = 0
 
+    private val varintCursor = Buffer.UnsafeCursor()
+
     @Throws(IOException::class)
     override fun writeMessageBegin(name: String, typeId: Byte, seqId: Int) {
         writeByte(PROTOCOL_ID)
@@ -188,8 +203,8 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun writeByte(b: Byte) {
-        buffer[0] = b
-        transport.write(buffer, 0, 1)
+        sink.writeByte(b.toInt())
+        drainIfFull()
     }
 
     @Throws(IOException::class)
@@ -209,31 +224,23 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun writeDouble(dub: Double) {
-        val bits = dub.toRawBits()
-
         // Doubles get written out in little-endian order
-        buffer[0] = (bits and 0xFFL).toByte()
-        buffer[1] = ((bits ushr  8) and 0xFFL).toByte()
-        buffer[2] = ((bits ushr 16) and 0xFFL).toByte()
-        buffer[3] = ((bits ushr 24) and 0xFFL).toByte()
-        buffer[4] = ((bits ushr 32) and 0xFFL).toByte()
-        buffer[5] = ((bits ushr 40) and 0xFFL).toByte()
-        buffer[6] = ((bits ushr 48) and 0xFFL).toByte()
-        buffer[7] = ((bits ushr 56) and 0xFFL).toByte()
-        transport.write(buffer, 0, 8)
+        sink.writeLongLe(dub.toRawBits())
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeString(str: String) {
-        val bytes = str.encodeToByteArray()
-        writeVarint32(bytes.size)
-        transport.write(bytes)
+        writeVarint32(str.utf8Size().toInt())
+        sink.writeUtf8(str)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeBinary(buf: ByteString) {
         writeVarint32(buf.size)
-        transport.write(buf.toByteArray())
+        sink.write(buf)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
@@ -250,33 +257,23 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
     @Throws(IOException::class)
     private fun writeVarint32(num: Int) {
         var n = num
-        for (i in buffer.indices) {
-            if (n and 0x7F.inv() == 0x00) {
-                buffer[i] = n.toByte()
-                transport.write(buffer, 0, i + 1)
-                return
-            } else {
-                buffer[i] = ((n and 0x7F) or 0x80).toByte()
-                n = n ushr 7
-            }
+        while (n and 0x7F.inv() != 0x00) {
+            sink.writeByte((n and 0x7F) or 0x80)
+            n = n ushr 7
         }
-        throw IllegalArgumentException("Cannot represent $n as a varint in 16 bytes or less")
+        sink.writeByte(n)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     private fun writeVarint64(num: Long) {
         var n = num
-        for (i in buffer.indices) {
-            if (n and 0x7FL.inv() == 0x00L) {
-                buffer[i] = n.toByte()
-                transport.write(buffer, 0, i + 1)
-                return
-            } else {
-                buffer[i] = ((n and 0x7F) or 0x80).toByte()
-                n = n ushr 7
-            }
+        while (n and 0x7FL.inv() != 0x00L) {
+            sink.writeByte(((n and 0x7F) or 0x80).toInt())
+            n = n ushr 7
         }
-        throw IllegalArgumentException("Cannot represent $n as a varint in 16 bytes or less")
+        sink.writeByte(n.toInt())
+        drainIfFull()
     }
 
     @Throws(IOException::class)
@@ -314,10 +311,20 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun readFieldBegin(): FieldMetadata {
+        val header = readFieldHeader()
+        val typeId = FieldHeader.typeId(header)
+        if (typeId == TType.STOP) {
+            return END_FIELDS
+        }
+        return FieldMetadata("", typeId, FieldHeader.fieldId(header))
+    }
+
+    @Throws(IOException::class)
+    override fun readFieldHeader(): Int {
         val compactId = readByte()
         val typeId = CompactTypes.compactToTtype((compactId.toInt() and 0x0F).toByte())
         if (compactId == TType.STOP) {
-            return END_FIELDS
+            return END_FIELDS_HEADER
         }
         val fieldId: Short
         val modifier = ((compactId.toInt() and 0xF0) shr 4).toShort()
@@ -332,7 +339,7 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
             booleanFieldType = (compactId.toInt() and 0x0F).toByte()
         }
         lastReadingField = fieldId
-        return FieldMetadata("", typeId, fieldId)
+        return FieldHeader.pack(typeId, fieldId)
     }
 
     @Throws(IOException::class)
@@ -341,11 +348,17 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun readMapBegin(): MapMetadata {
+        val header = readMapHeader()
+        return MapMetadata(ContainerHeader.keyTypeId(header), ContainerHeader.valueTypeId(header), ContainerHeader.size(header))
+    }
+
+    @Throws(IOException::class)
+    override fun readMapHeader(): Long {
         val size = readVarint32()
         val keyAndValueTypes = if (size == 0) 0 else readByte()
         val keyType = CompactTypes.compactToTtype(((keyAndValueTypes.toInt() shr 4) and 0x0F).toByte())
         val valueType = CompactTypes.compactToTtype((keyAndValueTypes.toInt() and 0x0F).toByte())
-        return MapMetadata(keyType, valueType, size)
+        return ContainerHeader.pack(keyType, valueType, size)
     }
 
     @Throws(IOException::class)
@@ -355,7 +368,13 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun readListBegin(): ListMetadata {
-        return readCollectionBegin(::ListMetadata)
+        val header = readCollectionHeader()
+        return ListMetadata(ContainerHeader.elementTypeId(header), ContainerHeader.size(header))
+    }
+
+    @Throws(IOException::class)
+    override fun readListHeader(): Long {
+        return readCollectionHeader()
     }
 
     @Throws(IOException::class)
@@ -365,10 +384,16 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun readSetBegin(): SetMetadata {
-        return readCollectionBegin(::SetMetadata)
+        val header = readCollectionHeader()
+        return SetMetadata(ContainerHeader.elementTypeId(header), ContainerHeader.size(header))
     }
 
-    private inline fun <T> readCollectionBegin(buildMetadata: (Byte, Int) -> T): T {
+    @Throws(IOException::class)
+    override fun readSetHeader(): Long {
+        return readCollectionHeader()
+    }
+
+    private fun readCollectionHeader(): Long {
         val sizeAndType = readByte()
         var size: Int = (sizeAndType.toInt() shr 4) and 0x0F
         if (size == 0x0F) {
@@ -376,7 +401,7 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         }
         val compactType = (sizeAndType.toInt() and 0x0F).toByte()
         val ttype = CompactTypes.compactToTtype(compactType)
-        return buildMetadata(ttype, size)
+        return ContainerHeader.pack(ttype, size)
     }
 
     @Throws(IOException::class)
@@ -398,8 +423,8 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun readByte(): Byte {
-        readFully(buffer, 1)
-        return buffer[0]
+        requireBytes(1)
+        return source.readByte()
     }
 
     @Throws(IOException::class)
@@ -419,16 +444,9 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun readDouble(): Double {
-        readFully(buffer, 8)
-        val bits: Long = ((buffer[0].toLong() and 0xFFL)
-                or ((buffer[1].toLong() and 0xFFL) shl 8)
-                or ((buffer[2].toLong() and 0xFFL) shl 16)
-                or ((buffer[3].toLong() and 0xFFL) shl 24)
-                or ((buffer[4].toLong() and 0xFFL) shl 32)
-                or ((buffer[5].toLong() and 0xFFL) shl 40)
-                or ((buffer[6].toLong() and 0xFFL) shl 48)
-                or ((buffer[7].toLong() and 0xFFL) shl 56))
-        return Double.fromBits(bits)
+        // Doubles are read in little-endian order
+        requireBytes(8)
+        return Double.fromBits(source.readLongLe())
     }
 
     @Throws(IOException::class)
@@ -437,9 +455,8 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         if (length == 0) {
             return ""
         }
-        val bytes = ByteArray(length)
-        readFully(bytes, length)
-        return bytes.decodeToString()
+        requireBytes(length.toLong())
+        return source.readUtf8(length.toLong())
     }
 
     @Throws(IOException::class)
@@ -448,9 +465,9 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         if (length == 0) {
             return ByteString.EMPTY
         }
-        val bytes = ByteArray(length)
-        readFully(bytes, length)
-        return bytes.toByteString()
+        // Large payloads are returned as a snapshot sharing the buffer's segments
+        requireBytes(length.toLong())
+        return source.readByteString(length.toLong())
     }
 
     @Throws(IOException::class)
@@ -460,27 +477,27 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun skipByte() {
-        transport.skip(1)
+        skipBytes(1)
     }
 
     @Throws(IOException::class)
     override fun skipI16() {
-        readI16()
+        skipVarints(1)
     }
 
     @Throws(IOException::class)
     override fun skipI32() {
-        readI32()
+        skipVarints(1)
     }
 
     @Throws(IOException::class)
     override fun skipI64() {
-        readI64()
+        skipVarints(1)
     }
 
     @Throws(IOException::class)
     override fun skipDouble() {
-        transport.skip(8)
+        skipBytes(8)
     }
 
     @Throws(IOException::class)
@@ -489,7 +506,67 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         if (length == 0) {
             return
         }
-        transport.skip(length.toLong())
+        skipBytes(length.toLong())
+    }
+
+    @Throws(IOException::class)
+    override fun skipElements(typeId: Byte, count: Int) {
+        if (isVarint(typeId)) {
+            skipVarints(count.toLong())
+        } else {
+            super.skipElements(typeId, count)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun skipEntries(keyTypeId: Byte, valueTypeId: Byte, count: Int) {
+        if (isVarint(keyTypeId) && isVarint(valueTypeId)) {
+            skipVarints(2L * count)
+        } else {
+            super.skipEntries(keyTypeId, valueTypeId, count)
+        }
+    }
+
+    override fun fixedSizeOf(typeId: Byte): Int {
+        // Bools are a whole byte inside containers; integers are varints.
+        return when (typeId) {
+            TType.BOOL, TType.BYTE -> 1
+            TType.DOUBLE -> 8
+            else -> -1
+        }
+    }
+
+    private fun isVarint(typeId: Byte): Boolean {
+        return typeId == TType.I16 || typeId == TType.I32 || typeId == TType.I64
+    }
+
+    /**
+     * Skips [count] varints by scanning buffered input for terminating
+     * bytes (those without the continuation bit), without decoding them.
+     */
+    @Throws(IOException::class)
+    private fun skipVarints(count: Long) {
+        var remaining = count
+        while (remaining > 0) {
+            requireBytes(1)
+            var consumed = 0L
+            val cursor = source.readUnsafe(varintCursor)
+            try {
+                scan@ while (cursor.next() != -1) {
+                    val data = cursor.data!!
+                    for (i in cursor.start..<cursor.end) {
+                        if (data[i] >= 0 && --remaining == 0L) {
+                            consumed += i - cursor.start + 1
+                            break@scan
+                        }
+                    }
+                    consumed += cursor.end - cursor.start
+                }
+            } finally {
+                cursor.close()
+            }
+            source.skip(consumed)
+        }
     }
 
     @Throws(IOException::class)
@@ -497,7 +574,8 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         var result = 0
         var shift = 0
         while (true) {
-            val b = readByte()
+            requireBytes(1)
+            val b = source.readByte()
             result = result or ((b.toInt() and 0x7F) shl shift)
             if (b.toInt() and 0x80 != 0x80) {
                 return result
@@ -511,7 +589,8 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         var result: Long = 0
         var shift = 0
         while (true) {
-            val b = readByte()
+            requireBytes(1)
+            val b = source.readByte()
             result = result or ((b.toInt() and 0x7F).toLong() shl shift)
             if (b.toInt() and 0x80 != 0x80) {
                 return result
@@ -520,20 +599,6 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         }
     }
 
-    @Throws(IOException::class)
-    private fun readFully(buffer: ByteArray, count: Int) {
-        var toRead = count
-        var offset = 0
-        while (toRead > 0) {
-            val read = transport.read(buffer, offset, toRead)
-            if (read == -1) {
-                throw EOFException()
-            }
-            toRead -= read
-            offset += read
-        }
-    }
-
     object CompactTypes {
         const val BOOLEAN_TRUE: Byte = 0x01
         const val BOOLEAN_FALSE: Byte = 0x02
@@ -613,6 +678,7 @@ class CompactProtocol(transport: Transport) : BaseProtocol(transport) {
         private const val TYPE_SHIFT_AMOUNT = 5
         private val NO_STRUCT = StructMetadata("")
         private val END_FIELDS = FieldMetadata("", TType.STOP, 0.toShort())
+        private const val END_FIELDS_HEADER = 0
 
         /**
          * Convert a twos-complement int to zigzag encoding,
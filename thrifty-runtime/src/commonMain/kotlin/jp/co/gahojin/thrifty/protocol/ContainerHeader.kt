@@ -0,0 +1,56 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.protocol
+
+import kotlin.jvm.JvmStatic
+
+/**
+ * Packs and unpacks the container headers returned by [Protocol.readListHeader],
+ * [Protocol.readSetHeader] and [Protocol.readMapHeader].
+ *
+ * A header holds the element count in bits 0-31, the element (or map value)
+ * [jp.co.gahojin.thrifty.TType] code in bits 32-39 and, for maps, the key
+ * type code in bits 40-47, so reading one does not allocate.
+ */
+object ContainerHeader {
+    @JvmStatic
+    fun pack(elementTypeId: Byte, size: Int): Long {
+        return ((elementTypeId.toLong() and 0xFF) shl 32) or (size.toLong() and 0xFFFFFFFFL)
+    }
+
+    @JvmStatic
+    fun pack(keyTypeId: Byte, valueTypeId: Byte, size: Int): Long {
+        return ((keyTypeId.toLong() and 0xFF) shl 40) or pack(valueTypeId, size)
+    }
+
+    @JvmStatic
+    fun size(header: Long): Int = header.toInt()
+
+    @JvmStatic
+    fun elementTypeId(header: Long): Byte = (header ushr 32).toByte()
+
+    @JvmStatic
+    fun keyTypeId(header: Long): Byte = (header ushr 40).toByte()
+
+    @JvmStatic
+    fun valueTypeId(header: Long): Byte = (header ushr 32).toByte()
+}
@@ -0,0 +1,43 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.protocol
+
+import kotlin.jvm.JvmStatic
+
+/**
+ * Packs and unpacks the field headers returned by [Protocol.readFieldHeader].
+ *
+ * A header holds the field's [jp.co.gahojin.thrifty.TType] code in bits 16-23
+ * and its field ID in bits 0-15, so reading one does not allocate.
+ */
+object FieldHeader {
+    @JvmStatic
+    fun pack(typeId: Byte, fieldId: Short): Int {
+        return ((typeId.toInt() and 0xFF) shl 16) or (fieldId.toInt() and 0xFFFF)
+    }
+
+    @JvmStatic
+    fun typeId(header: Int): Byte = (header ushr 16).toByte()
+
+    @JvmStatic
+    fun fieldId(header: Int): Short = header.toShort()
+}
@@ -0,0 +1,266 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.protocol
+
+import jp.co.gahojin.thrifty.transport.HeaderTransport
+import jp.co.gahojin.thrifty.transport.Transport
+import okio.ByteString
+import okio.IOException
+import okio.ProtocolException
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A protocol for Apache Thrift's THeader format.
+ *
+ * Messages are framed by a [HeaderTransport], and encoded with the
+ * [BinaryProtocol] or [CompactProtocol] as named by each frame.  Once a
+ * message has been read, replies use the same encoding as the message.
+ *
+ * Instances of this class are *not* threadsafe.
+ *
+ * @param transport
+ *      The underlying transport, wrapped in a [HeaderTransport] unless it
+ *      already is one.
+ * @param protocolId
+ *      The encoding of outgoing messages, either
+ *      [HeaderTransport.BINARY_PROTOCOL_ID] or [HeaderTransport.COMPACT_PROTOCOL_ID].
+ */
+class HeaderProtocol @JvmOverloads constructor(
+    transport: Transport,
+    protocolId: Int = HeaderTransport.BINARY_PROTOCOL_ID,
+) : Protocol {
+    /**
+     * The transport framing this protocol's messages; use it to set info
+     * headers and transforms.
+     */
+    val headerTransport: HeaderTransport = transport as? HeaderTransport ?: HeaderTransport(transport)
+
+    private val binary by lazy { BinaryProtocol(headerTransport) }
+    private val compact by lazy { CompactProtocol(headerTransport) }
+
+    private var protocolId = protocolId
+    private var protocol = protocolFor(protocolId)
+
+    @Throws(IOException::class)
+    override fun writeMessageBegin(name: String, typeId: Byte, seqId: Int) {
+        headerTransport.protocolId = protocolId
+        headerTransport.seqId = seqId
+        protocol.writeMessageBegin(name, typeId, seqId)
+    }
+
+    @Throws(IOException::class)
+    override fun writeMessageEnd() = protocol.writeMessageEnd()
+
+    @Throws(IOException::class)
+    override fun writeStructBegin(structName: String) = protocol.writeStructBegin(structName)
+
+    @Throws(IOException::class)
+    override fun writeStructEnd() = protocol.writeStructEnd()
+
+    @Throws(IOException::class)
+    override fun writeFieldBegin(fieldName: String, fieldId: Int, typeId: Byte) {
+        protocol.writeFieldBegin(fieldName, fieldId, typeId)
+    }
+
+    @Throws(IOException::class)
+    override fun writeFieldEnd() = protocol.writeFieldEnd()
+
+    @Throws(IOException::class)
+    override fun writeFieldStop() = protocol.writeFieldStop()
+
+    @Throws(IOException::class)
+    override fun writeMapBegin(keyTypeId: Byte, valueTypeId: Byte, mapSize: Int) {
+        protocol.writeMapBegin(keyTypeId, valueTypeId, mapSize)
+    }
+
+    @Throws(IOException::class)
+    override fun writeMapEnd() = protocol.writeMapEnd()
+
+    @Throws(IOException::class)
+    override fun writeListBegin(elementTypeId: Byte, listSize: Int) {
+        protocol.writeListBegin(elementTypeId, listSize)
+    }
+
+    @Throws(IOException::class)
+    override fun writeListEnd() = protocol.writeListEnd()
+
+    @Throws(IOException::class)
+    override fun writeSetBegin(elementTypeId: Byte, setSize: Int) {
+        protocol.writeSetBegin(elementTypeId, setSize)
+    }
+
+    @Throws(IOException::class)
+    override fun writeSetEnd() = protocol.writeSetEnd()
+
+    @Throws(IOException::class)
+    override fun writeBool(b: Boolean) = protocol.writeBool(b)
+
+    @Throws(IOException::class)
+    override fun writeByte(b: Byte) = protocol.writeByte(b)
+
+    @Throws(IOException::class)
+    override fun writeI16(i16: Short) = protocol.writeI16(i16)
+
+    @Throws(IOException::class)
+    override fun writeI32(i32: Int) = protocol.writeI32(i32)
+
+    @Throws(IOException::class)
+    override fun writeI64(i64: Long) = protocol.writeI64(i64)
+
+    @Throws(IOException::class)
+    override fun writeDouble(dub: Double) = protocol.writeDouble(dub)
+
+    @Throws(IOException::class)
+    override fun writeString(str: String) = protocol.writeString(str)
+
+    @Throws(IOException::class)
+    override fun writeBinary(buf: ByteString) = protocol.writeBinary(buf)
+
+    @Throws(IOException::class)
+    override fun readMessageBegin(): MessageMetadata {
+        headerTransport.readFrame()
+        protocolId = headerTransport.readProtocolId
+        protocol = protocolFor(protocolId)
+        return protocol.readMessageBegin()
+    }
+
+    @Throws(IOException::class)
+    override fun readMessageEnd() = protocol.readMessageEnd()
+
+    @Throws(IOException::class)
+    override fun readStructBegin(): StructMetadata = protocol.readStructBegin()
+
+    @Throws(IOException::class)
+    override fun readStructEnd() = protocol.readStructEnd()
+
+    @Throws(IOException::class)
+    override fun readFieldBegin(): FieldMetadata = protocol.readFieldBegin()
+
+    @Throws(IOException::class)
+    override fun readFieldHeader(): Int = protocol.readFieldHeader()
+
+    @Throws(IOException::class)
+    override fun readFieldEnd() = protocol.readFieldEnd()
+
+    @Throws(IOException::class)
+    override fun readMapBegin(): MapMetadata = protocol.readMapBegin()
+
+    @Throws(IOException::class)
+    override fun readMapHeader(): Long = protocol.readMapHeader()
+
+    @Throws(IOException::class)
+    override fun readMapEnd() = protocol.readMapEnd()
+
+    @Throws(IOException::class)
+    override fun readListBegin(): ListMetadata = protocol.readListBegin()
+
+    @Throws(IOException::class)
+    override fun readListHeader(): Long = protocol.readListHeader()
+
+    @Throws(IOException::class)
+    override fun readListEnd() = protocol.readListEnd()
+
+    @Throws(IOException::class)
+    override fun readSetBegin(): SetMetadata = protocol.readSetBegin()
+
+    @Throws(IOException::class)
+    override fun readSetHeader(): Long = protocol.readSetHeader()
+
+    @Throws(IOException::class)
+    override fun readSetEnd() = protocol.readSetEnd()
+
+    @Throws(IOException::class)
+    override fun readBool(): Boolean = protocol.readBool()
+
+    @Throws(IOException::class)
+    override fun readByte(): Byte = protocol.readByte()
+
+    @Throws(IOException::class)
+    override fun readI16(): Short = protocol.readI16()
+
+    @Throws(IOException::class)
+    override fun readI32(): Int = protocol.readI32()
+
+    @Throws(IOException::class)
+    override fun readI64(): Long = protocol.readI64()
+
+    @Throws(IOException::class)
+    override fun readDouble(): Double = protocol.readDouble()
+
+    @Throws(IOException::class)
+    override fun readString(): String = protocol.readString()
+
+    @Throws(IOException::class)
+    override fun readBinary(): ByteString = protocol.readBinary()
+
+    @Throws(IOException::class)
+    override fun skipBool() = protocol.skipBool()
+
+    @Throws(IOException::class)
+    override fun skipByte() = protocol.skipByte()
+
+    @Throws(IOException::class)
+    override fun skipI16() = protocol.skipI16()
+
+    @Throws(IOException::class)
+    override fun skipI32() = protocol.skipI32()
+
+    @Throws(IOException::class)
+    override fun skipI64() = protocol.skipI64()
+
+    @Throws(IOException::class)
+    override fun skipDouble() = protocol.skipDouble()
+
+    @Throws(IOException::class)
+    override fun skipString() = protocol.skipString()
+
+    @Throws(IOException::class)
+    override fun skipStruct() = protocol.skipStruct()
+
+    @Throws(IOException::class)
+    override fun skipList() = protocol.skipList()
+
+    @Throws(IOException::class)
+    override fun skipSet() = protocol.skipSet()
+
+    @Throws(IOException::class)
+    override fun skipMap() = protocol.skipMap()
+
+    @Throws(IOException::class)
+    override fun skip(typeCode: Byte) = protocol.skip(typeCode)
+
+    @Throws(IOException::class)
+    override fun flush() = protocol.flush()
+
+    override fun reset() = protocol.reset()
+
+    @Throws(IOException::class)
+    override fun close() = headerTransport.close()
+
+    private fun protocolFor(id: Int): Protocol {
+        return when (id) {
+            HeaderTransport.BINARY_PROTOCOL_ID -> binary
+            HeaderTransport.COMPACT_PROTOCOL_ID -> compact
+            else -> throw ProtocolException("Unsupported THeader protocol: $id")
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.protocol
+
+import okio.Buffer
+
+private const val HEX_DIGITS = "0123456789abcdef"
+
+// The character written after a backslash to escape each character below
+// 0x60, 0 for those that are written as-is, or 'u' for control characters
+// written as four hex digits.
+private val JSON_ESCAPES = ByteArray(0x60).also { table ->
+    for (c in 0..<0x20) {
+        table[c] = 'u'.code.toByte()
+    }
+    table['\b'.code] = 'b'.code.toByte()
+    table['\t'.code] = 't'.code.toByte()
+    table['\n'.code] = 'n'.code.toByte()
+    table['\u000C'.code] = 'f'.code.toByte()
+    table['\r'.code] = 'r'.code.toByte()
+    table['"'.code] = '"'.code.toByte()
+    table['\\'.code] = '\\'.code.toByte()
+}
+
+/**
+ * Writes [str] as the body of a JSON string, without the enclosing quotes.
+ *
+ * Runs of characters that need no escaping are encoded with a single
+ * [Buffer.writeUtf8] call.
+ */
+internal fun Buffer.writeJsonStringBody(str: String) {
+    var start = 0
+    for (i in str.indices) {
+        val c = str[i].code
+        if (c >= JSON_ESCAPES.size || JSON_ESCAPES[c].toInt() == 0) {
+            continue
+        }
+        if (start < i) {
+            writeUtf8(str, start, i)
+        }
+        val escape = JSON_ESCAPES[c].toInt()
+        writeByte('\\'.code)
+        writeByte(escape)
+        if (escape == 'u'.code) {
+            writeByte('0'.code)
+            writeByte('0'.code)
+            writeByte(HEX_DIGITS[c shr 4].code)
+            writeByte(HEX_DIGITS[c and 0xF].code)
+        }
+        start = i + 1
+    }
+    if (start < str.length) {
+        writeUtf8(str, start, str.length)
+    }
+}
+
+/**
+ * Writes [value] as [Double.toString] formats it.
+ *
+ * Integral values below 1e7, which print as "<n>.0", are formatted without
+ * an intermediate [String].
+ */
+internal fun Buffer.writeDoubleText(value: Double) {
+    val whole = value.toLong()
+    if (whole.toDouble() == value && whole > -10_000_000L && whole < 10_000_000L && (whole != 0L || value.toRawBits() == 0L)) {
+        writeDecimalLong(whole)
+        writeByte('.'.code)
+        writeByte('0'.code)
+    } else {
+        writeUtf8(value.toString())
+    }
+}
@@ -61,160 +61,187 @@ import kotlin.jvm.JvmStatic
  * This is a full-featured protocol supporting write and read.
  *
  * @property fieldNamesAsString Write out the TField names as a string instead of the default integer value
+ * @param writeBufferSize
+ *      The number of bytes to buffer before writing to the transport, or 0 to
+ *      write through on every call.  Buffered output is always written on [flush].
+ * @param readBufferSize
+ *      The number of bytes to read ahead from the transport, or 0 to read only
+ *      what each call needs.  Read-ahead requires a transport that returns
+ *      partial reads, and may consume bytes past the end of a message.
  */
 class JsonProtocol @JvmOverloads constructor(
     transport: Transport,
-    private val fieldNamesAsString: Boolean = false
-) : BaseProtocol(transport) {
-    // Stack of nested contexts that we may be in
-    private val contextStack = ArrayDeque<JsonBaseContext>()
+    private val fieldNamesAsString: Boolean = false,
+    writeBufferSize: Int = 0,
+    readBufferSize: Int = 0,
+) : BaseProtocol(transport, writeBufferSize, readBufferSize) {
+    // Stack of the enclosing contexts, as CONTEXT_* states
+    private var contextStack = ByteArray(16)
+    private var contextDepth = 0
 
     // Current context that we are in
-    private var context = JsonBaseContext()
-
-    // Reader that manages a 1-byte buffer
-    private var reader: LookaheadReader = LookaheadReader()
+    private var context = CONTEXT_BASE
 
     // Push a new Json context onto the stack.
-    private fun pushContext(c: JsonBaseContext) {
-        contextStack.addFirst(context)
+    private fun pushContext(c: Byte) {
+        if (contextDepth == contextStack.size) {
+            contextStack = contextStack.copyOf(contextDepth * 2)
+        }
+        contextStack[contextDepth++] = context
         context = c
     }
 
     // Pop the last Json context off the stack
     private fun popContext() {
-        context = contextStack.removeFirst()
+        context = contextStack[--contextDepth]
     }
 
     // Reset the context stack to its initial state
     private fun resetContext() {
-        while (!contextStack.isEmpty()) {
-            popContext()
+        if (contextDepth > 0) {
+            context = contextStack[0]
+            contextDepth = 0
         }
     }
 
     override fun reset() {
-        contextStack.clear()
-        context = JsonBaseContext()
-        reader = LookaheadReader()
+        contextDepth = 0
+        context = CONTEXT_BASE
     }
 
-    // Temporary buffer used by several methods
-    private val tmpbuf = ByteArray(4)
-
-    // Read a byte that must match b[0]; otherwise an exception is thrown.
-    // Marked protected to avoid synthetic accessor in JsonListContext.read
-    // and JsonPairContext.read
+    // Write the separator, if any, that the current context needs before
+    // the next item, and advance the context.
     @Throws(IOException::class)
-    private fun readJsonSyntaxChar(b: ByteArray) {
-        val ch = reader.read()
-        if (ch != b[0]) {
-            throw ProtocolException("Unexpected character:${ch.toInt().toChar()}")
+    private fun writeContext() {
+        when (context) {
+            CONTEXT_LIST_FIRST -> context = CONTEXT_LIST
+            CONTEXT_LIST -> sink.writeByte(COMMA.toInt())
+            CONTEXT_PAIR_FIRST -> context = CONTEXT_PAIR_KEY
+            CONTEXT_PAIR_KEY -> {
+                sink.writeByte(COLON.toInt())
+                context = CONTEXT_PAIR_VALUE
+            }
+            CONTEXT_PAIR_VALUE -> {
+                sink.writeByte(COMMA.toInt())
+                context = CONTEXT_PAIR_KEY
+            }
         }
     }
 
-    // Write the bytes in array buf as a Json characters, escaping as needed
+    // Read the separator, if any, that the current context expects before
+    // the next item, and advance the context.
     @Throws(IOException::class)
-    private fun writeJsonString(b: ByteArray) {
-        context.write()
-        transport.write(QUOTE)
-        val len = b.size
-        for (i in 0..<len) {
-            if (b[i].toInt() and 0x00FF >= 0x30) {
-                if (b[i] == BACKSLASH[0]) {
-                    transport.write(BACKSLASH)
-                    transport.write(BACKSLASH)
-                } else {
-                    transport.write(b, i, 1)
-                }
-            } else {
-                tmpbuf[0] = JSON_CHAR_TABLE[b[i].toInt()]
-                when {
-                    tmpbuf[0] == 1.toByte() -> {
-                        transport.write(b, i, 1)
-                    }
+    private fun readContext() {
+        when (context) {
+            CONTEXT_LIST_FIRST -> context = CONTEXT_LIST
+            CONTEXT_LIST -> readJsonSyntaxChar(COMMA)
+            CONTEXT_PAIR_FIRST -> context = CONTEXT_PAIR_KEY
+            CONTEXT_PAIR_KEY -> {
+                readJsonSyntaxChar(COLON)
+                context = CONTEXT_PAIR_VALUE
+            }
+            CONTEXT_PAIR_VALUE -> {
+                readJsonSyntaxChar(COMMA)
+                context = CONTEXT_PAIR_KEY
+            }
+        }
+    }
 
-                    tmpbuf[0] > 1 -> {
-                        transport.write(BACKSLASH)
-                        transport.write(tmpbuf, 0, 1)
-                    }
+    // Numbers in the key position of a Json record need to be quoted, since
+    // Json keys must be strings.
+    private fun escapeNum(): Boolean {
+        return context == CONTEXT_PAIR_FIRST || context == CONTEXT_PAIR_KEY
+    }
 
-                    else -> {
-                        transport.write(ESCSEQ)
-                        tmpbuf[0] = hexChar((b[i].toInt() shr 4).toByte())
-                        tmpbuf[1] = hexChar(b[i])
-                        transport.write(tmpbuf, 0, 2)
-                    }
-                }
-            }
+    // Read a byte that must match b; otherwise an exception is thrown.
+    @Throws(IOException::class)
+    private fun readJsonSyntaxChar(b: Byte) {
+        val ch = readJsonByte()
+        if (ch != b) {
+            throw ProtocolException("Unexpected character:${ch.toInt().toChar()}")
         }
-        transport.write(QUOTE)
+    }
+
+    // Write the string as Json characters, escaping as needed.
+    @Throws(IOException::class)
+    private fun writeJsonString(str: String) {
+        writeContext()
+        sink.writeByte(QUOTE.toInt())
+        sink.writeJsonStringBody(str)
+        sink.writeByte(QUOTE.toInt())
+        drainIfFull()
+    }
+
+    // Write a type name, which never needs escaping.
+    @Throws(IOException::class)
+    private fun writeJsonTypeName(typeId: Byte) {
+        writeContext()
+        sink.writeByte(QUOTE.toInt())
+        sink.write(JsonTypes.ttypeToJson(typeId))
+        sink.writeByte(QUOTE.toInt())
+        drainIfFull()
     }
 
     // Write out number as a Json value. If the context dictates so, it will be
     // wrapped in quotes to output as a Json string.
     @Throws(IOException::class)
     private fun writeJsonInteger(num: Long) {
-        context.write()
-        val str = num.toString()
-        val escapeNum = context.escapeNum()
+        writeContext()
+        val escapeNum = escapeNum()
         if (escapeNum) {
-            transport.write(QUOTE)
+            sink.writeByte(QUOTE.toInt())
         }
-        transport.write(str.encodeToByteArray())
+        sink.writeDecimalLong(num)
         if (escapeNum) {
-            transport.write(QUOTE)
+            sink.writeByte(QUOTE.toInt())
         }
+        drainIfFull()
     }
 
     // Write out a double as a Json value. If it is NaN or infinity or if the
     // context dictates escaping, write out as Json string.
     @Throws(IOException::class)
     private fun writeJsonDouble(num: Double) {
-        context.write()
-        val str = num.toString()
-        var special = false
-        when (str[0]) {
-            'N', 'I' -> special = true
-            '-' -> if (str[1] == 'I') { // -Infinity
-                special = true
-            }
-            else -> Unit
-        }
-        val escapeNum = special || context.escapeNum()
+        writeContext()
+        val escapeNum = num.isNaN() || num.isInfinite() || escapeNum()
         if (escapeNum) {
-            transport.write(QUOTE)
+            sink.writeByte(QUOTE.toInt())
         }
-        transport.write(str.encodeToByteArray())
+        sink.writeDoubleText(num)
         if (escapeNum) {
-            transport.write(QUOTE)
+            sink.writeByte(QUOTE.toInt())
         }
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     private fun writeJsonObjectStart() {
-        context.write()
-        transport.write(LBRACE)
-        pushContext(JsonPairContext())
+        writeContext()
+        sink.writeByte(LBRACE.toInt())
+        pushContext(CONTEXT_PAIR_FIRST)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     private fun writeJsonObjectEnd() {
         popContext()
-        transport.write(RBRACE)
+        sink.writeByte(RBRACE.toInt())
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     private fun writeJsonArrayStart() {
-        context.write()
-        transport.write(LBRACKET)
-        pushContext(JsonListContext())
+        writeContext()
+        sink.writeByte(LBRACKET.toInt())
+        pushContext(CONTEXT_LIST_FIRST)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     private fun writeJsonArrayEnd() {
         popContext()
-        transport.write(RBRACKET)
+        sink.writeByte(RBRACKET.toInt())
+        drainIfFull()
     }
 
     @Throws(IOException::class)
@@ -222,7 +249,7 @@ class JsonProtocol @JvmOverloads constructor(
         resetContext() // THRIFT-3743
         writeJsonArrayStart()
         writeJsonInteger(VERSION)
-        writeJsonString(name.encodeToByteArray())
+        writeJsonString(name)
         writeJsonInteger(typeId.toLong())
         writeJsonInteger(seqId.toLong())
     }
@@ -250,7 +277,7 @@ class JsonProtocol @JvmOverloads constructor(
             writeJsonInteger(fieldId.toLong())
         }
         writeJsonObjectStart()
-        writeJsonString(JsonTypes.ttypeToJson(typeId))
+        writeJsonTypeName(typeId)
     }
 
     @Throws(IOException::class)
@@ -263,8 +290,8 @@ class JsonProtocol @JvmOverloads constructor(
     @Throws(IOException::class)
     override fun writeMapBegin(keyTypeId: Byte, valueTypeId: Byte, mapSize: Int) {
         writeJsonArrayStart()
-        writeJsonString(JsonTypes.ttypeToJson(keyTypeId))
-        writeJsonString(JsonTypes.ttypeToJson(valueTypeId))
+        writeJsonTypeName(keyTypeId)
+        writeJsonTypeName(valueTypeId)
         writeJsonInteger(mapSize.toLong())
         writeJsonObjectStart()
     }
@@ -278,7 +305,7 @@ class JsonProtocol @JvmOverloads constructor(
     @Throws(IOException::class)
     override fun writeListBegin(elementTypeId: Byte, listSize: Int) {
         writeJsonArrayStart()
-        writeJsonString(JsonTypes.ttypeToJson(elementTypeId))
+        writeJsonTypeName(elementTypeId)
         writeJsonInteger(listSize.toLong())
     }
 
@@ -290,7 +317,7 @@ class JsonProtocol @JvmOverloads constructor(
     @Throws(IOException::class)
     override fun writeSetBegin(elementTypeId: Byte, setSize: Int) {
         writeJsonArrayStart()
-        writeJsonString(JsonTypes.ttypeToJson(elementTypeId))
+        writeJsonTypeName(elementTypeId)
         writeJsonInteger(setSize.toLong())
     }
 
@@ -331,7 +358,7 @@ class JsonProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun writeString(str: String) {
-        writeJsonString(str.encodeToByteArray())
+        writeJsonString(str)
     }
 
     @Throws(IOException::class)
@@ -347,68 +374,60 @@ class JsonProtocol @JvmOverloads constructor(
     @Throws(IOException::class)
     private fun readJsonString(skipContext: Boolean): ByteString {
         val buffer = Buffer()
-        val codeunits = ArrayList<Char>()
+        var highSurrogate = -1
         if (!skipContext) {
-            context.read()
+            readContext()
         }
         readJsonSyntaxChar(QUOTE)
         while (true) {
-            var ch = reader.read()
-            if (ch == QUOTE[0]) {
+            // Copy everything up to the next quote or escape in bulk
+            requireBytes(1)
+            val index = source.indexOfElement(STRING_DELIMITERS)
+            if (index == -1L) {
+                buffer.write(source, source.size)
+                continue
+            }
+            buffer.write(source, index)
+            var ch = source.readByte()
+            if (ch == QUOTE) {
                 break
             }
-            if (ch == ESCSEQ[0]) {
-                ch = reader.read()
-                ch = if (ch == ESCSEQ[1]) {
-                    transport.read(tmpbuf, 0, 4)
-                    val cu = ((hexVal(tmpbuf[0]).toInt() shl 12)
-                            + (hexVal(tmpbuf[1]).toInt() shl 8)
-                            + (hexVal(tmpbuf[2]).toInt() shl 4)
-                            + hexVal(tmpbuf[3]).toInt()).toShort()
-                    try {
-                        when {
-                            cu.toInt().toChar().isHighSurrogate() -> {
-                                if (codeunits.isNotEmpty()) {
-                                    throw ProtocolException("Expected low surrogate char")
-                                }
-                                codeunits.add(cu.toInt().toChar())
-                            }
-
-                            cu.toInt().toChar().isLowSurrogate() -> {
-                                if (codeunits.isEmpty()) {
-                                    throw ProtocolException("Expected high surrogate char")
-                                }
-                                codeunits.add(cu.toInt().toChar())
-                                val bytes = Buffer()
-                                    .writeUtf8CodePoint(codeunits[0].code)
-                                    .writeUtf8CodePoint(codeunits[1].code)
-                                    .readUtf8()
-                                    .encodeToByteArray()
-                                buffer.write(bytes)
-                                codeunits.clear()
+            ch = readJsonByte()
+            if (ch == 'u'.code.toByte()) {
+                requireBytes(4)
+                try {
+                    val cu = ((hexVal(source.readByte()).toInt() shl 12)
+                            + (hexVal(source.readByte()).toInt() shl 8)
+                            + (hexVal(source.readByte()).toInt() shl 4)
+                            + hexVal(source.readByte()).toInt())
+                    when {
+                        cu.toChar().isHighSurrogate() -> {
+                            if (highSurrogate != -1) {
+                                throw ProtocolException("Expected low surrogate char")
                             }
+                            highSurrogate = cu
+                        }
 
-                            else -> {
-                                val bytes = Buffer()
-                                    .writeUtf8CodePoint(cu.toInt())
-                                    .readUtf8()
-                                    .encodeToByteArray()
-                                buffer.write(bytes)
+                        cu.toChar().isLowSurrogate() -> {
+                            if (highSurrogate == -1) {
+                                throw ProtocolException("Expected high surrogate char")
                             }
+                            buffer.writeUtf8CodePoint(0x10000 + ((highSurrogate - 0xD800) shl 10) + (cu - 0xDC00))
+                            highSurrogate = -1
                         }
-                        continue
-                    } catch (_: IOException) {
-                        throw ProtocolException("Invalid unicode sequence")
-                    }
-                } else {
-                    val off = ESCAPE_CHARS.indexOf(ch.toInt().toChar())
-                    if (off == -1) {
-                        throw ProtocolException("Expected control char")
+
+                        else -> buffer.writeUtf8CodePoint(cu)
                     }
-                    ESCAPE_CHAR_VALS[off]
+                } catch (_: ProtocolException) {
+                    throw ProtocolException("Invalid unicode sequence")
                 }
+                continue
+            }
+            val off = ESCAPE_CHARS.indexOf(ch.toInt().toChar())
+            if (off == -1) {
+                throw ProtocolException("Expected control char")
             }
-            buffer.write(byteArrayOf(ch))
+            buffer.writeByte(ESCAPE_CHAR_VALS[off].toInt())
         }
         return buffer.readByteString()
     }
@@ -425,26 +444,22 @@ class JsonProtocol @JvmOverloads constructor(
     // not do a complete regex check to validate that this is actually a number.
     @Throws(IOException::class)
     private fun readJsonNumericChars(): String {
-        return buildString {
-            while (true) {
-                val ch = reader.peek()
-                if (!isJsonNumeric(ch)) {
-                    break
-                }
-                append(reader.read().toInt().toChar())
-            }
+        var length = 0L
+        while (request(length + 1) && isJsonNumeric(source[length])) {
+            length++
         }
+        return source.readUtf8(length)
     }
 
     // Read in a Json number. If the context dictates, read in enclosing quotes.
     @Throws(IOException::class)
     private fun readJsonInteger(): Long {
-        context.read()
-        if (context.escapeNum()) {
+        readContext()
+        if (escapeNum()) {
             readJsonSyntaxChar(QUOTE)
         }
         val str = readJsonNumericChars()
-        if (context.escapeNum()) {
+        if (escapeNum()) {
             readJsonSyntaxChar(QUOTE)
         }
         return try {
@@ -458,17 +473,17 @@ class JsonProtocol @JvmOverloads constructor(
     // when expected or if wrapped in quotes when not expected.
     @Throws(IOException::class)
     private fun readJsonDouble(): Double {
-        context.read()
-        return if (reader.peek() == QUOTE[0]) {
+        readContext()
+        return if (peekJsonByte() == QUOTE) {
             val str = readJsonString(true)
             val dub = str.utf8().toDouble()
-            if (!context.escapeNum() && !dub.isNaN() && !dub.isInfinite()) {
+            if (!escapeNum() && !dub.isNaN() && !dub.isInfinite()) {
                 // Throw exception -- we should not be in a string in this case
                 throw ProtocolException("Numeric data unexpectedly quoted")
             }
             dub
         } else {
-            if (context.escapeNum()) {
+            if (escapeNum()) {
                 // This will throw - we should have had a quote if escapeNum == true
                 readJsonSyntaxChar(QUOTE)
             }
@@ -489,9 +504,9 @@ class JsonProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     private fun readJsonObjectStart() {
-        context.read()
+        readContext()
         readJsonSyntaxChar(LBRACE)
-        pushContext(JsonPairContext())
+        pushContext(CONTEXT_PAIR_FIRST)
     }
 
     @Throws(IOException::class)
@@ -502,9 +517,9 @@ class JsonProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     private fun readJsonArrayStart() {
-        context.read()
+        readContext()
         readJsonSyntaxChar(LBRACKET)
-        pushContext(JsonListContext())
+        pushContext(CONTEXT_LIST_FIRST)
     }
 
     @Throws(IOException::class)
@@ -544,17 +559,23 @@ class JsonProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun readFieldBegin(): FieldMetadata {
-        val ch = reader.peek()
+        val header = readFieldHeader()
+        return FieldMetadata("", FieldHeader.typeId(header), FieldHeader.fieldId(header))
+    }
+
+    @Throws(IOException::class)
+    override fun readFieldHeader(): Int {
+        val ch = peekJsonByte()
         val type: Byte
         var id: Short = 0
-        if (ch == RBRACE[0]) {
+        if (ch == RBRACE) {
             type = TType.STOP
         } else {
             id = readJsonInteger().toShort()
             readJsonObjectStart()
             type = JsonTypes.jsonToTtype(readJsonString(false).toByteArray())
         }
-        return FieldMetadata("", type, id)
+        return FieldHeader.pack(type, id)
     }
 
     @Throws(IOException::class)
@@ -564,12 +585,18 @@ class JsonProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun readMapBegin(): MapMetadata {
+        val header = readMapHeader()
+        return MapMetadata(ContainerHeader.keyTypeId(header), ContainerHeader.valueTypeId(header), ContainerHeader.size(header))
+    }
+
+    @Throws(IOException::class)
+    override fun readMapHeader(): Long {
         readJsonArrayStart()
         val keyType = JsonTypes.jsonToTtype(readJsonString(false).toByteArray())
         val valueType = JsonTypes.jsonToTtype(readJsonString(false).toByteArray())
         val size = readJsonInteger().toInt()
         readJsonObjectStart()
-        return MapMetadata(keyType, valueType, size)
+        return ContainerHeader.pack(keyType, valueType, size)
     }
 
     @Throws(IOException::class)
@@ -580,10 +607,16 @@ class JsonProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun readListBegin(): ListMetadata {
+        val header = readListHeader()
+        return ListMetadata(ContainerHeader.elementTypeId(header), ContainerHeader.size(header))
+    }
+
+    @Throws(IOException::class)
+    override fun readListHeader(): Long {
         readJsonArrayStart()
         val elemType = JsonTypes.jsonToTtype(readJsonString(false).toByteArray())
         val size = readJsonInteger().toInt()
-        return ListMetadata(elemType, size)
+        return ContainerHeader.pack(elemType, size)
     }
 
     @Throws(IOException::class)
@@ -593,10 +626,16 @@ class JsonProtocol @JvmOverloads constructor(
 
     @Throws(IOException::class)
     override fun readSetBegin(): SetMetadata {
+        val header = readSetHeader()
+        return SetMetadata(ContainerHeader.elementTypeId(header), ContainerHeader.size(header))
+    }
+
+    @Throws(IOException::class)
+    override fun readSetHeader(): Long {
         readJsonArrayStart()
         val elemType = JsonTypes.jsonToTtype(readJsonString(false).toByteArray())
         val size = readJsonInteger().toInt()
-        return SetMetadata(elemType, size)
+        return ContainerHeader.pack(elemType, size)
     }
 
     @Throws(IOException::class)
@@ -679,33 +718,18 @@ class JsonProtocol @JvmOverloads constructor(
         readJsonString(false)
     }
 
-    // Holds up to one byte from the transport
-    private inner class LookaheadReader {
-        private var hasData = false
-        private val data = ByteArray(1)
-
-        // Return and consume the next byte to be read, either taking it from the
-        // data buffer if present or getting it from the transport otherwise.
-        @Throws(IOException::class)
-        fun read(): Byte {
-            if (hasData) {
-                hasData = false
-            } else {
-                transport.read(data, 0, 1)
-            }
-            return data[0]
-        }
+    // Return and consume the next byte to be read.
+    @Throws(IOException::class)
+    private fun readJsonByte(): Byte {
+        requireBytes(1)
+        return source.readByte()
+    }
 
-        // Return the next byte to be read without consuming, filling the data
-        // buffer if it has not been filled already.
-        @Throws(IOException::class)
-        fun peek(): Byte {
-            if (!hasData) {
-                transport.read(data, 0, 1)
-            }
-            hasData = true
-            return data[0]
-        }
+    // Return the next byte to be read without consuming it.
+    @Throws(IOException::class)
+    private fun peekJsonByte(): Byte {
+        requireBytes(1)
+        return source[0]
     }
 
     private object JsonTypes {
@@ -769,97 +793,29 @@ class JsonProtocol @JvmOverloads constructor(
         }
     }
 
-    // Base class for tracking Json contexts that may require inserting/reading
-    // additional Json syntax characters
-    // This base context does nothing.
-    private open class JsonBaseContext {
-        @Throws(IOException::class)
-        open fun write() {
-        }
-
-        @Throws(IOException::class)
-        open fun read() {
-        }
-
-        open fun escapeNum(): Boolean {
-            return false
-        }
-    }
-
-    // Context for Json lists. Will insert/read commas before each item except
-    // for the first one
-    private inner class JsonListContext : JsonBaseContext() {
-        private var first = true
-
-        @Throws(IOException::class)
-        override fun write() {
-            if (first) {
-                first = false
-            } else {
-                transport.write(COMMA)
-            }
-        }
-
-        @Throws(IOException::class)
-        override fun read() {
-            if (first) {
-                first = false
-            } else {
-                readJsonSyntaxChar(COMMA)
-            }
-        }
-    }
-
-    // Context for Json records. Will insert/read colons before the value portion
-    // of each record pair, and commas before each key except the first. In
-    // addition, will indicate that numbers in the key position need to be
-    // escaped in quotes (since Json keys must be strings).
-    private inner class JsonPairContext : JsonBaseContext() {
-        private var first = true
-        private var colon = true
-
-        @Throws(IOException::class)
-        override fun write() {
-            if (first) {
-                first = false
-                colon = true
-            } else {
-                transport.write(if (colon) COLON else COMMA)
-                colon = !colon
-            }
-        }
-
-        @Throws(IOException::class)
-        override fun read() {
-            if (first) {
-                first = false
-                colon = true
-            } else {
-                readJsonSyntaxChar(if (colon) COLON else COMMA)
-                colon = !colon
-            }
-        }
-
-        override fun escapeNum(): Boolean {
-            return colon
-        }
-    }
-
     companion object {
-        private val COMMA = byteArrayOf(','.code.toByte())
-        private val COLON = byteArrayOf(':'.code.toByte())
-        private val LBRACE = byteArrayOf('{'.code.toByte())
-        private val RBRACE = byteArrayOf('}'.code.toByte())
-        private val LBRACKET = byteArrayOf('['.code.toByte())
-        private val RBRACKET = byteArrayOf(']'.code.toByte())
-        private val QUOTE = byteArrayOf('"'.code.toByte())
-        private val BACKSLASH = byteArrayOf('\\'.code.toByte())
-        private val ESCSEQ = charArrayOf('\\', 'u', '0', '0').map { it.code.toByte() }.toByteArray()
+        private val COMMA = ','.code.toByte()
+        private val COLON = ':'.code.toByte()
+        private val LBRACE = '{'.code.toByte()
+        private val RBRACE = '}'.code.toByte()
+        private val LBRACKET = '['.code.toByte()
+        private val RBRACKET = ']'.code.toByte()
+        private val QUOTE = '"'.code.toByte()
+        private val BACKSLASH = '\\'.code.toByte()
+        private val STRING_DELIMITERS = ByteString.of(QUOTE, BACKSLASH)
         private const val VERSION: Long = 1
-        private val JSON_CHAR_TABLE = byteArrayOf( /*  0 1 2 3 4 5 6 7 8 9 A B C D E F */
-                0, 0, 0, 0, 0, 0, 0, 0, 'b'.code.toByte(), 't'.code.toByte(), 'n'.code.toByte(), 0, 'f'.code.toByte(), 'r'.code.toByte(), 0, 0,  // 0
-                0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,  // 1
-                1, 1, '"'.code.toByte(), 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1)
+
+        // Json contexts, which may require inserting/reading additional Json
+        // syntax characters.  Lists insert/read commas before each item except
+        // the first one.  Records (pairs) insert/read colons before the value
+        // portion of each pair, and commas before each key except the first.
+        private const val CONTEXT_BASE: Byte = 0
+        private const val CONTEXT_LIST_FIRST: Byte = 1
+        private const val CONTEXT_LIST: Byte = 2
+        private const val CONTEXT_PAIR_FIRST: Byte = 3
+        private const val CONTEXT_PAIR_KEY: Byte = 4
+        private const val CONTEXT_PAIR_VALUE: Byte = 5
+
         private const val ESCAPE_CHARS = "\"\\/bfnrt"
         private val ESCAPE_CHAR_VALS = charArrayOf('"', '\\', '/', '\b', '\u000C', '\n', '\r', '\t')
             .map { it.code.toByte() }.toByteArray()
@@ -876,15 +832,5 @@ class JsonProtocol @JvmOverloads constructor(
                 throw ProtocolException("Expected hex character")
             }
         }
-
-        // Convert a byte containing a hex value to its corresponding hex character
-        private fun hexChar(value: Byte): Byte {
-            val b = (value.toInt() and 0x0F).toByte()
-            return if (b < 10) {
-                (b.toInt() + '0'.code).toByte()
-            } else {
-                ((b.toInt() - 10) + 'a'.code).toByte()
-            }
-        }
     }
 }
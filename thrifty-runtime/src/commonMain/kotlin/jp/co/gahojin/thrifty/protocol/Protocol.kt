@@ -110,24 +110,68 @@ interface Protocol : Closeable {
     @Throws(IOException::class)
     fun readFieldBegin(): FieldMetadata
 
+    /**
+     * Reads a field header without allocating a [FieldMetadata].
+     *
+     * @return the header's type ID and field ID, packed as by [FieldHeader.pack].
+     */
+    @Throws(IOException::class)
+    fun readFieldHeader(): Int {
+        val fieldMetadata = readFieldBegin()
+        return FieldHeader.pack(fieldMetadata.typeId, fieldMetadata.fieldId)
+    }
+
     @Throws(IOException::class)
     fun readFieldEnd()
 
     @Throws(IOException::class)
     fun readMapBegin(): MapMetadata
 
+    /**
+     * Reads a map header without allocating a [MapMetadata].
+     *
+     * @return the header's key type ID, value type ID and size, packed as by [ContainerHeader.pack].
+     */
+    @Throws(IOException::class)
+    fun readMapHeader(): Long {
+        val mapMetadata = readMapBegin()
+        return ContainerHeader.pack(mapMetadata.keyTypeId, mapMetadata.valueTypeId, mapMetadata.size)
+    }
+
     @Throws(IOException::class)
     fun readMapEnd()
 
     @Throws(IOException::class)
     fun readListBegin(): ListMetadata
 
+    /**
+     * Reads a list header without allocating a [ListMetadata].
+     *
+     * @return the header's element type ID and size, packed as by [ContainerHeader.pack].
+     */
+    @Throws(IOException::class)
+    fun readListHeader(): Long {
+        val listMetadata = readListBegin()
+        return ContainerHeader.pack(listMetadata.elementTypeId, listMetadata.size)
+    }
+
     @Throws(IOException::class)
     fun readListEnd()
 
     @Throws(IOException::class)
     fun readSetBegin(): SetMetadata
 
+    /**
+     * Reads a set header without allocating a [SetMetadata].
+     *
+     * @return the header's element type ID and size, packed as by [ContainerHeader.pack].
+     */
+    @Throws(IOException::class)
+    fun readSetHeader(): Long {
+        val setMetadata = readSetBegin()
+        return ContainerHeader.pack(setMetadata.elementTypeId, setMetadata.size)
+    }
+
     @Throws(IOException::class)
     fun readSetEnd()
 
@@ -182,11 +226,11 @@ interface Protocol : Closeable {
     fun skipStruct() {
         readStructBegin()
         while (true) {
-            val fieldMetadata = readFieldBegin()
-            if (fieldMetadata.typeId == TType.STOP) {
+            val typeId = FieldHeader.typeId(readFieldHeader())
+            if (typeId == TType.STOP) {
                 break
             }
-            skip(fieldMetadata.typeId)
+            skip(typeId)
             readFieldEnd()
         }
         readStructEnd()
@@ -194,28 +238,32 @@ interface Protocol : Closeable {
 
     @Throws(IOException::class)
     fun skipList() {
-        val listMetadata = readListBegin()
-        for (i in 0..<listMetadata.size) {
-            skip(listMetadata.elementTypeId)
+        val header = readListHeader()
+        val elementTypeId = ContainerHeader.elementTypeId(header)
+        for (i in 0..<ContainerHeader.size(header)) {
+            skip(elementTypeId)
         }
         readListEnd()
     }
 
     @Throws(IOException::class)
     fun skipSet() {
-        val setMetadata = readSetBegin()
-        for (i in 0..<setMetadata.size) {
-            skip(setMetadata.elementTypeId)
+        val header = readSetHeader()
+        val elementTypeId = ContainerHeader.elementTypeId(header)
+        for (i in 0..<ContainerHeader.size(header)) {
+            skip(elementTypeId)
         }
         readSetEnd()
     }
 
     @Throws(IOException::class)
     fun skipMap() {
-        val mapMetadata = readMapBegin()
-        for (i in 0..<mapMetadata.size) {
-            skip(mapMetadata.keyTypeId)
-            skip(mapMetadata.valueTypeId)
+        val header = readMapHeader()
+        val keyTypeId = ContainerHeader.keyTypeId(header)
+        val valueTypeId = ContainerHeader.valueTypeId(header)
+        for (i in 0..<ContainerHeader.size(header)) {
+            skip(keyTypeId)
+            skip(valueTypeId)
         }
         readMapEnd()
     }
@@ -0,0 +1,177 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.protocol
+
+import okio.utf8Size
+import kotlin.jvm.JvmStatic
+
+/**
+ * Byte counts of individual values as encoded by [BinaryProtocol] and
+ * [CompactProtocol].
+ */
+object SerializedSize {
+    /**
+     * The number of bytes in the unsigned varint encoding of [n].
+     */
+    @JvmStatic
+    fun varint32(n: Int): Int {
+        return ((38 - n.countLeadingZeroBits()) / 7).coerceAtLeast(1)
+    }
+
+    /**
+     * The number of bytes in the unsigned varint encoding of [n].
+     */
+    @JvmStatic
+    fun varint64(n: Long): Int {
+        return ((70 - n.countLeadingZeroBits()) / 7).coerceAtLeast(1)
+    }
+
+    /**
+     * The number of bytes in the zigzag varint encoding of [n], as
+     * [CompactProtocol] writes i16 and i32 values.
+     */
+    @JvmStatic
+    fun zigZag32(n: Int): Int {
+        return varint32(n shl 1 xor (n shr 31))
+    }
+
+    /**
+     * The number of bytes in the zigzag varint encoding of [n], as
+     * [CompactProtocol] writes i64 values.
+     */
+    @JvmStatic
+    fun zigZag64(n: Long): Int {
+        return varint64(n shl 1 xor (n shr 63))
+    }
+
+    /**
+     * The number of bytes in an i16 [value].
+     */
+    @JvmStatic
+    fun i16(kind: ProtocolKind, value: Short): Int {
+        return when (kind) {
+            ProtocolKind.BINARY -> 2
+            ProtocolKind.COMPACT -> zigZag32(value.toInt())
+        }
+    }
+
+    /**
+     * The number of bytes in an i32 [value].
+     */
+    @JvmStatic
+    fun i32(kind: ProtocolKind, value: Int): Int {
+        return when (kind) {
+            ProtocolKind.BINARY -> 4
+            ProtocolKind.COMPACT -> zigZag32(value)
+        }
+    }
+
+    /**
+     * The number of bytes in an i64 [value].
+     */
+    @JvmStatic
+    fun i64(kind: ProtocolKind, value: Long): Int {
+        return when (kind) {
+            ProtocolKind.BINARY -> 8
+            ProtocolKind.COMPACT -> zigZag64(value)
+        }
+    }
+
+    /**
+     * The number of bytes in a string of [byteCount] bytes, including
+     * its length prefix.
+     */
+    @JvmStatic
+    fun bytes(kind: ProtocolKind, byteCount: Int): Int {
+        return when (kind) {
+            ProtocolKind.BINARY -> 4 + byteCount
+            ProtocolKind.COMPACT -> varint32(byteCount) + byteCount
+        }
+    }
+
+    /**
+     * The number of bytes in [str], including its length prefix.
+     */
+    @JvmStatic
+    fun string(kind: ProtocolKind, str: String): Int {
+        return bytes(kind, str.utf8Size().toInt())
+    }
+
+    /**
+     * The number of bytes in a field header for [fieldId], following a field
+     * numbered [lastFieldId] in the same struct, or 0 for the first field.
+     */
+    @JvmStatic
+    fun fieldHeader(kind: ProtocolKind, lastFieldId: Int, fieldId: Int): Int {
+        return when (kind) {
+            ProtocolKind.BINARY -> 3
+            ProtocolKind.COMPACT -> compactFieldHeader(lastFieldId, fieldId)
+        }
+    }
+
+    /**
+     * The number of bytes a bool field adds after its [header][fieldHeader].
+     * [CompactProtocol] encodes the value in the header itself.
+     */
+    @JvmStatic
+    fun boolField(kind: ProtocolKind): Int {
+        return when (kind) {
+            ProtocolKind.BINARY -> 1
+            ProtocolKind.COMPACT -> 0
+        }
+    }
+
+    /**
+     * The number of bytes in the header of a list or set of [size] elements.
+     */
+    @JvmStatic
+    fun listHeader(kind: ProtocolKind, size: Int): Int {
+        return when (kind) {
+            ProtocolKind.BINARY -> 5
+            ProtocolKind.COMPACT -> if (size <= 14) 1 else 1 + varint32(size)
+        }
+    }
+
+    /**
+     * The number of bytes in the header of a map of [size] entries.
+     */
+    @JvmStatic
+    fun mapHeader(kind: ProtocolKind, size: Int): Int {
+        return when (kind) {
+            ProtocolKind.BINARY -> 6
+            ProtocolKind.COMPACT -> if (size == 0) 1 else varint32(size) + 1
+        }
+    }
+
+    /**
+     * The number of bytes in a [CompactProtocol] field header for
+     * [fieldId], following a field numbered [lastFieldId] in the same struct.
+     */
+    @JvmStatic
+    fun compactFieldHeader(lastFieldId: Int, fieldId: Int): Int {
+        return if (fieldId > lastFieldId && fieldId - lastFieldId <= 15) {
+            1
+        } else {
+            1 + zigZag32(fieldId.toShort().toInt())
+        }
+    }
+}
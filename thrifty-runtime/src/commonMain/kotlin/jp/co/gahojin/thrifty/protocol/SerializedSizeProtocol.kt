@@ -0,0 +1,344 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.protocol
+
+import jp.co.gahojin.thrifty.TType
+import okio.ByteString
+import okio.IOException
+import okio.ProtocolException
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A write-only protocol that counts the bytes [BinaryProtocol] or
+ * [CompactProtocol] would write, without writing anything.
+ *
+ * Writing a struct to this protocol and then reading [size] gives the exact
+ * length of its encoding, which can be used to presize a frame or request
+ * body before serializing it for real.
+ *
+ * Instances of this class are *not* threadsafe.  Call [reset] to reuse one.
+ *
+ * @param kind
+ *      The encoding to measure.
+ * @param strictWrite
+ *      As for [BinaryProtocol]; only affects the size of message headers.
+ */
+class SerializedSizeProtocol @JvmOverloads constructor(
+    private val kind: ProtocolKind,
+    private val strictWrite: Boolean = false,
+) : Protocol {
+    /**
+     * The number of bytes written so far.
+     */
+    var size: Long = 0L
+        private set
+
+    // Compact state, mirroring CompactProtocol: a pending boolean field
+    // header and the last field ID written in each open struct.
+    private var booleanFieldId = -1
+    private var lastWritingField = 0
+    private var writingFields = ShortArray(16)
+    private var writingDepth = 0
+
+    @Throws(IOException::class)
+    override fun writeMessageBegin(name: String, typeId: Byte, seqId: Int) {
+        size += when (kind) {
+            ProtocolKind.BINARY -> if (strictWrite) {
+                4 + SerializedSize.string(kind, name) + 4
+            } else {
+                SerializedSize.string(kind, name) + 1 + 4
+            }
+            ProtocolKind.COMPACT -> 2 + SerializedSize.varint32(seqId) + SerializedSize.string(kind, name)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun writeMessageEnd() {
+    }
+
+    @Throws(IOException::class)
+    override fun writeStructBegin(structName: String) {
+        if (kind == ProtocolKind.COMPACT) {
+            if (writingDepth == writingFields.size) {
+                writingFields = writingFields.copyOf(writingDepth * 2)
+            }
+            writingFields[writingDepth++] = lastWritingField.toShort()
+            lastWritingField = 0
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun writeStructEnd() {
+        if (kind == ProtocolKind.COMPACT) {
+            lastWritingField = writingFields[--writingDepth].toInt()
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun writeFieldBegin(fieldName: String, fieldId: Int, typeId: Byte) {
+        if (kind == ProtocolKind.COMPACT && typeId == TType.BOOL) {
+            if (booleanFieldId != -1) {
+                throw ProtocolException("Nested invocation of writeFieldBegin")
+            }
+            booleanFieldId = fieldId
+        } else {
+            writeFieldHeader(fieldId)
+        }
+    }
+
+    private fun writeFieldHeader(fieldId: Int) {
+        size += SerializedSize.fieldHeader(kind, lastWritingField, fieldId)
+        lastWritingField = fieldId.toShort().toInt()
+    }
+
+    @Throws(IOException::class)
+    override fun writeFieldEnd() {
+    }
+
+    @Throws(IOException::class)
+    override fun writeFieldStop() {
+        size += 1
+    }
+
+    @Throws(IOException::class)
+    override fun writeMapBegin(keyTypeId: Byte, valueTypeId: Byte, mapSize: Int) {
+        size += SerializedSize.mapHeader(kind, mapSize)
+    }
+
+    @Throws(IOException::class)
+    override fun writeMapEnd() {
+    }
+
+    @Throws(IOException::class)
+    override fun writeListBegin(elementTypeId: Byte, listSize: Int) {
+        size += SerializedSize.listHeader(kind, listSize)
+    }
+
+    @Throws(IOException::class)
+    override fun writeListEnd() {
+    }
+
+    @Throws(IOException::class)
+    override fun writeSetBegin(elementTypeId: Byte, setSize: Int) {
+        size += SerializedSize.listHeader(kind, setSize)
+    }
+
+    @Throws(IOException::class)
+    override fun writeSetEnd() {
+    }
+
+    @Throws(IOException::class)
+    override fun writeBool(b: Boolean) {
+        if (booleanFieldId == -1) {
+            size += 1
+        } else {
+            // The value is folded into the deferred compact field header
+            writeFieldHeader(booleanFieldId)
+            booleanFieldId = -1
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun writeByte(b: Byte) {
+        size += 1
+    }
+
+    @Throws(IOException::class)
+    override fun writeI16(i16: Short) {
+        size += SerializedSize.i16(kind, i16)
+    }
+
+    @Throws(IOException::class)
+    override fun writeI32(i32: Int) {
+        size += SerializedSize.i32(kind, i32)
+    }
+
+    @Throws(IOException::class)
+    override fun writeI64(i64: Long) {
+        size += SerializedSize.i64(kind, i64)
+    }
+
+    @Throws(IOException::class)
+    override fun writeDouble(dub: Double) {
+        size += 8
+    }
+
+    @Throws(IOException::class)
+    override fun writeString(str: String) {
+        size += SerializedSize.string(kind, str)
+    }
+
+    @Throws(IOException::class)
+    override fun writeBinary(buf: ByteString) {
+        size += SerializedSize.bytes(kind, buf.size)
+    }
+
+    @Throws(IOException::class)
+    override fun readMessageBegin(): MessageMetadata {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readMessageEnd() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readStructBegin(): StructMetadata {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readStructEnd() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readFieldBegin(): FieldMetadata {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readFieldEnd() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readMapBegin(): MapMetadata {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readMapEnd() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readListBegin(): ListMetadata {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readListEnd() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readSetBegin(): SetMetadata {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readSetEnd() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readBool(): Boolean {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readByte(): Byte {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readI16(): Short {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readI32(): Int {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readI64(): Long {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readDouble(): Double {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readString(): String {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun readBinary(): ByteString {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun skipBool() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun skipByte() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun skipI16() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun skipI32() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun skipI64() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun skipDouble() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun skipString() {
+        throw UnsupportedOperationException()
+    }
+
+    @Throws(IOException::class)
+    override fun flush() {
+    }
+
+    override fun reset() {
+        size = 0L
+        booleanFieldId = -1
+        lastWritingField = 0
+        writingDepth = 0
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+    }
+}
@@ -22,10 +22,10 @@
 package jp.co.gahojin.thrifty.protocol
 
 import jp.co.gahojin.thrifty.transport.Transport
-import okio.Buffer
 import okio.ByteString
 import okio.IOException
 import okio.ProtocolException
+import kotlin.jvm.JvmOverloads
 
 /**
  * A protocol that maps Thrift data to idiomatic JSON.
@@ -38,8 +38,16 @@ import okio.ProtocolException
  * Note that, as of the initial release, this Protocol does not guarantee
  * that all emitted data is strictly valid JSON.  In particular, map keys are
  * not guaranteed to be strings.
+ *
+ * @param transport
+ * @param writeBufferSize
+ *      The number of bytes to buffer before writing to the transport, or 0 to
+ *      write through on every call.  Buffered output is always written on [flush].
  */
-class SimpleJsonProtocol(transport: Transport) : BaseProtocol(transport) {
+class SimpleJsonProtocol @JvmOverloads constructor(
+    transport: Transport,
+    writeBufferSize: Int = 0,
+) : BaseProtocol(transport, writeBufferSize) {
     /**
      * Indicates how [binary][ByteString] data is serialized when
      * written as JSON.
@@ -55,89 +63,30 @@ class SimpleJsonProtocol(transport: Transport) : BaseProtocol(transport) {
         UNICODE,
     }
 
-    private interface WriteContext {
-        @Throws(IOException::class)
-        fun beforeWrite() = Unit
-
-        @Throws(IOException::class)
-        fun onPop() = Unit
-    }
-
-    private inner class ListWriteContext : WriteContext {
-        private var hasWritten = false
-
-        override fun beforeWrite() {
-            if (hasWritten) {
-                transport.write(COMMA)
-            } else {
-                hasWritten = true
-            }
-        }
-    }
-
-    private inner class MapWriteContext : WriteContext {
-        private var hasWritten = false
-        private var mode = MODE_KEY
-
-        override fun beforeWrite() {
-            if (hasWritten) {
-                if (mode == MODE_KEY) {
-                    transport.write(COMMA)
-                } else {
-                    transport.write(COLON)
-                }
-            } else {
-                hasWritten = true
-            }
-            mode = !mode
-        }
-
-        override fun onPop() {
-            if (mode == MODE_VALUE) {
-                throw ProtocolException("Incomplete JSON map, expected a value")
-            }
-        }
-    }
-
     companion object {
-        private const val MODE_KEY = false
-        private const val MODE_VALUE = true
-        
-        private val ESCAPES: Array<CharArray?> = arrayOfNulls(128)
-        private val TRUE = byteArrayOf('t'.code.toByte(), 'r'.code.toByte(), 'u'.code.toByte(), 'e'.code.toByte())
-        private val FALSE = byteArrayOf('f'.code.toByte(), 'a'.code.toByte(), 'l'.code.toByte(), 's'.code.toByte(), 'e'.code.toByte())
-        private val COMMA = byteArrayOf(','.code.toByte())
-        private val COLON: ByteArray = byteArrayOf(':'.code.toByte())
-        private val LBRACKET = byteArrayOf('['.code.toByte())
-        private val RBRACKET = byteArrayOf(']'.code.toByte())
-        private val LBRACE = byteArrayOf('{'.code.toByte())
-        private val RBRACE = byteArrayOf('}'.code.toByte())
-
-        init {
-            for (i in 0..31) {
-                // Control chars must be escaped
-                val chars = CharArray(6)
-                chars[0] = '\\'
-                chars[1] = 'u'
-                chars[2] = '0'
-                chars[3] = '0'
-                chars[4] = "0123456789abcdef"[(i shr 4) and 0xF]
-                chars[5] = "0123456789abcdef"[i and 0xF]
-                ESCAPES[i] = chars
-            }
-            ESCAPES['\\'.code] = charArrayOf('\\', '\\')
-            ESCAPES['\"'.code] = charArrayOf('\\', '"')
-            ESCAPES['\b'.code] = charArrayOf('\\', 'b')
-            ESCAPES['\u000C'.code] = charArrayOf('\\', 'f')
-            ESCAPES['\r'.code] = charArrayOf('\\', 'r')
-            ESCAPES['\n'.code] = charArrayOf('\\', 'n')
-            ESCAPES['\t'.code] = charArrayOf('\\', 't')
-        }
-    }
-
-    private val defaultWriteContext: WriteContext = object : WriteContext { }
+        // Write contexts.  Lists write commas between items; maps alternate
+        // between keys, preceded by commas, and values, preceded by colons.
+        private const val LIST_FIRST: Byte = 0
+        private const val LIST: Byte = 1
+        private const val MAP_FIRST: Byte = 2
+        private const val MAP_KEY: Byte = 3
+        private const val MAP_VALUE: Byte = 4
+
+        private val TRUE = "true".encodeToByteArray()
+        private val FALSE = "false".encodeToByteArray()
+        private val COMMA = ','.code
+        private val COLON = ':'.code
+        private val QUOTE = '"'.code
+        private val LBRACKET = '['.code
+        private val RBRACKET = ']'.code
+        private val LBRACE = '{'.code
+        private val RBRACE = '}'.code
+    }
+
+    // Stack of open write contexts; the innermost is at writeDepth - 1
+    private var writeStack = ByteArray(16)
+    private var writeDepth = 0
 
-    private val writeStack = ArrayDeque<WriteContext>()
     private var binaryOutputMode = BinaryOutputMode.HEX
     fun withBinaryOutputMode(mode: BinaryOutputMode): SimpleJsonProtocol {
         binaryOutputMode = mode
@@ -159,17 +108,18 @@ class SimpleJsonProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun writeStructBegin(structName: String) {
-        writeContext().beforeWrite()
-        pushWriteContext(MapWriteContext())
-        transport.write(LBRACE)
+        beforeWrite()
+        pushWriteContext(MAP_FIRST)
+        sink.writeByte(LBRACE)
         writeString("__thriftStruct")
         writeString(structName)
     }
 
     @Throws(IOException::class)
     override fun writeStructEnd() {
-        transport.write(RBRACE)
+        sink.writeByte(RBRACE)
         popWriteContext()
+        drainIfFull()
     }
 
     @Throws(IOException::class)
@@ -188,100 +138,92 @@ class SimpleJsonProtocol(transport: Transport) : BaseProtocol(transport) {
 
     @Throws(IOException::class)
     override fun writeMapBegin(keyTypeId: Byte, valueTypeId: Byte, mapSize: Int) {
-        writeContext().beforeWrite()
-        pushWriteContext(MapWriteContext())
-        transport.write(LBRACE)
+        beforeWrite()
+        pushWriteContext(MAP_FIRST)
+        sink.writeByte(LBRACE)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeMapEnd() {
-        transport.write(RBRACE)
+        sink.writeByte(RBRACE)
         popWriteContext()
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeListBegin(elementTypeId: Byte, listSize: Int) {
-        writeContext().beforeWrite()
-        pushWriteContext(ListWriteContext())
-        transport.write(LBRACKET)
+        beforeWrite()
+        pushWriteContext(LIST_FIRST)
+        sink.writeByte(LBRACKET)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeListEnd() {
-        transport.write(RBRACKET)
+        sink.writeByte(RBRACKET)
         popWriteContext()
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeSetBegin(elementTypeId: Byte, setSize: Int) {
-        writeContext().beforeWrite()
-        pushWriteContext(ListWriteContext())
-        transport.write(LBRACKET)
+        beforeWrite()
+        pushWriteContext(LIST_FIRST)
+        sink.writeByte(LBRACKET)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeSetEnd() {
-        transport.write(RBRACKET)
+        sink.writeByte(RBRACKET)
         popWriteContext()
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeBool(b: Boolean) {
-        writeContext().beforeWrite()
-        transport.write(if (b) TRUE else FALSE)
+        beforeWrite()
+        sink.write(if (b) TRUE else FALSE)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeByte(b: Byte) {
-        writeContext().beforeWrite()
-        val toWrite = b.toString().encodeToByteArray()
-        transport.write(toWrite)
+        writeI64(b.toLong())
     }
 
     @Throws(IOException::class)
     override fun writeI16(i16: Short) {
-        writeContext().beforeWrite()
-        transport.write(i16.toString().encodeToByteArray())
+        writeI64(i16.toLong())
     }
 
     @Throws(IOException::class)
     override fun writeI32(i32: Int) {
-        writeContext().beforeWrite()
-        transport.write(i32.toString().encodeToByteArray())
+        writeI64(i32.toLong())
     }
 
     @Throws(IOException::class)
     override fun writeI64(i64: Long) {
-        writeContext().beforeWrite()
-        transport.write(i64.toString().encodeToByteArray())
+        beforeWrite()
+        sink.writeDecimalLong(i64)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeDouble(dub: Double) {
-        writeContext().beforeWrite()
-        transport.write(dub.toString().encodeToByteArray())
+        beforeWrite()
+        sink.writeDoubleText(dub)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
     override fun writeString(str: String) {
-        writeContext().beforeWrite()
-        val buffer = Buffer()
-        buffer.writeUtf8CodePoint('"'.code)
-        str.forEach { c ->
-            val code = c.code
-            if (code < 128) {
-                ESCAPES[code]?.also { maybeEscape ->
-                    maybeEscape.forEach { buffer.writeUtf8CodePoint(it.code) } // These are known to be equivalent
-                } ?: run {
-                    buffer.writeUtf8CodePoint(code)
-                }
-            } else {
-                buffer.writeUtf8("$c") // Not sure how to get code points from a string in MPP
-            }
-        }
-        buffer.writeUtf8CodePoint('"'.code)
-        val bs = buffer.readByteArray()
-        transport.write(bs, 0, bs.size)
+        beforeWrite()
+        sink.writeByte(QUOTE)
+        sink.writeJsonStringBody(str)
+        sink.writeByte(QUOTE)
+        drainIfFull()
     }
 
     @Throws(IOException::class)
@@ -294,19 +236,43 @@ class SimpleJsonProtocol(transport: Transport) : BaseProtocol(transport) {
         writeString(out)
     }
 
-    private fun pushWriteContext(context: WriteContext) {
-        writeStack.addFirst(context)
+    private fun pushWriteContext(context: Byte) {
+        if (writeDepth == writeStack.size) {
+            writeStack = writeStack.copyOf(writeDepth * 2)
+        }
+        writeStack[writeDepth++] = context
     }
 
-    private fun writeContext(): WriteContext {
-        return writeStack.firstOrNull() ?: defaultWriteContext
+    // Write the separator, if any, that the innermost context needs before
+    // the next value, and advance the context.
+    private fun beforeWrite() {
+        if (writeDepth == 0) {
+            return
+        }
+        val top = writeDepth - 1
+        when (writeStack[top]) {
+            LIST_FIRST -> writeStack[top] = LIST
+            LIST -> sink.writeByte(COMMA)
+            MAP_FIRST -> writeStack[top] = MAP_VALUE
+            MAP_KEY -> {
+                sink.writeByte(COMMA)
+                writeStack[top] = MAP_VALUE
+            }
+            MAP_VALUE -> {
+                sink.writeByte(COLON)
+                writeStack[top] = MAP_KEY
+            }
+        }
     }
 
     @Throws(IOException::class)
     private fun popWriteContext() {
-        writeStack.removeFirstOrNull()?.onPop() ?: run {
+        if (writeDepth == 0) {
             throw ProtocolException("stack underflow")
         }
+        if (writeStack[--writeDepth] == MAP_VALUE) {
+            throw ProtocolException("Incomplete JSON map, expected a value")
+        }
     }
 
     @Throws(IOException::class)
@@ -22,15 +22,32 @@
 package jp.co.gahojin.thrifty.service
 
 import jp.co.gahojin.thrifty.Struct
+import jp.co.gahojin.thrifty.TType
+import jp.co.gahojin.thrifty.ThriftException
+import jp.co.gahojin.thrifty.protocol.MessageMetadata
 import jp.co.gahojin.thrifty.protocol.Protocol
+import kotlinx.atomicfu.atomic
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.IO
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withTimeoutOrNull
 import okio.Closeable
+import okio.IOException
 import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
 import kotlin.jvm.JvmOverloads
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.TimeMark
+import kotlin.time.TimeSource
 
 /**
  * Implements a basic service client that executes methods asynchronously.
@@ -41,6 +58,9 @@ import kotlin.jvm.JvmOverloads
  * at the transport level.  If your backend requires framing, be sure to
  * configure your [Protocol] and [jp.co.gahojin.thrifty.transport.Transport]
  * objects appropriately.
+ *
+ * By default one call is in flight at a time.  See [enablePipelining] to
+ * have many calls outstanding on one connection.
  */
 open class AsyncClientBase @JvmOverloads protected constructor(
     protocol: Protocol,
@@ -77,20 +97,87 @@ open class AsyncClientBase @JvmOverloads protected constructor(
 
     private val lock = Mutex()
 
+    // Pipelined mode state; calls awaiting a reply, by sequence ID
+    private val pipelineProtocol = protocol
+    private val pipelined = atomic(false)
+    private val started = atomic(false)
+    private val pendingLock = SynchronizedObject()
+    private val pending = mutableMapOf<Int, Pending>()
+    private val abandoned = mutableSetOf<Int>()
+    private var reader: Job? = null
+
+    private class Pending(val call: MethodCall<*>, val timer: Job?)
+
+    /**
+     * Switches this client to pipelined mode, in which requests are written
+     * one at a time but replies are read by a dedicated reader and matched to
+     * their callers by sequence ID.  Many calls may then be outstanding on
+     * one connection, and the server may reply in any order.
+     *
+     * The protocol and transport must support reading and writing from
+     * different threads at once, as e.g. [jp.co.gahojin.thrifty.protocol.BinaryProtocol]
+     * or [jp.co.gahojin.thrifty.protocol.CompactProtocol] over a framed socket
+     * do.  Must be called before the first call is made.
+     */
+    fun enablePipelining() {
+        check(!started.value) { "Pipelining must be enabled before the first call" }
+        pipelined.value = true
+    }
+
+    /**
+     * The deadline, in milliseconds, for each call made through this client,
+     * or 0 for none.  Covers queueing, sending and receiving; overridden per
+     * call by a [CallTimeout] in the caller's coroutine context.
+     *
+     * A call that misses its deadline fails with a [ThriftException] of kind
+     * [ThriftException.Kind.TIMED_OUT].  In pipelined mode, its late reply is
+     * discarded and the connection kept; otherwise the connection can no
+     * longer be trusted, and the client is closed.  The same happens to a call
+     * cancelled with its coroutine once it has been sent.
+     */
+    var callTimeout: Long = 0
+
     /**
      * When invoked by a derived instance, places the given call in a queue to
      * be sent to the server.
      *
      * @param methodCall the remote method call to be invoked
      */
-    protected fun <T> enqueue(methodCall: MethodCall<T>) {
+    protected fun <T> enqueue(methodCall: MethodCall<T>) = enqueue(methodCall, EmptyCoroutineContext)
+
+    /**
+     * When invoked by a derived instance, places the given call in a queue to
+     * be sent to the server, with the [CallTimeout] of [context] if any.
+     *
+     * @param methodCall the remote method call to be invoked
+     * @param context the caller's coroutine context
+     */
+    protected fun <T> enqueue(methodCall: MethodCall<T>, context: CoroutineContext) {
+        if (methodCall.state.value == MethodCall.CANCELLED) {
+            return
+        }
         check(running.value) { "Cannot write to a closed service client" }
+        started.value = true
+        val timeout = context[CallTimeout]?.millis ?: callTimeout
+        val deadline = if (timeout > 0) TimeSource.Monotonic.markNow() + timeout.milliseconds else null
+        if (pipelined.value) {
+            enqueuePipelined(methodCall, deadline)
+            return
+        }
 
         scope.launch {
             lock.withLock {
+                if (!methodCall.state.compareAndSet(MethodCall.QUEUED, MethodCall.IN_FLIGHT)) {
+                    // Cancelled while queued; nothing was sent
+                    return@withLock
+                }
                 try {
-                    val result = invokeRequest(methodCall)
-                    methodCall.callback?.onSuccess(result)
+                    val result = if (deadline == null) {
+                        Reply(invokeRequest(methodCall))
+                    } else {
+                        invokeWithDeadline(methodCall, deadline) ?: return@withLock
+                    }
+                    methodCall.callback?.onSuccess(result.value)
                 } catch (e: ServerException) {
                     methodCall.callback?.onError(e.thriftException)
                 } catch (e: Exception) {
@@ -101,11 +188,200 @@ open class AsyncClientBase @JvmOverloads protected constructor(
 
                     close(e)
                     methodCall.callback?.onError(e)
+                } finally {
+                    methodCall.state.compareAndSet(MethodCall.IN_FLIGHT, MethodCall.DONE)
                 }
             }
         }
     }
 
+    /**
+     * When invoked by a derived instance from a coroutine, places the given
+     * call in a queue to be sent to the server, with the [CallTimeout] of
+     * [continuation]'s context if any.  Cancelling [continuation] cancels the
+     * call: a call not yet sent is dropped, and one already sent is treated
+     * as having missed its deadline.
+     *
+     * @param methodCall the remote method call to be invoked
+     * @param continuation the caller's continuation
+     */
+    protected fun <T> enqueue(methodCall: MethodCall<T>, continuation: CancellableContinuation<*>) {
+        continuation.invokeOnCancellation { cancel(methodCall) }
+        enqueue(methodCall, continuation.context)
+    }
+
+    private fun cancel(call: MethodCall<*>) {
+        if (call.state.getAndSet(MethodCall.CANCELLED) != MethodCall.IN_FLIGHT) {
+            return
+        }
+        if (pipelined.value) {
+            abandon(call.seqId)
+        } else {
+            // As with a missed deadline, a late reply would be read as the next call's
+            close(cancelled(call))
+        }
+    }
+
+    // Returns null, having failed the call, if the deadline passes first
+    private suspend fun <T> invokeWithDeadline(methodCall: MethodCall<T>, deadline: TimeMark): Reply<T>? {
+        val remaining = -deadline.elapsedNow()
+        if (!remaining.isPositive()) {
+            // Nothing was sent, so the connection is still usable
+            methodCall.callback?.onError(timedOut(methodCall))
+            return null
+        }
+        // Failures are caught here, so as not to cancel the client's scope
+        val call = scope.async { runCatching { invokeRequest(methodCall) } }
+        val result = withTimeoutOrNull(remaining) { call.await() }
+        if (result == null) {
+            // The reply may still arrive, and would be read as the next call's
+            val e = timedOut(methodCall)
+            close(e)
+            methodCall.callback?.onError(e)
+            return null
+        }
+        return Reply(result.getOrThrow())
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun <T> enqueuePipelined(methodCall: MethodCall<T>, deadline: TimeMark?) {
+        scope.launch {
+            lock.withLock {
+                val isOneWay = methodCall.callTypeId == TMessageType.ONEWAY
+                if (deadline != null && deadline.hasPassedNow()) {
+                    methodCall.callback?.onError(timedOut(methodCall))
+                    return@withLock
+                }
+                val sid = nextSeqId()
+                methodCall.seqId = sid
+                if (!isOneWay) {
+                    // Registered first, so that the reply cannot arrive before its caller
+                    val timer = deadline?.let {
+                        scope.launch(start = CoroutineStart.LAZY) {
+                            delay(-it.elapsedNow())
+                            expire(sid)
+                        }
+                    }
+                    synchronized(pendingLock) { pending[sid] = Pending(methodCall, timer) }
+                    timer?.start()
+                }
+                if (!methodCall.state.compareAndSet(MethodCall.QUEUED, MethodCall.IN_FLIGHT)) {
+                    // Cancelled while queued; nothing was sent, so no reply will come
+                    synchronized(pendingLock) { pending.remove(sid) }?.timer?.cancel()
+                    return@withLock
+                }
+                try {
+                    sendRequest(methodCall, sid)
+                } catch (e: Exception) {
+                    close(e)
+                    if (isOneWay) {
+                        methodCall.callback?.onError(e)
+                    }
+                    return@withLock
+                }
+                if (isOneWay) {
+                    methodCall.callback?.onSuccess(Unit as T)
+                } else if (reader == null) {
+                    reader = scope.launch { readReplies() }
+                }
+            }
+        }
+    }
+
+    private fun expire(seqId: Int) {
+        val call = abandon(seqId) ?: return
+        call.callback?.onError(timedOut(call))
+    }
+
+    // Stops waiting for the reply to seqId, returning its call if it was
+    // still pending.  The late reply, if any, is skipped by the reader.
+    private fun abandon(seqId: Int): MethodCall<*>? {
+        val entry = synchronized(pendingLock) {
+            pending.remove(seqId)?.also {
+                abandoned.add(seqId)
+                // A server that never answers would otherwise grow the set
+                // forever; a reply later than this is an unknown sequence ID.
+                if (abandoned.size > MAX_ABANDONED) {
+                    abandoned.remove(abandoned.first())
+                }
+            }
+        } ?: return null
+        entry.timer?.cancel()
+        return entry.call
+    }
+
+    private fun readReplies() {
+        try {
+            while (running.value) {
+                val metadata = pipelineProtocol.readMessageBegin()
+                var isAbandoned = false
+                val entry = synchronized(pendingLock) {
+                    pending.remove(metadata.seqId) ?: run {
+                        isAbandoned = abandoned.remove(metadata.seqId)
+                        null
+                    }
+                }
+                if (entry == null) {
+                    if (!isAbandoned) {
+                        throw ThriftException(ThriftException.Kind.BAD_SEQUENCE_ID, "Unrecognized sequence ID")
+                    }
+                    // The caller has given up; both replies and exceptions are a single struct
+                    pipelineProtocol.skip(TType.STRUCT)
+                    pipelineProtocol.readMessageEnd()
+                    continue
+                }
+                entry.timer?.cancel()
+                if (!deliver(entry.call, metadata)) {
+                    return
+                }
+            }
+        } catch (e: Exception) {
+            close(e)
+        }
+    }
+
+    private fun timedOut(call: MethodCall<*>): ThriftException {
+        return ThriftException(ThriftException.Kind.TIMED_OUT, "Call to ${call.name} timed out")
+    }
+
+    private fun cancelled(call: MethodCall<*>): IOException {
+        return IOException("Call to ${call.name} was cancelled")
+    }
+
+    // Returns false if the connection is no longer usable
+    private fun <T> deliver(call: MethodCall<T>, metadata: MessageMetadata): Boolean {
+        try {
+            val result = receiveReply(call, metadata)
+            call.callback?.onSuccess(result)
+        } catch (e: ServerException) {
+            call.callback?.onError(e.thriftException)
+        } catch (e: Exception) {
+            if (e is ThriftException && isHeaderError(e)) {
+                // Rejected on its header alone, so the body must be read past
+                // before the next reply; other calls still get theirs.
+                call.callback?.onError(e)
+                pipelineProtocol.skip(TType.STRUCT)
+                pipelineProtocol.readMessageEnd()
+                return true
+            }
+            if (e is Struct) {
+                call.callback?.onError(e)
+                return true
+            }
+            close(e)
+            call.callback?.onError(e)
+            return false
+        }
+        return true
+    }
+
+    private fun isHeaderError(e: ThriftException): Boolean {
+        return e.kind == ThriftException.Kind.WRONG_METHOD_NAME ||
+            e.kind == ThriftException.Kind.INVALID_MESSAGE_TYPE
+    }
+
+    private class Reply<T>(val value: T)
+
     override fun close() = close(null)
 
     private fun close(error: Throwable?) {
@@ -114,6 +390,18 @@ open class AsyncClientBase @JvmOverloads protected constructor(
         }
         closeProtocol()
 
+        val unanswered = synchronized(pendingLock) {
+            abandoned.clear()
+            pending.values.toList().also { pending.clear() }
+        }
+        if (unanswered.isNotEmpty()) {
+            val e = error ?: IOException("Client closed before the call completed")
+            unanswered.forEach {
+                it.timer?.cancel()
+                it.call.callback?.onError(e)
+            }
+        }
+
         scope.launch {
             error?.also {
                 listener.onError(it)
@@ -122,4 +410,9 @@ open class AsyncClientBase @JvmOverloads protected constructor(
             }
         }
     }
+
+    private companion object {
+        // The most expired sequence IDs whose late replies are remembered
+        const val MAX_ABANDONED = 1024
+    }
 }
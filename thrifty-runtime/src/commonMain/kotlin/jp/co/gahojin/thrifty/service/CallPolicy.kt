@@ -0,0 +1,202 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.service
+
+import jp.co.gahojin.thrifty.ThriftException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.selects.onTimeout
+import kotlinx.coroutines.selects.select
+import okio.Closeable
+import okio.IOException
+import kotlin.coroutines.EmptyCoroutineContext
+
+/**
+ * Retries and hedges calls to idempotent methods over a [ClientSource],
+ * either a [ClientPool] or a [LoadBalancer].
+ *
+ * Calls to methods not in [Builder.idempotentMethods] are made once, as
+ * with [ClientSource.withClient].  Calls to idempotent methods are retried
+ * on a fresh client after a connection error or timeout, up to
+ * [Builder.maxAttempts] times in all.  If [Builder.hedgeDelay] is set, a
+ * second, hedged, request is also sent when the first has not answered in
+ * that time, and whichever answers first wins.  Every retry and hedge is
+ * paid for from a shared [RetryBudget], which keeps them from piling
+ * extra load onto a service that is already struggling.
+ *
+ * Generated Kotlin clients list their idempotent methods, marked with an
+ * `idempotent` annotation in the IDL, in `IDEMPOTENT_METHODS`:
+ *
+ * ```
+ * val policy = CallPolicy.Builder(pool)
+ *     .idempotentMethods(UserServiceClient.IDEMPOTENT_METHODS)
+ *     .hedgeDelay(20)
+ *     .build()
+ * val user = policy.call("getUser") { it.getUser(id) }
+ * ```
+ *
+ * This class is threadsafe.  Closing it cancels any outstanding hedged
+ * requests, but does not close the client source.
+ */
+class CallPolicy<T : Closeable> private constructor(
+    private val clients: ClientSource<T>,
+    private val idempotentMethods: Set<String>,
+    private val maxAttempts: Int,
+    private val hedgeDelay: Long,
+    private val budget: RetryBudget,
+) : Closeable {
+    // Attempts are launched here rather than in the caller's scope, so
+    // that a failed attempt cannot cancel its siblings or the caller.
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    /**
+     * Calls [block] with a client, retrying and hedging if [method]
+     * is idempotent.
+     */
+    @Throws(Exception::class)
+    suspend fun <R> call(method: String, block: suspend (T) -> R): R {
+        if (method !in idempotentMethods) {
+            return clients.withClient(block)
+        }
+        budget.deposit()
+
+        var attempts = 1
+        while (true) {
+            try {
+                return if (hedgeDelay > 0) hedged(block) else clients.withClient(block)
+            } catch (e: Exception) {
+                if (attempts >= maxAttempts || !isRetryable(e) || !budget.tryWithdraw()) {
+                    throw e
+                }
+                attempts++
+            }
+        }
+    }
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private suspend fun <R> hedged(block: suspend (T) -> R): R {
+        val results = Channel<Result<R>>(Channel.UNLIMITED)
+        val jobs = mutableListOf<Job>()
+        // Attempts run outside the caller's context, but keep its deadline
+        val deadline = currentCoroutineContext()[CallTimeout] ?: EmptyCoroutineContext
+        val launchAttempt = {
+            jobs += scope.launch(deadline) {
+                results.send(runCatching { clients.withClient(block) })
+            }
+        }
+
+        try {
+            launchAttempt()
+            var outstanding = 1
+            var hedgeable = true
+            var failure: Throwable? = null
+            while (outstanding > 0) {
+                val result = select<Result<R>?> {
+                    results.onReceive { it }
+                    if (hedgeable) {
+                        onTimeout(hedgeDelay) { null }
+                    }
+                }
+                if (result == null) {
+                    // Only one hedge is sent per attempt
+                    hedgeable = false
+                    if (budget.tryWithdraw()) {
+                        launchAttempt()
+                        outstanding++
+                    }
+                    continue
+                }
+                outstanding--
+                result.onSuccess { return it }
+                failure = result.exceptionOrNull()
+                // A failed attempt is retried by the caller, not hedged
+                hedgeable = false
+            }
+            throw failure!!
+        } finally {
+            // Generated clients cancel the losing call with its job, which
+            // gives its client back, or drops it if it had to close.
+            jobs.forEach { it.cancel() }
+        }
+    }
+
+    private fun isRetryable(e: Exception): Boolean {
+        return e is IOException ||
+            (e is ThriftException && e.kind == ThriftException.Kind.TIMED_OUT)
+    }
+
+    override fun close() {
+        scope.cancel()
+    }
+
+    class Builder<T : Closeable>(
+        private val clients: ClientSource<T>,
+    ) {
+        private var idempotentMethods: Set<String> = emptySet()
+        private var maxAttempts: Int = 3
+        private var hedgeDelay: Long = 0
+        private var budget: RetryBudget = RetryBudget()
+
+        /**
+         * The names of the methods that may safely be retried or hedged.
+         */
+        fun idempotentMethods(value: Set<String>): Builder<T> = apply {
+            idempotentMethods = value
+        }
+
+        /**
+         * The most times an idempotent call is attempted, counting the first.
+         */
+        fun maxAttempts(value: Int): Builder<T> = apply {
+            maxAttempts = value
+        }
+
+        /**
+         * How long, in milliseconds, to wait for an answer before sending a
+         * hedged request, or 0 to never hedge.
+         */
+        fun hedgeDelay(value: Long): Builder<T> = apply {
+            hedgeDelay = value
+        }
+
+        /**
+         * The budget that retries and hedges are paid from.  Share one
+         * budget between the policies for a service to cap their total.
+         */
+        fun budget(value: RetryBudget): Builder<T> = apply {
+            budget = value
+        }
+
+        fun build(): CallPolicy<T> {
+            require(maxAttempts > 0) { "maxAttempts must be positive: $maxAttempts" }
+            require(hedgeDelay >= 0) { "hedgeDelay must not be negative: $hedgeDelay" }
+            return CallPolicy(clients, idempotentMethods, maxAttempts, hedgeDelay, budget)
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.service
+
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * A per-call deadline for [AsyncClientBase] calls made from coroutines,
+ * overriding [AsyncClientBase.callTimeout]:
+ *
+ * ```
+ * withContext(CallTimeout(50)) {
+ *     client.getUser(id)
+ * }
+ * ```
+ *
+ * @property millis the deadline in milliseconds, or 0 for none.
+ */
+class CallTimeout(val millis: Long) : AbstractCoroutineContextElement(CallTimeout) {
+    companion object Key : CoroutineContext.Key<CallTimeout>
+}
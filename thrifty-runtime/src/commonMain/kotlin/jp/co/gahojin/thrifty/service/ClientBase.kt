@@ -24,6 +24,7 @@ package jp.co.gahojin.thrifty.service
 import jp.co.gahojin.thrifty.Struct
 import jp.co.gahojin.thrifty.ThriftException
 import jp.co.gahojin.thrifty.ThriftException.Companion.read
+import jp.co.gahojin.thrifty.protocol.MessageMetadata
 import jp.co.gahojin.thrifty.protocol.Protocol
 import kotlinx.atomicfu.atomic
 import kotlinx.coroutines.CoroutineScope
@@ -109,11 +110,8 @@ open class ClientBase @JvmOverloads protected constructor(
     @Throws(Exception::class)
     fun <T> invokeRequest(call: MethodCall<T>): T {
         val isOneWay = call.callTypeId == TMessageType.ONEWAY
-        val sid = seqId.incrementAndGet()
-        protocol.writeMessageBegin(call.name, call.callTypeId, sid)
-        call.send(protocol)
-        protocol.writeMessageEnd()
-        protocol.flush()
+        val sid = nextSeqId()
+        sendRequest(call, sid)
         if (isOneWay) {
             // No response will be received
             return Unit as T
@@ -122,6 +120,28 @@ open class ClientBase @JvmOverloads protected constructor(
         if (metadata.seqId != sid) {
             throw ThriftException(ThriftException.Kind.BAD_SEQUENCE_ID, "Unrecognized sequence ID")
         }
+        if (metadata.type == TMessageType.REPLY && metadata.seqId != seqId.value) {
+            throw ThriftException(ThriftException.Kind.BAD_SEQUENCE_ID, "Out-of-order response")
+        }
+        return receiveReply(call, metadata)
+    }
+
+    internal fun nextSeqId(): Int = seqId.incrementAndGet()
+
+    @Throws(IOException::class)
+    internal fun sendRequest(call: MethodCall<*>, seqId: Int) {
+        protocol.writeMessageBegin(call.name, call.callTypeId, seqId)
+        call.send(protocol)
+        protocol.writeMessageEnd()
+        protocol.flush()
+    }
+
+    /**
+     * Reads the rest of the reply to [call], whose message header has been
+     * read as [metadata].
+     */
+    @Throws(Exception::class)
+    internal fun <T> receiveReply(call: MethodCall<T>, metadata: MessageMetadata): T {
         if (metadata.type == TMessageType.EXCEPTION) {
             val e = read(protocol)
             protocol.readMessageEnd()
@@ -129,9 +149,6 @@ open class ClientBase @JvmOverloads protected constructor(
         } else if (metadata.type != TMessageType.REPLY) {
             throw ThriftException(ThriftException.Kind.INVALID_MESSAGE_TYPE, "Invalid message type: ${metadata.type}")
         }
-        if (metadata.seqId != seqId.value) {
-            throw ThriftException(ThriftException.Kind.BAD_SEQUENCE_ID, "Out-of-order response")
-        }
         if (metadata.name != call.name) {
             throw ThriftException(
                 ThriftException.Kind.WRONG_METHOD_NAME,
@@ -0,0 +1,319 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.service
+
+import jp.co.gahojin.thrifty.Struct
+import jp.co.gahojin.thrifty.ThriftException
+import kotlinx.atomicfu.atomic
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Semaphore
+import okio.Closeable
+import okio.IOException
+import kotlin.time.TimeMark
+import kotlin.time.TimeSource
+
+/**
+ * A bounded pool of service clients, or of anything else that owns a
+ * connection such as a [Protocol][jp.co.gahojin.thrifty.protocol.Protocol],
+ * so that one service stub can spread concurrent calls over several
+ * connections.
+ *
+ * Clients are created on demand, up to [Builder.maxSize]; further borrowers
+ * wait for one to be returned.  Idle clients beyond [Builder.minSize] are
+ * closed once idle for longer than [Builder.maxIdleTime], and each idle
+ * client is health-checked before being handed out again.
+ *
+ * This class is threadsafe.
+ */
+class ClientPool<T : Closeable> private constructor(
+    private val factory: () -> T,
+    private val minSize: Int,
+    maxSize: Int,
+    private val maxIdleTime: Long,
+    private val healthCheck: (T) -> Boolean,
+) : ClientSource<T>, Closeable {
+    /**
+     * A snapshot of a pool's counters.
+     *
+     * @property created The number of clients created.
+     * @property destroyed The number of clients closed by the pool.
+     * @property borrowed The number of successful borrows.
+     * @property failedHealthChecks The number of idle clients that failed their health check.
+     * @property evicted The number of clients closed for being idle too long.
+     * @property active The number of clients currently borrowed.
+     * @property idle The number of clients currently idle in the pool.
+     */
+    data class Metrics(
+        val created: Long,
+        val destroyed: Long,
+        val borrowed: Long,
+        val failedHealthChecks: Long,
+        val evicted: Long,
+        val active: Int,
+        val idle: Int,
+    )
+
+    private class IdleClient<T>(val client: T, val since: TimeMark)
+
+    private val lock = SynchronizedObject()
+    private val idle = ArrayDeque<IdleClient<T>>()
+    private val permits = Semaphore(maxSize)
+    private val closed = atomic(false)
+    private val live = atomic(0)
+
+    private val createdCount = atomic(0L)
+    private val destroyedCount = atomic(0L)
+    private val borrowedCount = atomic(0L)
+    private val failedHealthCheckCount = atomic(0L)
+    private val evictedCount = atomic(0L)
+
+    /**
+     * The current value of this pool's counters.
+     */
+    val metrics: Metrics
+        get() {
+            val idleCount = synchronized(lock) { idle.size }
+            return Metrics(
+                created = createdCount.value,
+                destroyed = destroyedCount.value,
+                borrowed = borrowedCount.value,
+                failedHealthChecks = failedHealthCheckCount.value,
+                evicted = evictedCount.value,
+                active = live.value - idleCount,
+                idle = idleCount,
+            )
+        }
+
+    /**
+     * Takes a client from the pool, creating one if none is idle, and
+     * waiting if [Builder.maxSize] clients are already borrowed.  The client
+     * must be given back with [release] or [invalidate].
+     */
+    @Throws(IOException::class)
+    suspend fun borrow(): T {
+        check(!closed.value) { "Cannot borrow from a closed pool" }
+        permits.acquire()
+        try {
+            while (true) {
+                val entry = synchronized(lock) { idle.removeLastOrNull() } ?: break
+                val healthy = try {
+                    healthCheck(entry.client)
+                } catch (e: Throwable) {
+                    destroy(entry.client)
+                    throw e
+                }
+                if (healthy) {
+                    borrowedCount.incrementAndGet()
+                    return entry.client
+                }
+                failedHealthCheckCount.incrementAndGet()
+                destroy(entry.client)
+            }
+            val client = create()
+            borrowedCount.incrementAndGet()
+            return client
+        } catch (e: Throwable) {
+            permits.release()
+            throw e
+        }
+    }
+
+    /**
+     * A blocking version of [borrow], for callers outside of coroutines.
+     */
+    @Throws(IOException::class)
+    fun borrowBlocking(): T = runBlocking { borrow() }
+
+    /**
+     * Gives a healthy client back to the pool.
+     */
+    fun release(client: T) {
+        if (closed.value) {
+            destroy(client)
+        } else {
+            synchronized(lock) {
+                idle.addLast(IdleClient(client, TimeSource.Monotonic.markNow()))
+            }
+        }
+        permits.release()
+        evictIdle()
+    }
+
+    /**
+     * Closes a client that is no longer usable, e.g. after a connection
+     * error, instead of giving it back to the pool.
+     */
+    fun invalidate(client: T) {
+        destroy(client)
+        permits.release()
+    }
+
+    /**
+     * Borrows a client for the duration of [block].  The client is released
+     * if [block] succeeds, and invalidated if [block] throws unless the
+     * client is still usable.
+     *
+     * A [ClientBase] is still usable while it is [running][ClientBase.running]
+     * and the failure was an exception declared by the service, a timeout, or
+     * a cancellation.  Other clients are only kept after an exception
+     * declared by the service.
+     */
+    @Throws(Exception::class)
+    override suspend fun <R> withClient(block: suspend (T) -> R): R {
+        val client = borrow()
+        val result = try {
+            block(client)
+        } catch (e: Throwable) {
+            if (isReusable(client, e)) {
+                release(client)
+            } else {
+                invalidate(client)
+            }
+            throw e
+        }
+        release(client)
+        return result
+    }
+
+    /**
+     * Creates idle clients until the pool holds [Builder.minSize].
+     */
+    @Throws(IOException::class)
+    fun fill() {
+        while (!closed.value && live.value < minSize) {
+            val client = create()
+            synchronized(lock) {
+                idle.addLast(IdleClient(client, TimeSource.Monotonic.markNow()))
+            }
+        }
+    }
+
+    /**
+     * Closes clients idle for longer than [Builder.maxIdleTime], keeping at
+     * least [Builder.minSize].  Called on every [release]; call it
+     * periodically as well to shrink a pool that has gone quiet.
+     */
+    fun evictIdle() {
+        val expired = mutableListOf<T>()
+        synchronized(lock) {
+            // The oldest idle clients are at the head
+            while (idle.isNotEmpty() &&
+                live.value - expired.size > minSize &&
+                idle.first().since.elapsedNow().inWholeMilliseconds >= maxIdleTime
+            ) {
+                expired += idle.removeFirst().client
+            }
+        }
+        for (client in expired) {
+            evictedCount.incrementAndGet()
+            destroy(client)
+        }
+    }
+
+    /**
+     * Closes all idle clients.  Borrowed clients are closed as they are
+     * returned.
+     */
+    override fun close() {
+        if (!closed.compareAndSet(expect = false, update = true)) {
+            return
+        }
+        val clients = synchronized(lock) {
+            idle.map { it.client }.also { idle.clear() }
+        }
+        clients.forEach { destroy(it) }
+    }
+
+    private fun isReusable(client: T, e: Throwable): Boolean {
+        // A timed-out or cancelled serial client closes itself, while a
+        // pipelined one keeps its connection, so ask the client.
+        val running = (client as? ClientBase)?.running?.value
+        if (running != null) {
+            return running && (e is Struct || e is CancellationException)
+        }
+        return e is Struct && !(e is ThriftException && e.kind == ThriftException.Kind.TIMED_OUT)
+    }
+
+    private fun create(): T {
+        val client = factory()
+        createdCount.incrementAndGet()
+        live.incrementAndGet()
+        return client
+    }
+
+    private fun destroy(client: T) {
+        try {
+            client.close()
+        } catch (_: IOException) {
+            // nope
+        }
+        destroyedCount.incrementAndGet()
+        live.decrementAndGet()
+    }
+
+    class Builder<T : Closeable>(
+        private val factory: () -> T,
+    ) {
+        private var minSize: Int = 0
+        private var maxSize: Int = 8
+        private var maxIdleTime: Long = 60_000
+        private var healthCheck: (T) -> Boolean = { true }
+
+        /**
+         * The number of clients kept open even when idle.
+         */
+        fun minSize(value: Int): Builder<T> = apply {
+            minSize = value
+        }
+
+        /**
+         * The most clients open at once.
+         */
+        fun maxSize(value: Int): Builder<T> = apply {
+            maxSize = value
+        }
+
+        /**
+         * How long, in milliseconds, a client may stay idle before it is closed.
+         */
+        fun maxIdleTime(value: Long): Builder<T> = apply {
+            maxIdleTime = value
+        }
+
+        /**
+         * Checks an idle client before it is borrowed; clients that fail are
+         * closed and replaced.
+         */
+        fun healthCheck(value: (T) -> Boolean): Builder<T> = apply {
+            healthCheck = value
+        }
+
+        fun build(): ClientPool<T> {
+            require(maxSize > 0) { "maxSize must be positive: $maxSize" }
+            require(minSize in 0..maxSize) { "minSize must be between 0 and maxSize: $minSize" }
+            return ClientPool(factory, minSize, maxSize, maxIdleTime, healthCheck)
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.service
+
+import okio.Closeable
+
+/**
+ * Lends out clients for calls, such as a [ClientPool] for one server or a
+ * [LoadBalancer] over several.  A [CallPolicy] retries and hedges its calls
+ * through either.
+ */
+interface ClientSource<T : Closeable> {
+    /**
+     * Calls [block] with a client, taking the client back once [block]
+     * returns or throws.
+     */
+    @Throws(Exception::class)
+    suspend fun <R> withClient(block: suspend (T) -> R): R
+}
@@ -0,0 +1,253 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.service
+
+import jp.co.gahojin.thrifty.Struct
+import jp.co.gahojin.thrifty.ThriftException
+import kotlinx.atomicfu.atomic
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
+import okio.Closeable
+import okio.IOException
+import kotlin.random.Random
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.TimeMark
+import kotlin.time.TimeSource
+
+/**
+ * Spreads calls over several equivalent servers, keeping a [ClientPool]
+ * of clients for each endpoint.
+ *
+ * Each call goes to the less busy of two endpoints chosen at random
+ * ("power of two choices"), which approaches least-outstanding-requests
+ * balancing without scanning every endpoint.  An endpoint that fails
+ * [Builder.maxFailures] calls in a row with a connection error or timeout
+ * is ejected for [Builder.ejectionTime], doubling each time it fails again
+ * after being restored, up to [Builder.maxEjectionTime].  If every
+ * endpoint is ejected, calls are spread over all of them again rather
+ * than failing outright.
+ *
+ * A call that cannot connect to its endpoint has sent nothing, so it is
+ * tried again on another endpoint; other failures are thrown to the caller.
+ * To retry or hedge idempotent calls, build a [CallPolicy] over the
+ * balancer, so that each attempt picks its own endpoint.
+ *
+ * ```
+ * val balancer = LoadBalancer.Builder(listOf(9090, 9091, 9092)) { port ->
+ *     val transport = SocketTransport.Builder("localhost", port).build().apply { connect() }
+ *     UserServiceClient(transport.binaryProtocol(), listener)
+ * }.build()
+ * val user = balancer.call { it.getUser(id) }
+ * ```
+ *
+ * This class is threadsafe.
+ *
+ * @param E the type of an endpoint, e.g. a port, an address or a URL.
+ */
+class LoadBalancer<E, T : Closeable> private constructor(
+    endpoints: List<E>,
+    factory: (E) -> T,
+    maxClientsPerEndpoint: Int,
+    private val maxFailures: Int,
+    private val ejectionTime: Long,
+    private val maxEjectionTime: Long,
+) : ClientSource<T>, Closeable {
+    private class Backend<E, T : Closeable>(val endpoint: E, val pool: ClientPool<T>) {
+        val outstanding = atomic(0)
+
+        // Guarded by the balancer's lock
+        var consecutiveFailures = 0
+        var ejections = 0
+        var ejectedUntil: TimeMark? = null
+
+        val isAvailable: Boolean
+            get() = ejectedUntil?.hasPassedNow() ?: true
+    }
+
+    private val lock = SynchronizedObject()
+    private val closed = atomic(false)
+    private val backends = endpoints.map { endpoint ->
+        Backend(endpoint, ClientPool.Builder { factory(endpoint) }.maxSize(maxClientsPerEndpoint).build())
+    }
+
+    /**
+     * The endpoints currently ejected.
+     */
+    val ejectedEndpoints: List<E>
+        get() = synchronized(lock) {
+            backends.filter { !it.isAvailable }.map { it.endpoint }
+        }
+
+    /**
+     * Calls [block] with a client for the chosen endpoint.
+     */
+    @Throws(Exception::class)
+    suspend fun <R> call(block: suspend (T) -> R): R {
+        check(!closed.value) { "Cannot call through a closed balancer" }
+
+        var lastError: IOException? = null
+        val unreachable = mutableListOf<Backend<E, T>>()
+        repeat(backends.size) {
+            val backend = pick(unreachable)
+            var connected = false
+            backend.outstanding.incrementAndGet()
+            try {
+                val result = backend.pool.withClient {
+                    connected = true
+                    block(it)
+                }
+                onSuccess(backend)
+                return result
+            } catch (e: Exception) {
+                when {
+                    isFailure(e) -> onFailure(backend)
+                    // The server answered with an exception it declares
+                    e is Struct -> onSuccess(backend)
+                }
+                if (connected || e !is IOException) {
+                    throw e
+                }
+                lastError = e
+                unreachable += backend
+            } finally {
+                backend.outstanding.decrementAndGet()
+            }
+        }
+        throw lastError ?: IOException("No endpoint could be reached")
+    }
+
+    /**
+     * The same as [call].
+     */
+    @Throws(Exception::class)
+    override suspend fun <R> withClient(block: suspend (T) -> R): R = call(block)
+
+    private fun pick(exclude: List<Backend<E, T>>): Backend<E, T> {
+        // When every endpoint is ejected, fall back to all of them
+        val remaining = backends.filter { it !in exclude }
+        val candidates = synchronized(lock) {
+            remaining.filter { it.isAvailable }
+        }.ifEmpty { remaining }
+
+        if (candidates.size == 1) {
+            return candidates[0]
+        }
+        val first = candidates[Random.nextInt(candidates.size)]
+        var second = candidates[Random.nextInt(candidates.size - 1)]
+        if (second === first) {
+            second = candidates[candidates.size - 1]
+        }
+        return if (second.outstanding.value < first.outstanding.value) second else first
+    }
+
+    private fun isFailure(e: Exception): Boolean {
+        return e is IOException ||
+            (e is ThriftException && e.kind == ThriftException.Kind.TIMED_OUT)
+    }
+
+    private fun onSuccess(backend: Backend<E, T>) {
+        synchronized(lock) {
+            backend.consecutiveFailures = 0
+            backend.ejections = 0
+        }
+    }
+
+    private fun onFailure(backend: Backend<E, T>) {
+        synchronized(lock) {
+            // Failures are not reset on ejection, so a restored endpoint
+            // that fails again is ejected again, for longer.
+            backend.consecutiveFailures++
+            if (backend.consecutiveFailures >= maxFailures && backend.isAvailable) {
+                val backoff = ejectionTime shl minOf(backend.ejections, MAX_BACKOFF_SHIFT)
+                backend.ejections++
+                backend.ejectedUntil = TimeSource.Monotonic.markNow() + minOf(backoff, maxEjectionTime).milliseconds
+            }
+        }
+    }
+
+    /**
+     * Closes every endpoint's pool.
+     */
+    override fun close() {
+        if (closed.compareAndSet(expect = false, update = true)) {
+            backends.forEach { it.pool.close() }
+        }
+    }
+
+    class Builder<E, T : Closeable>(
+        private val endpoints: List<E>,
+        private val factory: (E) -> T,
+    ) {
+        private var maxClientsPerEndpoint: Int = 8
+        private var maxFailures: Int = 5
+        private var ejectionTime: Long = 30_000
+        private var maxEjectionTime: Long = 300_000
+
+        /**
+         * The most clients open at once to each endpoint.
+         */
+        fun maxClientsPerEndpoint(value: Int): Builder<E, T> = apply {
+            maxClientsPerEndpoint = value
+        }
+
+        /**
+         * The number of consecutive failed calls after which an endpoint is ejected.
+         */
+        fun maxFailures(value: Int): Builder<E, T> = apply {
+            maxFailures = value
+        }
+
+        /**
+         * How long, in milliseconds, an endpoint is first ejected for.
+         */
+        fun ejectionTime(value: Long): Builder<E, T> = apply {
+            ejectionTime = value
+        }
+
+        /**
+         * The longest, in milliseconds, an endpoint is ejected for after
+         * repeated ejections.
+         */
+        fun maxEjectionTime(value: Long): Builder<E, T> = apply {
+            maxEjectionTime = value
+        }
+
+        fun build(): LoadBalancer<E, T> {
+            require(endpoints.isNotEmpty()) { "At least one endpoint is required" }
+            require(maxClientsPerEndpoint > 0) { "maxClientsPerEndpoint must be positive: $maxClientsPerEndpoint" }
+            require(maxFailures > 0) { "maxFailures must be positive: $maxFailures" }
+            require(ejectionTime >= 0) { "ejectionTime must not be negative: $ejectionTime" }
+            return LoadBalancer(
+                endpoints,
+                factory,
+                maxClientsPerEndpoint,
+                maxFailures,
+                ejectionTime,
+                maxOf(maxEjectionTime, ejectionTime),
+            )
+        }
+    }
+
+    companion object {
+        private const val MAX_BACKOFF_SHIFT = 16
+    }
+}
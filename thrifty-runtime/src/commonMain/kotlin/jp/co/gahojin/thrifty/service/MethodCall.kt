@@ -23,6 +23,7 @@ package jp.co.gahojin.thrifty.service
 
 import jp.co.gahojin.thrifty.protocol.MessageMetadata
 import jp.co.gahojin.thrifty.protocol.Protocol
+import kotlinx.atomicfu.atomic
 import okio.IOException
 import kotlin.jvm.JvmField
 
@@ -41,6 +42,10 @@ abstract class MethodCall<T>(
     @Throws(Exception::class)
     abstract fun receive(protocol: Protocol, metadata: MessageMetadata): T
 
+    // The call's progress through an AsyncClientBase, so that it can be cancelled
+    internal val state = atomic(QUEUED)
+    internal var seqId = 0
+
     init {
         require(callTypeId == TMessageType.CALL || callTypeId == TMessageType.ONEWAY) {
             "Unexpected call type: $callTypeId"
@@ -49,4 +54,11 @@ abstract class MethodCall<T>(
             "callback is required"
         }
     }
+
+    internal companion object {
+        const val QUEUED = 0
+        const val IN_FLIGHT = 1
+        const val DONE = 2
+        const val CANCELLED = 3
+    }
 }
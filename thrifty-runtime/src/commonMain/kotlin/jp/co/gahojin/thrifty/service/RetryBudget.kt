@@ -0,0 +1,94 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.service
+
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
+import kotlin.jvm.JvmOverloads
+import kotlin.time.TimeMark
+import kotlin.time.TimeSource
+
+/**
+ * Limits the extra load that retries and hedged requests add to a service.
+ *
+ * Every original call [deposits][deposit] [ratio] of a token, and every
+ * retry or hedge must [withdraw][tryWithdraw] a whole one, so that retries
+ * stay near [ratio] of the call volume however badly the service is doing.
+ * A further [minPerSecond] retries per second are always allowed, so that
+ * callers with little traffic can still retry.
+ *
+ * This class is threadsafe.
+ *
+ * @param ratio the number of retries allowed per original call.
+ * @param minPerSecond the number of retries allowed each second regardless of [ratio].
+ */
+class RetryBudget @JvmOverloads constructor(
+    private val ratio: Double = 0.1,
+    private val minPerSecond: Int = 10,
+) {
+    private val lock = SynchronizedObject()
+    private val maxBalance = ratio * MAX_DEPOSITS
+    private var balance = 0.0
+    private var reserve = minPerSecond
+    private var reserveSince: TimeMark = TimeSource.Monotonic.markNow()
+
+    init {
+        require(ratio >= 0.0) { "ratio must not be negative: $ratio" }
+        require(minPerSecond >= 0) { "minPerSecond must not be negative: $minPerSecond" }
+    }
+
+    /**
+     * Records an original call.
+     */
+    fun deposit() {
+        synchronized(lock) {
+            balance = minOf(balance + ratio, maxBalance)
+        }
+    }
+
+    /**
+     * Takes one retry from the budget, returning false if none is left.
+     */
+    fun tryWithdraw(): Boolean {
+        synchronized(lock) {
+            if (balance >= 1.0) {
+                balance -= 1.0
+                return true
+            }
+            if (reserveSince.elapsedNow().inWholeSeconds >= 1) {
+                reserve = minPerSecond
+                reserveSince = TimeSource.Monotonic.markNow()
+            }
+            if (reserve > 0) {
+                reserve--
+                return true
+            }
+            return false
+        }
+    }
+
+    companion object {
+        // Caps the balance a quiet period can build up, so that it cannot
+        // fund a burst of retries when the service starts failing.
+        private const val MAX_DEPOSITS = 1000
+    }
+}
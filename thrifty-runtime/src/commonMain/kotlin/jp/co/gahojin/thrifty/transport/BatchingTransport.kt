@@ -0,0 +1,150 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.IO
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import okio.IOException
+import kotlin.coroutines.CoroutineContext
+import kotlin.jvm.JvmOverloads
+import kotlin.time.Duration.Companion.microseconds
+
+/**
+ * A transport decorator that coalesces flushes, so that messages written in
+ * quick succession, e.g. by concurrent callers of one client, reach the
+ * network in a single flush of [inner].
+ *
+ * Writes go straight to [inner], which is expected to buffer them until
+ * flushed, as [SocketTransport], [BufferedTransport] and the JVM `NioSocketTransport`
+ * do.  Place this below any [FramedTransport], so that each message keeps its
+ * own frame.  [flush] only schedules a flush of [inner], which happens once
+ * the linger has passed; an error from that flush is thrown by the next
+ * [write] or [flush].  Callers that wait for a reply are delayed by up to the
+ * linger, so this suits one-way and pipelined calls best.
+ *
+ * This class is threadsafe for writing; reads are passed through.
+ *
+ * @param inner
+ * @param lingerMicros
+ *      How long to wait for more messages before flushing, in microseconds.
+ *      With 0, the flush runs as soon as a thread is available, which gathers
+ *      whatever was written meanwhile.  Delays are rounded up to whole
+ *      milliseconds.
+ * @param maxBatchBytes
+ *      The number of unflushed bytes at which [inner] is flushed without
+ *      waiting for the linger.
+ * @param context
+ *      Where scheduled flushes run.
+ */
+class BatchingTransport @JvmOverloads constructor(
+    private val inner: Transport,
+    private val lingerMicros: Long = 0,
+    private val maxBatchBytes: Int = 64 * 1024,
+    context: CoroutineContext = Dispatchers.IO,
+) : Transport {
+    private val lock = SynchronizedObject()
+    private val scope = CoroutineScope(SupervisorJob() + context)
+    private var pendingBytes = 0L
+    private var flushScheduled = false
+    private var failure: IOException? = null
+
+    override fun read(buffer: ByteArray, offset: Int, count: Int) = inner.read(buffer, offset, count)
+
+    override fun skip(count: Long) = inner.skip(count)
+
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        synchronized(lock) {
+            throwFailure()
+            inner.write(buffer, offset, count)
+            pendingBytes += count
+            if (pendingBytes >= maxBatchBytes) {
+                flushLocked()
+            }
+        }
+    }
+
+    override fun flush() {
+        synchronized(lock) {
+            throwFailure()
+            if (pendingBytes == 0L || flushScheduled) {
+                return
+            }
+            flushScheduled = true
+        }
+        scope.launch {
+            if (lingerMicros > 0) {
+                delay(lingerMicros.microseconds)
+            }
+            synchronized(lock) {
+                // A full batch may have been flushed in the meantime
+                if (flushScheduled) {
+                    try {
+                        flushLocked()
+                    } catch (e: IOException) {
+                        failure = e
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes [inner] now, without waiting for the linger.
+     */
+    fun flushNow() {
+        synchronized(lock) {
+            throwFailure()
+            if (pendingBytes > 0) {
+                flushLocked()
+            }
+        }
+    }
+
+    override fun close() {
+        try {
+            flushNow()
+        } finally {
+            scope.cancel()
+            inner.close()
+        }
+    }
+
+    private fun flushLocked() {
+        flushScheduled = false
+        pendingBytes = 0
+        inner.flush()
+    }
+
+    private fun throwFailure() {
+        failure?.let {
+            failure = null
+            throw it
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A transport decorator that buffers writes until [flush] and reads ahead
+ * of the protocol, for unframed servers.  The equivalent of Apache Thrift's
+ * `TBufferedTransport`.
+ *
+ * Reading and writing are buffered independently, so read-only and
+ * write-only transports can be wrapped as well.
+ *
+ * Instances of this class are *not* threadsafe.
+ *
+ * @param inner
+ * @param readBufferSize
+ *      The number of bytes to read ahead, or 0 to pass reads through.
+ * @param writeBufferSize
+ *      The number of bytes to buffer before writing to [inner], or 0 to pass
+ *      writes through.
+ */
+class BufferedTransport @JvmOverloads constructor(
+    private val inner: Transport,
+    readBufferSize: Int = DEFAULT_BUFFER_SIZE,
+    writeBufferSize: Int = DEFAULT_BUFFER_SIZE,
+) : Transport {
+    // Unread bytes are readBuf[readPos, readLimit)
+    private val readBuf = ByteArray(readBufferSize)
+    private var readPos = 0
+    private var readLimit = 0
+
+    private val writeBuf = ByteArray(writeBufferSize)
+    private var writeSize = 0
+
+    override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
+        if (readPos == readLimit) {
+            // Large reads gain nothing from an intermediate copy
+            if (count >= readBuf.size) {
+                return inner.read(buffer, offset, count)
+            }
+            val n = inner.read(readBuf, 0, readBuf.size)
+            if (n <= 0) {
+                return n
+            }
+            readPos = 0
+            readLimit = n
+        }
+        val n = count.coerceAtMost(readLimit - readPos)
+        readBuf.copyInto(buffer, offset, readPos, readPos + n)
+        readPos += n
+        return n
+    }
+
+    override fun skip(count: Long) {
+        val buffered = count.coerceAtMost((readLimit - readPos).toLong()).toInt()
+        readPos += buffered
+        if (count > buffered) {
+            inner.skip(count - buffered)
+        }
+    }
+
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        if (count > writeBuf.size - writeSize) {
+            drain()
+        }
+        if (count >= writeBuf.size) {
+            inner.write(buffer, offset, count)
+            return
+        }
+        buffer.copyInto(writeBuf, writeSize, offset, offset + count)
+        writeSize += count
+    }
+
+    override fun flush() {
+        drain()
+        inner.flush()
+    }
+
+    override fun close() {
+        inner.close()
+        readPos = 0
+        readLimit = 0
+        writeSize = 0
+    }
+
+    private fun drain() {
+        if (writeSize > 0) {
+            inner.write(writeBuf, 0, writeSize)
+            writeSize = 0
+        }
+    }
+
+    companion object {
+        const val DEFAULT_BUFFER_SIZE = 8192
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import kotlinx.atomicfu.locks.SynchronizedObject
+import kotlinx.atomicfu.locks.synchronized
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A bounded pool of frame buffers, shared by [FramedTransport]s so that
+ * short-lived or mostly-idle connections don't each allocate and grow their
+ * own.
+ *
+ * This class is threadsafe.
+ *
+ * @param maxBuffers
+ *      The most buffers kept idle in the pool; extra released buffers are
+ *      left to the garbage collector.
+ * @param maxBufferSize
+ *      The largest buffer, in bytes, that the pool will keep.
+ */
+class FrameBufferPool @JvmOverloads constructor(
+    private val maxBuffers: Int = 16,
+    private val maxBufferSize: Int = FramedTransport.DEFAULT_HIGH_WATER_MARK,
+) {
+    private val lock = SynchronizedObject()
+    private val buffers = ArrayDeque<ByteArray>(maxBuffers)
+
+    /**
+     * The number of buffers currently idle in the pool.
+     */
+    val size: Int
+        get() = synchronized(lock) { buffers.size }
+
+    /**
+     * Takes a buffer of at least [minSize] bytes from the pool, or allocates
+     * one if none is large enough.
+     *
+     * A new buffer that the pool can keep takes the place of a pooled one
+     * that was too small, once it is released; a larger one is allocated
+     * without disturbing the pool.
+     */
+    fun acquire(minSize: Int): ByteArray {
+        synchronized(lock) {
+            val index = buffers.indexOfFirst { it.size >= minSize }
+            if (index >= 0) {
+                return buffers.removeAt(index)
+            }
+            if (minSize <= maxBufferSize) {
+                buffers.removeLastOrNull()
+            }
+        }
+        return ByteArray(minSize)
+    }
+
+    /**
+     * Returns [buffer] to the pool.  The caller must not use it afterwards.
+     */
+    fun release(buffer: ByteArray) {
+        if (buffer.size > maxBufferSize) {
+            return
+        }
+        synchronized(lock) {
+            if (buffers.size < maxBuffers) {
+                buffers.addLast(buffer)
+            }
+        }
+    }
+}
@@ -22,24 +22,52 @@
 package jp.co.gahojin.thrifty.transport
 
 import okio.EOFException
+import okio.ProtocolException
+import kotlin.jvm.JvmOverloads
 
 /**
  * A transport decorator that reads from and writes to the underlying transport
  * in length-prefixed frames.  Used when the server is using a non-blocking
  * implementation, which currently requires such framing.
+ *
+ * @param inner
+ * @param maxFrameSize
+ *      The largest frame, in bytes, that will be read.
+ * @param highWaterMark
+ *      The largest write buffer, in bytes, kept between frames; a buffer grown
+ *      past this by a large frame is discarded once the frame is written.
+ * @param pool
+ *      A pool to share write buffers with other transports, or null to keep
+ *      this transport's buffer to itself.  With a pool, the buffer is returned
+ *      after each frame is written.
+ * @param prefetch
+ *      When true, each incoming frame is read whole as soon as its header
+ *      arrives, and reads and skips are then served from memory.  Worthwhile
+ *      when the inner transport makes a system call per read, e.g. a socket.
  */
-class FramedTransport(
+class FramedTransport @JvmOverloads constructor(
     private val inner: Transport,
+    private val maxFrameSize: Int = DEFAULT_MAX_FRAME_SIZE,
+    private val highWaterMark: Int = DEFAULT_HIGH_WATER_MARK,
+    private val pool: FrameBufferPool? = null,
+    private val prefetch: Boolean = false,
 ) : Transport {
-    // Read state
+    // Read state; with prefetch, the current frame is readBuf[readPos, readPos + remainingBytes)
     private var remainingBytes = 0
+    private val headerBytes = ByteArray(HEADER_SIZE)
+    private var readBuf = EMPTY
+    private var readPos = 0
 
-    // Write state
-    private var pendingWrite: SimpleBuffer? = null
+    // Write state; the first HEADER_SIZE bytes of the buffer are reserved for
+    // the frame length, which is filled in on flush.
+    private var pendingWrite: ByteArray? = null
+    private var pendingSize = HEADER_SIZE
 
     override fun close() {
         inner.close()
-        pendingWrite = null
+        releasePendingWrite()
+        readBuf = EMPTY
+        remainingBytes = 0
     }
 
     override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
@@ -47,85 +75,157 @@ class FramedTransport(
             readHeader()
         }
         val toRead = count.coerceAtMost(remainingBytes)
+        if (prefetch) {
+            readBuf.copyInto(buffer, offset, readPos, readPos + toRead)
+            readPos += toRead
+            remainingBytes -= toRead
+            return toRead
+        }
         val numRead = inner.read(buffer, offset, toRead)
         remainingBytes -= numRead
         return numRead
     }
 
+    override fun skip(count: Long) {
+        var remaining = count
+        while (remaining > 0) {
+            if (remainingBytes <= 0) {
+                readHeader()
+                continue
+            }
+            val n = remaining.coerceAtMost(remainingBytes.toLong()).toInt()
+            if (prefetch) {
+                readPos += n
+            } else {
+                inner.skip(n.toLong())
+            }
+            remainingBytes -= n
+            remaining -= n
+        }
+    }
+
     private fun readHeader() {
-        val headerBytes = ByteArray(4)
         var numRead = 0
-        while (numRead < headerBytes.size) {
-            val n = inner.read(headerBytes, numRead, headerBytes.size - numRead)
+        while (numRead < HEADER_SIZE) {
+            val n = inner.read(headerBytes, numRead, HEADER_SIZE - numRead)
             if (n == -1) {
                 throw EOFException()
             }
             numRead += n
         }
-        remainingBytes = (
+        val frameSize = (
                    ((headerBytes[0].toInt() and 0xFF) shl 24)
                 or ((headerBytes[1].toInt() and 0xFF) shl 16)
                 or ((headerBytes[2].toInt() and 0xFF) shl 8)
                 or ( headerBytes[3].toInt() and 0xFF))
+        if (frameSize < 0 || frameSize > maxFrameSize) {
+            throw ProtocolException("Frame size $frameSize exceeds the limit of $maxFrameSize bytes")
+        }
+        remainingBytes = frameSize
+        if (prefetch) {
+            prefetchFrame(frameSize)
+        }
     }
 
-    override fun write(buffer: ByteArray, offset: Int, count: Int) {
-        val tmp = pendingWrite ?: SimpleBuffer(count).also {
-            pendingWrite = it
+    private fun prefetchFrame(frameSize: Int) {
+        if (frameSize > readBuf.size || (readBuf.size > highWaterMark && frameSize <= highWaterMark)) {
+            readBuf = ByteArray(nextPowerOfTwo(frameSize.coerceAtLeast(INITIAL_BUFFER_SIZE)))
         }
-        tmp.write(buffer, offset, count)
+        var numRead = 0
+        while (numRead < frameSize) {
+            val n = inner.read(readBuf, numRead, frameSize - numRead)
+            if (n == -1) {
+                throw EOFException()
+            }
+            numRead += n
+        }
+        readPos = 0
+    }
+
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        val buf = ensureCapacity(pendingSize + count)
+        buffer.copyInto(
+            destination = buf,
+            destinationOffset = pendingSize,
+            startIndex = offset,
+            endIndex = offset + count,
+        )
+        pendingSize += count
+    }
+
+    /**
+     * Grows the pending frame to hold [byteCount] more bytes without
+     * reallocating, e.g. a size computed by
+     * [SerializedSizeProtocol][jp.co.gahojin.thrifty.protocol.SerializedSizeProtocol].
+     */
+    fun reserve(byteCount: Int) {
+        ensureCapacity(pendingSize + byteCount)
     }
 
     override fun flush() {
-        val write = pendingWrite ?: return
-        val size = write.size
+        val buf = pendingWrite ?: return
+        val size = pendingSize - HEADER_SIZE
         if (size == 0) {
             return
         }
 
-        val headerBytes = ByteArray(4)
-        headerBytes[0] = ((size shr 24) and 0xFF).toByte()
-        headerBytes[1] = ((size shr 16) and 0xFF).toByte()
-        headerBytes[2] = ((size shr 8)  and 0xFF).toByte()
-        headerBytes[3] = ( size         and 0xFF).toByte()
-        inner.write(headerBytes)
-        inner.write(write.buf, 0, size)
+        buf[0] = ((size shr 24) and 0xFF).toByte()
+        buf[1] = ((size shr 16) and 0xFF).toByte()
+        buf[2] = ((size shr 8)  and 0xFF).toByte()
+        buf[3] = ( size         and 0xFF).toByte()
+        inner.write(buf, 0, pendingSize)
         inner.flush()
-        write.reset()
-    }
 
-    override fun skip(count: Long) = inner.skip(count)
-
-    private class SimpleBuffer(count: Int = 32) {
-        var buf: ByteArray = ByteArray(count.coerceAtLeast(32))
-        var size: Int = 0
+        pendingSize = HEADER_SIZE
+        if (pool != null || buf.size > highWaterMark) {
+            releasePendingWrite()
+        }
+    }
 
-        fun write(buffer: ByteArray, offset: Int, count: Int) {
-            if (size + count > buf.size) {
-                buf = buf.copyOf(nextPowerOfTwo(size + count))
+    private fun ensureCapacity(capacity: Int): ByteArray {
+        val buf = pendingWrite
+        if (buf == null) {
+            val minSize = nextPowerOfTwo(capacity.coerceAtLeast(INITIAL_BUFFER_SIZE))
+            return (pool?.acquire(minSize) ?: ByteArray(minSize)).also {
+                pendingWrite = it
             }
-            buffer.copyInto(
-                destination = buf,
-                destinationOffset = size,
-                startIndex = offset,
-                endIndex = offset + count,
-            )
-            size += count
         }
-
-        fun reset() {
-            buf = ByteArray(32)
-            size = 0
+        if (capacity > buf.size) {
+            return buf.copyOf(nextPowerOfTwo(capacity)).also {
+                pendingWrite = it
+            }
         }
+        return buf
+    }
 
-        private fun nextPowerOfTwo(num: Int): Int {
-            var n = num - 1
-            n = n or (n ushr 1)
-            n = n or (n ushr 2)
-            n = n or (n ushr 4)
-            n = n or (n ushr 8)
-            n = n or (n ushr 16)
-            return n + 1
+    private fun releasePendingWrite() {
+        val buf = pendingWrite ?: return
+        pendingWrite = null
+        pendingSize = HEADER_SIZE
+        if (buf.size <= highWaterMark) {
+            pool?.release(buf)
         }
     }
+
+    private fun nextPowerOfTwo(num: Int): Int {
+        var n = num - 1
+        n = n or (n ushr 1)
+        n = n or (n ushr 2)
+        n = n or (n ushr 4)
+        n = n or (n ushr 8)
+        n = n or (n ushr 16)
+        return n + 1
+    }
+
+    companion object {
+        /** The default largest frame that will be read, matching Apache Thrift. */
+        const val DEFAULT_MAX_FRAME_SIZE = 16384000
+
+        /** The default largest write buffer kept between frames. */
+        const val DEFAULT_HIGH_WATER_MARK = 64 * 1024
+
+        private const val HEADER_SIZE = 4
+        private const val INITIAL_BUFFER_SIZE = 64
+        private val EMPTY = ByteArray(0)
+    }
 }
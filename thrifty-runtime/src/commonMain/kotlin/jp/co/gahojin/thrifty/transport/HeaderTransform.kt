@@ -0,0 +1,60 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import okio.Buffer
+import okio.Closeable
+import okio.IOException
+
+/**
+ * A payload transform carried in [HeaderTransport] frames, such as
+ * compression.
+ *
+ * Implementations are *not* expected to be threadsafe.  A [HeaderTransport]
+ * closes its transforms when it is closed.
+ */
+interface HeaderTransform : Closeable {
+    /**
+     * The transform's ID on the wire.
+     */
+    val id: Int
+
+    /**
+     * Transforms the whole of [source], consuming it.
+     */
+    @Throws(IOException::class)
+    fun encode(source: Buffer): Buffer
+
+    /**
+     * Reverses [encode] for the whole of [source], consuming it.
+     *
+     * @throws okio.ProtocolException if the result would exceed [maxSize] bytes.
+     */
+    @Throws(IOException::class)
+    fun decode(source: Buffer, maxSize: Long): Buffer
+
+    /**
+     * Releases any resources held by this transform.
+     */
+    override fun close() {
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import okio.Buffer
+import okio.EOFException
+import okio.ProtocolException
+import okio.utf8Size
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A transport decorator that reads and writes messages in Apache Thrift's
+ * THeader format: length-prefixed frames carrying the protocol ID, a list of
+ * payload transforms such as compression, and key-value info headers.
+ *
+ * Each frame is buffered in full; writes are sent on [flush], and a frame is
+ * read as soon as the previous one is exhausted.  Use with
+ * [HeaderProtocol][jp.co.gahojin.thrifty.protocol.HeaderProtocol], which
+ * selects the encoding named by each incoming frame.
+ *
+ * Instances of this class are *not* threadsafe.
+ *
+ * @param inner
+ * @param transforms
+ *      The transforms that incoming frames may use, in addition to
+ *      [writeTransforms].
+ * @param maxFrameSize
+ *      The largest frame, in bytes, that will be read, both as sent and
+ *      after its transforms are reversed.
+ */
+class HeaderTransport @JvmOverloads constructor(
+    private val inner: Transport,
+    private val transforms: List<HeaderTransform> = emptyList(),
+    private val maxFrameSize: Int = MAX_FRAME_SIZE,
+) : Transport {
+    /**
+     * The protocol ID written in outgoing frames.
+     */
+    var protocolId: Int = BINARY_PROTOCOL_ID
+
+    /**
+     * The sequence ID written in outgoing frames.
+     */
+    var seqId: Int = 0
+
+    /**
+     * The flags written in outgoing frames.
+     */
+    var flags: Int = 0
+
+    /**
+     * The transforms applied, in order, to outgoing frames.  May be changed
+     * between messages.
+     */
+    var writeTransforms: List<HeaderTransform> = emptyList()
+
+    /**
+     * When true, outgoing frames use the transforms of the last frame read
+     * instead of [writeTransforms], so that e.g. a server answers compressed
+     * requests with compressed replies.
+     */
+    var mirrorTransforms: Boolean = false
+
+    /**
+     * Info headers for the next outgoing frame.  Cleared on [flush].
+     */
+    val writeHeaders: MutableMap<String, String> = mutableMapOf()
+
+    /**
+     * The protocol ID of the last frame read.
+     */
+    var readProtocolId: Int = BINARY_PROTOCOL_ID
+        private set
+
+    /**
+     * The sequence ID of the last frame read.
+     */
+    var readSeqId: Int = 0
+        private set
+
+    /**
+     * The transform IDs of the last frame read.
+     */
+    var readTransformIds: List<Int> = emptyList()
+        private set
+
+    /**
+     * The info headers of the last frame read.
+     */
+    var readHeaders: Map<String, String> = emptyMap()
+        private set
+
+    private val readBuffer = Buffer()
+    private val writeBuffer = Buffer()
+    private val scratch = ByteArray(8192)
+    private val cursor = Buffer.UnsafeCursor()
+
+    override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
+        while (readBuffer.size == 0L) {
+            readFrame()
+        }
+        return readBuffer.read(buffer, offset, count)
+    }
+
+    override fun skip(count: Long) {
+        var remaining = count
+        while (remaining > 0) {
+            if (readBuffer.size == 0L) {
+                readFrame()
+            }
+            val n = remaining.coerceAtMost(readBuffer.size)
+            readBuffer.skip(n)
+            remaining -= n
+        }
+    }
+
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        writeBuffer.write(buffer, offset, count)
+    }
+
+    /**
+     * Discards anything left of the current frame and reads the next one,
+     * updating [readProtocolId], [readSeqId], [readTransformIds] and
+     * [readHeaders].
+     */
+    fun readFrame() {
+        readBuffer.clear()
+
+        val frame = Buffer()
+        readFully(frame, 4)
+        val frameSize = frame.readInt()
+        if (frameSize < FIXED_HEADER_SIZE || frameSize > maxFrameSize) {
+            throw ProtocolException("Invalid THeader frame size: $frameSize")
+        }
+        readFully(frame, frameSize.toLong())
+
+        val magicAndFlags = frame.readInt()
+        if (magicAndFlags and HEADER_MASK != HEADER_MAGIC) {
+            throw ProtocolException("Not a THeader frame: ${magicAndFlags.toString(radix = 16)}")
+        }
+        readSeqId = frame.readInt()
+        val headerSize = (frame.readShort().toLong() and 0xFFFF) * 4
+        if (headerSize > frame.size) {
+            throw ProtocolException("THeader size $headerSize exceeds frame")
+        }
+
+        val header = Buffer()
+        header.write(frame, headerSize)
+        readProtocolId = header.readVarint()
+        val transformCount = header.readVarint()
+        if (transformCount > header.size) {
+            throw ProtocolException("Invalid THeader transform count: $transformCount")
+        }
+        readTransformIds = List(transformCount) { header.readVarint() }
+        readHeaders = readInfoHeaders(header)
+
+        var payload = frame
+        for (id in readTransformIds.asReversed()) {
+            payload = transformFor(id).decode(payload, maxFrameSize.toLong())
+            if (payload.size > maxFrameSize) {
+                throw ProtocolException("Decoded THeader payload too large: ${payload.size} bytes")
+            }
+        }
+        readBuffer.writeAll(payload)
+    }
+
+    override fun flush() {
+        if (writeBuffer.size == 0L) {
+            return
+        }
+
+        val transforms = if (mirrorTransforms) readTransformIds.map { transformFor(it) } else writeTransforms
+        var payload = writeBuffer
+        for (transform in transforms) {
+            payload = transform.encode(payload)
+        }
+
+        val header = Buffer()
+        header.writeVarint(protocolId)
+        header.writeVarint(transforms.size)
+        for (transform in transforms) {
+            header.writeVarint(transform.id)
+        }
+        if (writeHeaders.isNotEmpty()) {
+            header.writeVarint(INFO_KEYVALUE)
+            header.writeVarint(writeHeaders.size)
+            for ((key, value) in writeHeaders) {
+                header.writeVarString(key)
+                header.writeVarString(value)
+            }
+        }
+        while (header.size % 4 != 0L) {
+            header.writeByte(0)
+        }
+        if (header.size / 4 > 0xFFFF) {
+            throw ProtocolException("THeader too large: ${header.size} bytes")
+        }
+
+        val frameSize = FIXED_HEADER_SIZE + header.size + payload.size
+        if (frameSize > MAX_FRAME_SIZE) {
+            throw ProtocolException("THeader frame too large: $frameSize bytes")
+        }
+
+        val frame = Buffer()
+        frame.writeInt(frameSize.toInt())
+        frame.writeInt(HEADER_MAGIC or (flags and FLAGS_MASK))
+        frame.writeInt(seqId)
+        frame.writeShort((header.size / 4).toInt())
+        frame.writeAll(header)
+        frame.writeAll(payload)
+
+        frame.readUnsafe(cursor).use {
+            while (it.next() != -1) {
+                inner.write(it.data!!, it.start, it.end - it.start)
+            }
+        }
+        frame.clear()
+        writeBuffer.clear()
+        writeHeaders.clear()
+        inner.flush()
+    }
+
+    override fun close() {
+        inner.close()
+        readBuffer.clear()
+        writeBuffer.clear()
+        (transforms + writeTransforms).distinct().forEach { it.close() }
+    }
+
+    private fun transformFor(id: Int): HeaderTransform {
+        return transforms.firstOrNull { it.id == id }
+            ?: writeTransforms.firstOrNull { it.id == id }
+            ?: throw ProtocolException("Unsupported THeader transform: $id")
+    }
+
+    private fun readFully(sink: Buffer, byteCount: Long) {
+        var remaining = byteCount
+        while (remaining > 0) {
+            val n = inner.read(scratch, 0, remaining.coerceAtMost(scratch.size.toLong()).toInt())
+            if (n == -1) {
+                throw EOFException()
+            }
+            sink.write(scratch, 0, n)
+            remaining -= n
+        }
+    }
+
+    private fun readInfoHeaders(header: Buffer): Map<String, String> {
+        val result = mutableMapOf<String, String>()
+        // Anything other than a key-value block, including zero padding, ends the headers
+        while (!header.exhausted() && header[0] == INFO_KEYVALUE.toByte()) {
+            header.readByte()
+            val count = header.readVarint()
+            repeat(count) {
+                val key = header.readVarString()
+                result[key] = header.readVarString()
+            }
+        }
+        return result
+    }
+
+    private fun Buffer.readVarint(): Int {
+        var result = 0
+        var shift = 0
+        while (true) {
+            if (exhausted()) {
+                throw ProtocolException("Truncated THeader")
+            }
+            val b = readByte().toInt()
+            result = result or ((b and 0x7F) shl shift)
+            if (b and 0x80 == 0) {
+                return result
+            }
+            shift += 7
+            if (shift > 28) {
+                throw ProtocolException("Varint too long in THeader")
+            }
+        }
+    }
+
+    private fun Buffer.writeVarint(value: Int) {
+        var n = value
+        while (n and 0x7F.inv() != 0) {
+            writeByte((n and 0x7F) or 0x80)
+            n = n ushr 7
+        }
+        writeByte(n)
+    }
+
+    private fun Buffer.readVarString(): String {
+        val length = readVarint()
+        if (length < 0 || length > size) {
+            throw ProtocolException("Truncated THeader")
+        }
+        return readUtf8(length.toLong())
+    }
+
+    private fun Buffer.writeVarString(value: String) {
+        writeVarint(value.utf8Size().toInt())
+        writeUtf8(value)
+    }
+
+    companion object {
+        /** The protocol ID of [BinaryProtocol][jp.co.gahojin.thrifty.protocol.BinaryProtocol] payloads. */
+        const val BINARY_PROTOCOL_ID = 0
+
+        /** The protocol ID of [CompactProtocol][jp.co.gahojin.thrifty.protocol.CompactProtocol] payloads. */
+        const val COMPACT_PROTOCOL_ID = 2
+
+        /** The transform ID of zlib compression. */
+        const val ZLIB_TRANSFORM_ID = 1
+
+        /** The largest frame allowed by the THeader format. */
+        const val MAX_FRAME_SIZE = 0x3FFFFFFF
+
+        private const val HEADER_MAGIC = 0x0FFF0000
+        private const val HEADER_MASK = -0x10000
+        private const val FLAGS_MASK = 0xFFFF
+        private const val INFO_KEYVALUE = 1
+
+        // magic and flags, sequence ID, and header size
+        private const val FIXED_HEADER_SIZE = 10
+    }
+}
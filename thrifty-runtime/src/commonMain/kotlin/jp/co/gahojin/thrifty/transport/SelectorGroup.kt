@@ -0,0 +1,71 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import io.ktor.network.selector.SelectorManager
+import kotlinx.atomicfu.atomic
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.IO
+import okio.Closeable
+import kotlin.coroutines.CoroutineContext
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A fixed set of selectors shared by many [SocketTransport]s, so that the
+ * number of selector threads stays constant as connections are added.
+ * Connections are spread across the selectors round-robin.
+ *
+ * Closing the group closes its selectors; transports using them must be
+ * closed first.
+ *
+ * This class is threadsafe.
+ *
+ * @param size
+ *      The number of selectors, by default one per core.
+ * @param context
+ */
+class SelectorGroup @JvmOverloads constructor(
+    size: Int = availableProcessors(),
+    context: CoroutineContext = Dispatchers.IO,
+) : Closeable {
+    private val selectors = List(size.coerceAtLeast(1)) { SelectorManager(context) }
+    private val next = atomic(0)
+
+    /**
+     * The number of selectors in this group.
+     */
+    val size: Int
+        get() = selectors.size
+
+    /**
+     * Returns the selector for the next connection.
+     */
+    fun next(): SelectorManager {
+        return selectors[(next.getAndIncrement() and Int.MAX_VALUE) % selectors.size]
+    }
+
+    override fun close() {
+        selectors.forEach { it.close() }
+    }
+}
+
+internal expect fun availableProcessors(): Int
@@ -31,18 +31,29 @@ import kotlinx.coroutines.runBlocking
 import kotlin.coroutines.CoroutineContext
 import kotlin.jvm.JvmOverloads
 
-class SocketTransport @JvmOverloads constructor(
+class SocketTransport internal constructor(
     private val host: String,
     private val port: Int,
-    private val enableTls: Boolean = false,
-    private val context: CoroutineContext = Dispatchers.IO,
-    private val socketOptions: SocketOptions.TCPClientSocketOptions.() -> Unit = {
-        keepAlive = true
-        noDelay = true
-        reuseAddress = false
-        reusePort = false
-    },
+    private val enableTls: Boolean,
+    private val context: CoroutineContext,
+    private val socketOptions: SocketOptions.TCPClientSocketOptions.() -> Unit,
+    // Set through Builder.selectorGroup, keeping the public constructor unchanged
+    private val selectorGroup: SelectorGroup?,
 ) : Transport {
+    @JvmOverloads
+    constructor(
+        host: String,
+        port: Int,
+        enableTls: Boolean = false,
+        context: CoroutineContext = Dispatchers.IO,
+        socketOptions: SocketOptions.TCPClientSocketOptions.() -> Unit = {
+            keepAlive = true
+            noDelay = true
+            reuseAddress = false
+            reusePort = false
+        },
+    ) : this(host, port, enableTls, context, socketOptions, null)
+
     private lateinit var selectorManager: SelectorManager
     private lateinit var socket: Socket
     private lateinit var readChannel: ByteReadChannel
@@ -50,12 +61,7 @@ class SocketTransport @JvmOverloads constructor(
 
     override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
         return runBlocking {
-            readChannel.readFully(
-                out = buffer,
-                start = offset,
-                end = offset + count,
-            )
-            count
+            readChannel.readAvailable(buffer, offset, count)
         }
     }
 
@@ -83,7 +89,7 @@ class SocketTransport @JvmOverloads constructor(
 
     fun connect() {
         runBlocking {
-            selectorManager = SelectorManager(context)
+            selectorManager = selectorGroup?.next() ?: SelectorManager(context)
             socket = aSocket(selectorManager).tcp().connect(host, port, socketOptions)
 
             if (enableTls) {
@@ -97,7 +103,10 @@ class SocketTransport @JvmOverloads constructor(
     override fun close() {
         writeChannel.close(null)
         socket.close()
-        selectorManager.close()
+        // A shared selector belongs to its group
+        if (selectorGroup == null) {
+            selectorManager.close()
+        }
     }
 
     class Builder(
@@ -106,6 +115,7 @@ class SocketTransport @JvmOverloads constructor(
     ) {
         private var readTimeout: Long = Long.MAX_VALUE
         private var enableTls: Boolean = false
+        private var selectorGroup: SelectorGroup? = null
 
         fun readTimeout(value: Long): Builder = apply {
             readTimeout = value
@@ -115,12 +125,22 @@ class SocketTransport @JvmOverloads constructor(
             enableTls = value
         }
 
-        fun build() = SocketTransport(host, port, enableTls) {
-            keepAlive = true
-            noDelay = true
-            reuseAddress = false
-            reusePort = true
-            socketTimeout = this@Builder.readTimeout
+        /**
+         * Shares the selectors of [group] instead of giving the transport its own.
+         */
+        fun selectorGroup(group: SelectorGroup): Builder = apply {
+            selectorGroup = group
+        }
+
+        fun build(): SocketTransport {
+            val socketOptions: SocketOptions.TCPClientSocketOptions.() -> Unit = {
+                keepAlive = true
+                noDelay = true
+                reuseAddress = false
+                reusePort = true
+                socketTimeout = this@Builder.readTimeout
+            }
+            return SocketTransport(host, port, enableTls, Dispatchers.IO, socketOptions, selectorGroup)
         }
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.IO
+import okio.Closeable
+import okio.IOException
+import kotlin.coroutines.CoroutineContext
+import kotlin.jvm.JvmOverloads
+
+/**
+ * Creates [SocketTransport]s that share one [SelectorGroup], owned by this
+ * factory.  Closing the factory closes the group, so every transport it
+ * created must be closed first.
+ *
+ * This class is threadsafe.
+ *
+ * @param selectorCount
+ *      The number of shared selectors, by default one per core.
+ * @param context
+ */
+class SocketTransportFactory @JvmOverloads constructor(
+    selectorCount: Int = availableProcessors(),
+    context: CoroutineContext = Dispatchers.IO,
+) : Closeable {
+    /**
+     * The selectors shared by this factory's transports.
+     */
+    val selectorGroup = SelectorGroup(selectorCount, context)
+
+    /**
+     * Returns a builder for a transport to [host]:[port] that uses this
+     * factory's selectors.
+     */
+    fun builder(host: String, port: Int): SocketTransport.Builder {
+        return SocketTransport.Builder(host, port).selectorGroup(selectorGroup)
+    }
+
+    /**
+     * Creates and connects a transport to [host]:[port].
+     */
+    @Throws(IOException::class)
+    fun connect(host: String, port: Int): SocketTransport {
+        return builder(host, port).build().also { it.connect() }
+    }
+
+    override fun close() = selectorGroup.close()
+}
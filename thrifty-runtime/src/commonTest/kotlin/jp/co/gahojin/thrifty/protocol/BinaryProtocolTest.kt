@@ -31,6 +31,7 @@ import okio.Buffer
 import okio.ByteString
 import okio.ByteString.Companion.decodeHex
 import okio.ByteString.Companion.encodeUtf8
+import okio.ByteString.Companion.toByteString
 import okio.IOException
 import okio.ProtocolException
 import kotlin.math.PI
@@ -68,6 +69,15 @@ class BinaryProtocolTest {
         proto.readBinary() shouldBe "abcd".encodeUtf8()
     }
 
+    @Test
+    fun largeBinaryRoundTrip() {
+        val blob = ByteArray(100_000) { it.toByte() }.toByteString()
+        val transport = CountingTransport()
+        BinaryProtocol(transport).writeBinary(blob)
+        BinaryProtocol(transport).readBinary() shouldBe blob
+        transport.buffer.size shouldBe 0L
+    }
+
     @Test
     fun readBinaryGreaterThanLimit() {
         val buffer = Buffer()
@@ -210,6 +220,15 @@ class BinaryProtocolTest {
         buffer.readUtf8() shouldBe "here is a string"
     }
 
+    @Test
+    fun writeMultiByteString() {
+        val buffer = Buffer()
+        val proto = BinaryProtocol(BufferTransport(buffer))
+        proto.writeString("\u00e9t\u00e9 \u2713 \ud83d\ude00")
+        buffer.readInt() shouldBe 14
+        buffer.readUtf8() shouldBe "\u00e9t\u00e9 \u2713 \ud83d\ude00"
+    }
+
     @Test
     fun writeMessage() {
         val buffer = Buffer()
@@ -244,6 +263,161 @@ class BinaryProtocolTest {
         buffer.readInt() shouldBe 1
     }
 
+    @Test
+    fun writeBufferHoldsOutputUntilFlush() {
+        val transport = CountingTransport()
+        val proto = BinaryProtocol(transport, writeBufferSize = 64)
+        proto.writeI32(1)
+        proto.writeI64(2L)
+        proto.writeString("three")
+        transport.writes shouldBe 0
+        transport.buffer.size shouldBe 0L
+
+        proto.flush()
+        transport.writes shouldBe 1
+        transport.flushes shouldBe 1
+        transport.buffer.readInt() shouldBe 1
+        transport.buffer.readLong() shouldBe 2L
+        transport.buffer.readInt() shouldBe 5
+        transport.buffer.readUtf8() shouldBe "three"
+    }
+
+    @Test
+    fun writeBufferDrainsWhenFull() {
+        val transport = CountingTransport()
+        val proto = BinaryProtocol(transport, writeBufferSize = 8)
+        proto.writeI32(1)
+        transport.writes shouldBe 0
+        proto.writeI32(2)
+        transport.writes shouldBe 1
+        transport.buffer.size shouldBe 8L
+    }
+
+    @Test
+    fun unbufferedWritesGoStraightToTransport() {
+        val transport = CountingTransport()
+        val proto = BinaryProtocol(transport)
+        proto.writeI32(1)
+        transport.writes shouldBe 1
+        transport.buffer.readInt() shouldBe 1
+    }
+
+    @Test
+    fun readBufferFillsFromTransportInBulk() {
+        val transport = CountingTransport()
+        transport.buffer.writeInt(1)
+        transport.buffer.writeLong(2L)
+        transport.buffer.writeInt(5)
+        transport.buffer.writeUtf8("three")
+        val proto = BinaryProtocol(transport, readBufferSize = 64)
+        proto.readI32() shouldBe 1
+        proto.readI64() shouldBe 2L
+        proto.readString() shouldBe "three"
+        transport.reads shouldBe 1
+    }
+
+    @Test
+    fun unbufferedReadsDoNotReadAhead() {
+        val transport = CountingTransport()
+        transport.buffer.writeInt(1)
+        transport.buffer.writeInt(2)
+        val proto = BinaryProtocol(transport)
+        proto.readI32() shouldBe 1
+        transport.buffer.size shouldBe 4L
+    }
+
+    @Test
+    fun skipConsumesReadBufferBeforeTransport() {
+        val transport = CountingTransport()
+        transport.buffer.writeInt(1)
+        transport.buffer.writeInt(96)
+        transport.buffer.write(ByteArray(96))
+        transport.buffer.writeInt(2)
+        val proto = BinaryProtocol(transport, readBufferSize = 16)
+        proto.readI32() shouldBe 1
+        proto.skipString()
+        proto.readI32() shouldBe 2
+        transport.buffer.size shouldBe 0L
+    }
+
+    @Test
+    fun readContainerHeaders() {
+        val buffer = Buffer()
+        val writer = BinaryProtocol(BufferTransport(buffer))
+        writer.writeListBegin(TType.I64, 3)
+        writer.writeMapBegin(TType.STRING, TType.LIST, 70000)
+
+        val proto = BinaryProtocol(BufferTransport(buffer))
+        val list = proto.readListHeader()
+        ContainerHeader.elementTypeId(list) shouldBe TType.I64
+        ContainerHeader.size(list) shouldBe 3
+
+        val map = proto.readMapHeader()
+        ContainerHeader.keyTypeId(map) shouldBe TType.STRING
+        ContainerHeader.valueTypeId(map) shouldBe TType.LIST
+        ContainerHeader.size(map) shouldBe 70000
+    }
+
+    @Test
+    fun readContainerHeaderGreaterThanLimit() {
+        val buffer = Buffer()
+        buffer.writeByte(TType.I32.toInt())
+        buffer.writeInt(13)
+        val proto = BinaryProtocol(BufferTransport(buffer), containerLengthLimit = 12)
+        shouldThrow<ProtocolException> {
+            proto.readSetHeader()
+        } should {
+            it.message should contain("Container size limit exceeded")
+        }
+    }
+
+    @Test
+    fun skipFixedSizeListInOneTransportSkip() {
+        val transport = CountingTransport()
+        val writer = BinaryProtocol(BufferTransport(transport.buffer))
+        writer.writeListBegin(TType.I64, 100_000)
+        for (i in 0..<100_000) {
+            writer.writeI64(i.toLong())
+        }
+        writer.writeI32(42)
+
+        val proto = BinaryProtocol(transport)
+        proto.skip(TType.LIST)
+        transport.skips shouldBe 1
+        proto.readI32() shouldBe 42
+    }
+
+    @Test
+    fun skipFixedSizeMapInOneTransportSkip() {
+        val transport = CountingTransport()
+        val writer = BinaryProtocol(BufferTransport(transport.buffer))
+        writer.writeMapBegin(TType.I32, TType.DOUBLE, 1000)
+        for (i in 0..<1000) {
+            writer.writeI32(i)
+            writer.writeDouble(i.toDouble())
+        }
+        writer.writeI32(42)
+
+        val proto = BinaryProtocol(transport)
+        proto.skip(TType.MAP)
+        transport.skips shouldBe 1
+        proto.readI32() shouldBe 42
+    }
+
+    @Test
+    fun skipVariableSizeList() {
+        val buffer = Buffer()
+        val writer = BinaryProtocol(BufferTransport(buffer))
+        writer.writeListBegin(TType.STRING, 2)
+        writer.writeString("foo")
+        writer.writeString("barbaz")
+        writer.writeI32(42)
+
+        val proto = BinaryProtocol(BufferTransport(buffer))
+        proto.skip(TType.LIST)
+        proto.readI32() shouldBe 42
+    }
+
     @Test
     fun adapterTest() {
         // This test case comes from actual data, and is intended
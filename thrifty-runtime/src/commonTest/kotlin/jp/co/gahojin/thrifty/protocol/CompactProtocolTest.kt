@@ -22,6 +22,7 @@
 package jp.co.gahojin.thrifty.protocol
 
 import io.kotest.matchers.shouldBe
+import jp.co.gahojin.thrifty.TType
 import jp.co.gahojin.thrifty.transport.BufferTransport
 import okio.Buffer
 import okio.IOException
@@ -76,6 +77,123 @@ class CompactProtocolTest {
         buffer.readByteArray() shouldBe byteArrayOf(253.toByte(), 255.toByte(), 255.toByte(), 15)
     }
 
+    @Test
+    @Throws(IOException::class)
+    fun writeBufferHoldsOutputUntilFlush() {
+        val transport = CountingTransport()
+        val protocol = CompactProtocol(transport, writeBufferSize = 64)
+        protocol.writeI32(150)
+        protocol.writeDouble(PI)
+        transport.writes shouldBe 0
+
+        protocol.flush()
+        transport.writes shouldBe 1
+        transport.buffer.readByteArray(2) shouldBe byteArrayOf(172.toByte(), 2)
+        transport.buffer.readLongLe() shouldBe PI.toRawBits()
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun readBufferDecodesVarintsFromMemory() {
+        val transport = CountingTransport()
+        val writer = CompactProtocol(BufferTransport(transport.buffer))
+        for (i in 0..<100) {
+            writer.writeI64(i * 1_000_000_007L)
+        }
+        val protocol = CompactProtocol(transport, readBufferSize = 4096)
+        for (i in 0..<100) {
+            protocol.readI64() shouldBe i * 1_000_000_007L
+        }
+        transport.reads shouldBe 1
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun writeMultiByteString() {
+        val buffer = Buffer()
+        val protocol = CompactProtocol(BufferTransport(buffer))
+        protocol.writeString("\u00e9t\u00e9 \u2713 \ud83d\ude00")
+        buffer.readByte() shouldBe 14.toByte()
+        buffer.readUtf8() shouldBe "\u00e9t\u00e9 \u2713 \ud83d\ude00"
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun readFieldHeader() {
+        val buffer = Buffer()
+        val writer = CompactProtocol(BufferTransport(buffer))
+        writer.writeStructBegin("s")
+        writer.writeFieldBegin("a", 1, TType.I32)
+        writer.writeI32(7)
+        writer.writeFieldBegin("b", 300, TType.BOOL)
+        writer.writeBool(true)
+        writer.writeFieldStop()
+
+        val protocol = CompactProtocol(BufferTransport(buffer))
+        protocol.readStructBegin()
+        var header = protocol.readFieldHeader()
+        FieldHeader.typeId(header) shouldBe TType.I32
+        FieldHeader.fieldId(header) shouldBe 1.toShort()
+        protocol.readI32() shouldBe 7
+
+        header = protocol.readFieldHeader()
+        FieldHeader.typeId(header) shouldBe TType.BOOL
+        FieldHeader.fieldId(header) shouldBe 300.toShort()
+        protocol.readBool() shouldBe true
+
+        FieldHeader.typeId(protocol.readFieldHeader()) shouldBe TType.STOP
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun skipVarintList() {
+        val transport = CountingTransport()
+        val writer = CompactProtocol(BufferTransport(transport.buffer))
+        writer.writeListBegin(TType.I64, 1000)
+        for (i in 0..<1000) {
+            writer.writeI64(i * 1_000_000_007L - 500_000_000_000L)
+        }
+        writer.writeI32(42)
+
+        val protocol = CompactProtocol(transport, readBufferSize = 64)
+        protocol.skip(TType.LIST)
+        protocol.readI32() shouldBe 42
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun skipVarintMap() {
+        val buffer = Buffer()
+        val writer = CompactProtocol(BufferTransport(buffer))
+        writer.writeMapBegin(TType.I16, TType.I32, 300)
+        for (i in 0..<300) {
+            writer.writeI16(i.toShort())
+            writer.writeI32(-i * 100_000)
+        }
+        writer.writeI32(42)
+
+        val protocol = CompactProtocol(BufferTransport(buffer))
+        protocol.skip(TType.MAP)
+        protocol.readI32() shouldBe 42
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun skipSingleVarints() {
+        val buffer = Buffer()
+        val writer = CompactProtocol(BufferTransport(buffer))
+        writer.writeI16(-300)
+        writer.writeI32(Int.MIN_VALUE)
+        writer.writeI64(Long.MAX_VALUE)
+        writer.writeI32(42)
+
+        val protocol = CompactProtocol(BufferTransport(buffer))
+        protocol.skipI16()
+        protocol.skipI32()
+        protocol.skipI64()
+        protocol.readI32() shouldBe 42
+    }
+
     @Test
     @Throws(Exception::class)
     fun roundtrip() {
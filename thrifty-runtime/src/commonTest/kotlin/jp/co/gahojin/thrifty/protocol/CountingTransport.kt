@@ -0,0 +1,59 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.protocol
+
+import jp.co.gahojin.thrifty.transport.Transport
+import okio.Buffer
+
+/**
+ * A [Buffer]-backed transport that counts calls into it, so tests can tell
+ * buffered protocol I/O apart from write-through I/O.
+ */
+internal class CountingTransport(
+    val buffer: Buffer = Buffer(),
+) : Transport {
+    var reads = 0
+    var writes = 0
+    var flushes = 0
+    var skips = 0
+
+    override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
+        reads++
+        return this.buffer.read(buffer, offset, count)
+    }
+
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        writes++
+        this.buffer.write(buffer, offset, count)
+    }
+
+    override fun flush() {
+        flushes++
+    }
+
+    override fun skip(count: Long) {
+        skips++
+        buffer.skip(count)
+    }
+
+    override fun close() = buffer.close()
+}
@@ -51,6 +51,22 @@ class JsonProtocolTest {
         buffer.readUtf8() shouldBe "\"\\\"\"" // or, in other words, "\""
     }
 
+    @Test
+    fun escapesOtherControlChars() {
+        protocol.writeString("a\u0001b\u001f\\/\u00e9")
+        buffer.readUtf8() shouldBe "\"a\\u0001b\\u001f\\\\/\u00e9\""
+    }
+
+    @Test
+    fun doublesMatchToString() {
+        protocol.writeListBegin(TType.DOUBLE, 6)
+        for (d in doubleArrayOf(2.0, -0.0, 9999999.0, 1.0E7, 0.5, Double.NaN)) {
+            protocol.writeDouble(d)
+        }
+        protocol.writeListEnd()
+        buffer.readUtf8() shouldBe "[\"dbl\",6,2.0,-0.0,9999999.0,1.0E7,0.5,\"NaN\"]"
+    }
+
     @Test
     fun normalStringIsQuoted() {
         protocol.writeString("y u no quote me?")
@@ -165,4 +181,23 @@ class JsonProtocolTest {
         Xtruct.ADAPTER.write(proto, xtruct)
         Xtruct.ADAPTER.read(JsonProtocol(transport)) shouldBe xtruct
     }
+
+    @Test
+    fun readsEscapedStrings() {
+        buffer.writeUtf8("\"a\\\"b\\n\\u00e9\\ud83d\\ude00\"")
+        protocol.readString() shouldBe "a\"b\n\u00e9\ud83d\ude00"
+    }
+
+    @Test
+    fun readBufferFillsFromTransportInBulk() {
+        val xtruct = Xtruct.Builder()
+            .string_thing("x".repeat(1000))
+            .i64_thing(-1234567890123L)
+            .double_thing(PI)
+            .build()
+        val transport = CountingTransport()
+        Xtruct.ADAPTER.write(JsonProtocol(BufferTransport(transport.buffer)), xtruct)
+        Xtruct.ADAPTER.read(JsonProtocol(transport, readBufferSize = 4096)) shouldBe xtruct
+        transport.reads shouldBe 1
+    }
 }
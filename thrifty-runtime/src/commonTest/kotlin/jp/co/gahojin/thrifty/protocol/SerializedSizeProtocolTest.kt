@@ -0,0 +1,136 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.protocol
+
+import io.kotest.matchers.shouldBe
+import jp.co.gahojin.thrifty.TType
+import jp.co.gahojin.thrifty.transport.BufferTransport
+import okio.Buffer
+import okio.ByteString.Companion.encodeUtf8
+import kotlin.math.PI
+import kotlin.test.Test
+
+class SerializedSizeProtocolTest {
+    private val xtruct = Xtruct.Builder()
+        .byte_thing(254.toByte())
+        .i32_thing(-0xFFFF)
+        .i64_thing(0xFFFFFFFFFFL)
+        .string_thing("foo é😀")
+        .double_thing(PI)
+        .bool_thing(true)
+        .build()
+
+    @Test
+    fun binaryStruct() {
+        val buffer = Buffer()
+        Xtruct.ADAPTER.write(BinaryProtocol(BufferTransport(buffer)), xtruct)
+
+        val protocol = SerializedSizeProtocol(ProtocolKind.BINARY)
+        Xtruct.ADAPTER.write(protocol, xtruct)
+        protocol.size shouldBe buffer.size
+    }
+
+    @Test
+    fun compactStruct() {
+        val buffer = Buffer()
+        Xtruct.ADAPTER.write(CompactProtocol(BufferTransport(buffer)), xtruct)
+
+        val protocol = SerializedSizeProtocol(ProtocolKind.COMPACT)
+        Xtruct.ADAPTER.write(protocol, xtruct)
+        protocol.size shouldBe buffer.size
+    }
+
+    @Test
+    fun messageHeaders() {
+        for (strictWrite in listOf(false, true)) {
+            val buffer = Buffer()
+            BinaryProtocol(BufferTransport(buffer), strictWrite = strictWrite).writeMessageBegin("ping", TType.CALL, 300)
+
+            val protocol = SerializedSizeProtocol(ProtocolKind.BINARY, strictWrite)
+            protocol.writeMessageBegin("ping", TType.CALL, 300)
+            protocol.size shouldBe buffer.size
+        }
+
+        val buffer = Buffer()
+        CompactProtocol(BufferTransport(buffer)).writeMessageBegin("ping", TType.CALL, 300)
+
+        val protocol = SerializedSizeProtocol(ProtocolKind.COMPACT)
+        protocol.writeMessageBegin("ping", TType.CALL, 300)
+        protocol.size shouldBe buffer.size
+    }
+
+    @Test
+    fun compactContainersAndFieldGaps() {
+        val buffer = Buffer()
+        val writer = CompactProtocol(BufferTransport(buffer))
+        val protocol = SerializedSizeProtocol(ProtocolKind.COMPACT)
+        for (p in listOf(writer, protocol)) {
+            p.writeStructBegin("")
+            p.writeFieldBegin("", 1, TType.LIST)
+            p.writeListBegin(TType.I64, 20)
+            for (i in 0 until 20) {
+                p.writeI64(Long.MIN_VALUE + i)
+            }
+            p.writeListEnd()
+            p.writeFieldEnd()
+            p.writeFieldBegin("", 100, TType.MAP)
+            p.writeMapBegin(TType.I16, TType.STRING, 1)
+            p.writeI16(-1)
+            p.writeBinary("bar".encodeUtf8())
+            p.writeMapEnd()
+            p.writeFieldEnd()
+            p.writeFieldBegin("", 101, TType.MAP)
+            p.writeMapBegin(TType.I16, TType.STRING, 0)
+            p.writeMapEnd()
+            p.writeFieldEnd()
+            p.writeFieldBegin("", 2, TType.BOOL)
+            p.writeBool(false)
+            p.writeFieldEnd()
+            p.writeFieldStop()
+            p.writeStructEnd()
+        }
+        protocol.size shouldBe buffer.size
+    }
+
+    @Test
+    fun resetClearsSize() {
+        val protocol = SerializedSizeProtocol(ProtocolKind.COMPACT)
+        Xtruct.ADAPTER.write(protocol, xtruct)
+        val size = protocol.size
+
+        protocol.reset()
+        protocol.size shouldBe 0L
+        Xtruct.ADAPTER.write(protocol, xtruct)
+        protocol.size shouldBe size
+    }
+
+    @Test
+    fun varintWidths() {
+        SerializedSize.varint32(0) shouldBe 1
+        SerializedSize.varint32(127) shouldBe 1
+        SerializedSize.varint32(128) shouldBe 2
+        SerializedSize.varint32(-1) shouldBe 5
+        SerializedSize.varint64(-1L) shouldBe 10
+        SerializedSize.zigZag32(-64) shouldBe 1
+        SerializedSize.zigZag32(64) shouldBe 2
+    }
+}
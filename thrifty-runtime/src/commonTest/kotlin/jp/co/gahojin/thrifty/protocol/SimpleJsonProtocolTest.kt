@@ -162,4 +162,26 @@ class SimpleJsonProtocolTest {
         protocol.writeString("测试")
         buffer.readUtf8() shouldBe "\"测试\""
     }
+
+    @Test
+    fun supplementaryCharacters() {
+        protocol.writeString("a\ud83d\ude00\u0001")
+        buffer.readUtf8() shouldBe "\"a\ud83d\ude00\\u0001\""
+    }
+
+    @Test
+    fun writeBufferHoldsOutputUntilFlush() {
+        val transport = CountingTransport()
+        val protocol = SimpleJsonProtocol(transport, writeBufferSize = 4096)
+        protocol.writeListBegin(TType.I64, 3)
+        protocol.writeI64(Long.MIN_VALUE)
+        protocol.writeI16(-7)
+        protocol.writeBool(true)
+        protocol.writeListEnd()
+        transport.writes shouldBe 0
+
+        protocol.flush()
+        transport.writes shouldBe 1
+        transport.buffer.readUtf8() shouldBe "[-9223372036854775808,-7,true]"
+    }
 }
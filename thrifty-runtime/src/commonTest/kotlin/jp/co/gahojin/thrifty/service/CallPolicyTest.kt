@@ -0,0 +1,176 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.service
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import jp.co.gahojin.thrifty.ThriftException
+import kotlinx.atomicfu.atomic
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.withContext
+import okio.Closeable
+import okio.IOException
+import kotlin.test.Test
+
+class CallPolicyTest {
+    private class FakeClient : Closeable {
+        override fun close() {
+        }
+    }
+
+    private val pool = ClientPool.Builder { FakeClient() }.build()
+
+    @Test
+    fun idempotentCallsAreRetried() = runTest {
+        val policy = CallPolicy.Builder(pool)
+            .idempotentMethods(setOf("get"))
+            .build()
+        val attempts = atomic(0)
+
+        val result = policy.call("get") {
+            if (attempts.incrementAndGet() == 1) {
+                throw IOException("connection reset")
+            }
+            "ok"
+        }
+
+        result shouldBe "ok"
+        attempts.value shouldBe 2
+    }
+
+    @Test
+    fun callsAreRetriedOverALoadBalancer() = runTest {
+        val balancer = LoadBalancer.Builder(listOf("a", "b")) { FakeClient() }.build()
+        val policy = CallPolicy.Builder(balancer)
+            .idempotentMethods(setOf("get"))
+            .build()
+        val attempts = atomic(0)
+
+        val result = policy.call("get") {
+            if (attempts.incrementAndGet() == 1) {
+                throw IOException("connection reset")
+            }
+            "ok"
+        }
+
+        result shouldBe "ok"
+        attempts.value shouldBe 2
+        policy.close()
+        balancer.close()
+    }
+
+    @Test
+    fun otherCallsAreNotRetried() = runTest {
+        val policy = CallPolicy.Builder(pool)
+            .idempotentMethods(setOf("get"))
+            .build()
+        val attempts = atomic(0)
+
+        shouldThrow<IOException> {
+            policy.call("put") {
+                attempts.incrementAndGet()
+                throw IOException("connection reset")
+            }
+        }
+        attempts.value shouldBe 1
+    }
+
+    @Test
+    fun timeoutsAreRetriedUpToMaxAttempts() = runTest {
+        val policy = CallPolicy.Builder(pool)
+            .idempotentMethods(setOf("get"))
+            .maxAttempts(3)
+            .build()
+        val attempts = atomic(0)
+
+        shouldThrow<ThriftException> {
+            policy.call("get") {
+                attempts.incrementAndGet()
+                throw ThriftException(ThriftException.Kind.TIMED_OUT, "timed out")
+            }
+        }
+        attempts.value shouldBe 3
+    }
+
+    @Test
+    fun retriesStopWhenTheBudgetIsSpent() = runTest {
+        val policy = CallPolicy.Builder(pool)
+            .idempotentMethods(setOf("get"))
+            .budget(RetryBudget(ratio = 0.0, minPerSecond = 0))
+            .build()
+        val attempts = atomic(0)
+
+        shouldThrow<IOException> {
+            policy.call("get") {
+                attempts.incrementAndGet()
+                throw IOException("connection reset")
+            }
+        }
+        attempts.value shouldBe 1
+    }
+
+    @Test
+    fun slowCallsAreHedged() = runTest {
+        val policy = CallPolicy.Builder(pool)
+            .idempotentMethods(setOf("get"))
+            .hedgeDelay(10)
+            .build()
+        val attempts = atomic(0)
+        val never = CompletableDeferred<String>()
+
+        val result = policy.call("get") {
+            if (attempts.incrementAndGet() == 1) never.await() else "hedged"
+        }
+
+        result shouldBe "hedged"
+        attempts.value shouldBe 2
+        policy.close()
+    }
+
+    @Test
+    fun hedgedAttemptsKeepTheCallTimeout() = runTest {
+        val policy = CallPolicy.Builder(pool)
+            .idempotentMethods(setOf("get"))
+            .hedgeDelay(10)
+            .build()
+
+        val timeout = withContext(CallTimeout(50)) {
+            policy.call("get") { currentCoroutineContext()[CallTimeout]?.millis }
+        }
+
+        timeout shouldBe 50L
+        policy.close()
+    }
+
+    @Test
+    fun budgetEarnsRetriesFromCalls() {
+        val budget = RetryBudget(ratio = 0.5, minPerSecond = 0)
+        budget.tryWithdraw() shouldBe false
+
+        budget.deposit()
+        budget.deposit()
+        budget.tryWithdraw() shouldBe true
+        budget.tryWithdraw() shouldBe false
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.service
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import kotlinx.coroutines.async
+import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.yield
+import okio.Closeable
+import okio.IOException
+import kotlin.test.Test
+
+class ClientPoolTest {
+    private class FakeClient : Closeable {
+        var healthy = true
+        var closed = false
+
+        override fun close() {
+            closed = true
+        }
+    }
+
+    private class FatalError : Error("boom")
+
+    @Test
+    fun releasedClientsAreReused() = runTest {
+        val pool = ClientPool.Builder { FakeClient() }.build()
+        val first = pool.borrow()
+        pool.release(first)
+        val second = pool.borrow()
+
+        (first === second) shouldBe true
+        pool.metrics.created shouldBe 1L
+        pool.metrics.borrowed shouldBe 2L
+        pool.metrics.active shouldBe 1
+    }
+
+    @Test
+    fun borrowWaitsAtMaxSize() = runTest {
+        val pool = ClientPool.Builder { FakeClient() }.maxSize(1).build()
+        val first = pool.borrow()
+        val waiting = async { pool.borrow() }
+        yield()
+        waiting.isCompleted shouldBe false
+
+        pool.release(first)
+        (waiting.await() === first) shouldBe true
+        pool.metrics.created shouldBe 1L
+    }
+
+    @Test
+    fun unhealthyClientsAreReplaced() = runTest {
+        val pool = ClientPool.Builder { FakeClient() }.healthCheck { it.healthy }.build()
+        val first = pool.borrow()
+        first.healthy = false
+        pool.release(first)
+
+        val second = pool.borrow()
+        (first === second) shouldBe false
+        first.closed shouldBe true
+        pool.metrics.failedHealthChecks shouldBe 1L
+        pool.metrics.destroyed shouldBe 1L
+    }
+
+    @Test
+    fun idleClientsAboveMinSizeAreEvicted() = runTest {
+        val pool = ClientPool.Builder { FakeClient() }.minSize(1).maxIdleTime(0).build()
+        val first = pool.borrow()
+        val second = pool.borrow()
+        pool.release(first)
+        pool.release(second)
+
+        pool.metrics.evicted shouldBe 1L
+        pool.metrics.idle shouldBe 1
+        first.closed shouldBe true
+    }
+
+    @Test
+    fun fillCreatesMinSize() {
+        val pool = ClientPool.Builder { FakeClient() }.minSize(3).build()
+        pool.fill()
+        pool.metrics.idle shouldBe 3
+        pool.metrics.created shouldBe 3L
+    }
+
+    @Test
+    fun failedCallsInvalidateTheClient() = runTest {
+        val pool = ClientPool.Builder { FakeClient() }.build()
+        var used: FakeClient? = null
+        shouldThrow<IOException> {
+            pool.withClient {
+                used = it
+                throw IOException("connection reset")
+            }
+        }
+        used?.closed shouldBe true
+        pool.metrics.idle shouldBe 0
+        pool.metrics.active shouldBe 0
+    }
+
+    @Test
+    fun errorsInvalidateTheClient() = runTest {
+        val pool = ClientPool.Builder { FakeClient() }.maxSize(1).build()
+        shouldThrow<FatalError> {
+            pool.withClient { throw FatalError() }
+        }
+        pool.metrics.active shouldBe 0
+        pool.metrics.destroyed shouldBe 1L
+
+        // The permit was given back
+        pool.withClient { it.closed } shouldBe false
+    }
+
+    @Test
+    fun failingHealthChecksDestroyTheClient() = runTest {
+        val pool = ClientPool.Builder { FakeClient() }
+            .maxSize(1)
+            .healthCheck { throw IOException("ping failed") }
+            .build()
+        val first = pool.borrow()
+        pool.release(first)
+
+        shouldThrow<IOException> { pool.borrow() }
+        first.closed shouldBe true
+        pool.metrics.active shouldBe 0
+        pool.metrics.idle shouldBe 0
+    }
+
+    @Test
+    fun closeClosesIdleClients() = runTest {
+        val pool = ClientPool.Builder { FakeClient() }.build()
+        val first = pool.borrow()
+        val second = pool.borrow()
+        pool.release(first)
+        pool.close()
+
+        first.closed shouldBe true
+        second.closed shouldBe false
+        pool.release(second)
+        second.closed shouldBe true
+        shouldThrow<IllegalStateException> { pool.borrow() }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.service
+
+import io.kotest.matchers.shouldBe
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.yield
+import okio.Closeable
+import okio.IOException
+import kotlin.test.Test
+
+class LoadBalancerTest {
+    private class FakeClient(val endpoint: String) : Closeable {
+        override fun close() {
+        }
+    }
+
+    private val down = mutableSetOf<String>()
+
+    private fun connect(endpoint: String): FakeClient {
+        if (endpoint in down) {
+            throw IOException("connection refused: $endpoint")
+        }
+        return FakeClient(endpoint)
+    }
+
+    @Test
+    fun callsGoToTheLessBusyEndpoint() = runTest {
+        val balancer = LoadBalancer.Builder(listOf("a", "b"), ::connect).build()
+        val gate = CompletableDeferred<Unit>()
+        val busy = async {
+            balancer.call {
+                gate.await()
+                it.endpoint
+            }
+        }
+        yield()
+
+        val other = balancer.call { it.endpoint }
+        gate.complete(Unit)
+        (other == busy.await()) shouldBe false
+    }
+
+    @Test
+    fun unreachableEndpointsAreEjected() = runTest {
+        down += "b"
+        val balancer = LoadBalancer.Builder(listOf("a", "b"), ::connect)
+            .maxFailures(1)
+            .build()
+
+        val gate = CompletableDeferred<Unit>()
+        val busy = async {
+            balancer.call {
+                gate.await()
+                it.endpoint
+            }
+        }
+        yield()
+
+        // With "a" busy, "b" is tried at the latest here, and ejected
+        balancer.call { it.endpoint } shouldBe "a"
+        gate.complete(Unit)
+        busy.await() shouldBe "a"
+        balancer.ejectedEndpoints shouldBe listOf("b")
+        balancer.call { it.endpoint } shouldBe "a"
+    }
+
+    @Test
+    fun ejectedEndpointsAreRestored() = runTest {
+        down += "b"
+        val balancer = LoadBalancer.Builder(listOf("a", "b"), ::connect)
+            .maxFailures(1)
+            .ejectionTime(0)
+            .build()
+        val gate = CompletableDeferred<Unit>()
+        val busy = async {
+            balancer.call {
+                gate.await()
+                it.endpoint
+            }
+        }
+        yield()
+        busy.isCompleted shouldBe false
+
+        down -= "b"
+        balancer.ejectedEndpoints shouldBe emptyList()
+        balancer.call { it.endpoint } shouldBe "b"
+        gate.complete(Unit)
+        busy.await() shouldBe "a"
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import io.kotest.matchers.shouldBe
+import jp.co.gahojin.thrifty.protocol.CountingTransport
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import kotlin.test.Test
+
+class BatchingTransportTest {
+    @Test
+    fun flushesAreCoalesced() = runBlocking {
+        val inner = CountingTransport()
+        val transport = BatchingTransport(inner, lingerMicros = 20_000, context = Dispatchers.Default)
+        repeat(3) {
+            transport.write("abc".encodeToByteArray())
+            transport.flush()
+        }
+        inner.flushes shouldBe 0
+        inner.writes shouldBe 3
+
+        withTimeout(5_000) {
+            while (inner.flushes == 0) {
+                delay(5)
+            }
+        }
+        inner.flushes shouldBe 1
+        inner.buffer.readUtf8() shouldBe "abcabcabc"
+    }
+
+    @Test
+    fun fullBatchFlushesImmediately() {
+        val inner = CountingTransport()
+        val transport = BatchingTransport(inner, lingerMicros = 1_000_000, maxBatchBytes = 4, context = Dispatchers.Default)
+        transport.write("abc".encodeToByteArray())
+        inner.flushes shouldBe 0
+        transport.write("def".encodeToByteArray())
+        inner.flushes shouldBe 1
+    }
+
+    @Test
+    fun closeFlushesPendingWrites() {
+        val inner = CountingTransport()
+        val transport = BatchingTransport(inner, lingerMicros = 1_000_000, context = Dispatchers.Default)
+        transport.write("abc".encodeToByteArray())
+        transport.flush()
+        transport.close()
+        inner.flushes shouldBe 1
+    }
+}
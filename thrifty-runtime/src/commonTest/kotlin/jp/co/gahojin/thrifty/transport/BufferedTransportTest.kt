@@ -0,0 +1,83 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import io.kotest.matchers.shouldBe
+import jp.co.gahojin.thrifty.protocol.CountingTransport
+import kotlin.test.Test
+
+class BufferedTransportTest {
+    @Test
+    fun writesAreCoalescedUntilFlush() {
+        val inner = CountingTransport()
+        val transport = BufferedTransport(inner, writeBufferSize = 16)
+        transport.write("abc".encodeToByteArray())
+        transport.write("def".encodeToByteArray())
+        inner.writes shouldBe 0
+
+        transport.flush()
+        inner.writes shouldBe 1
+        inner.flushes shouldBe 1
+        inner.buffer.readUtf8() shouldBe "abcdef"
+    }
+
+    @Test
+    fun fullBufferIsWrittenBeforeMore() {
+        val inner = CountingTransport()
+        val transport = BufferedTransport(inner, writeBufferSize = 4)
+        transport.write("abc".encodeToByteArray())
+        transport.write("de".encodeToByteArray())
+        inner.buffer.readUtf8() shouldBe "abc"
+
+        transport.write("fghijk".encodeToByteArray())
+        transport.flush()
+        inner.buffer.readUtf8() shouldBe "defghijk"
+    }
+
+    @Test
+    fun readsAreServedFromReadAhead() {
+        val inner = CountingTransport()
+        inner.buffer.writeUtf8("abcdefgh")
+        val transport = BufferedTransport(inner, readBufferSize = 16)
+        val bytes = ByteArray(8)
+
+        transport.read(bytes, 0, 2) shouldBe 2
+        transport.read(bytes, 2, 6) shouldBe 6
+        inner.reads shouldBe 1
+        bytes.decodeToString() shouldBe "abcdefgh"
+        transport.read(bytes, 0, 1) shouldBe -1
+    }
+
+    @Test
+    fun skipConsumesBufferedBytesFirst() {
+        val inner = CountingTransport()
+        inner.buffer.writeUtf8("abcdefghij")
+        val transport = BufferedTransport(inner, readBufferSize = 4)
+        val bytes = ByteArray(2)
+
+        transport.read(bytes, 0, 1) shouldBe 1
+        transport.skip(6)
+        inner.skips shouldBe 1
+        transport.read(bytes, 0, 2) shouldBe 2
+        bytes.decodeToString() shouldBe "hi"
+    }
+}
@@ -22,8 +22,10 @@ package jp.co.gahojin.thrifty.transport
 
 import io.kotest.assertions.throwables.shouldThrow
 import io.kotest.matchers.shouldBe
+import jp.co.gahojin.thrifty.protocol.CountingTransport
 import okio.Buffer
 import okio.EOFException
+import okio.ProtocolException
 import kotlin.test.Test
 
 class FramedTransportTest {
@@ -88,4 +90,137 @@ class FramedTransportTest {
         val readBuffer = ByteArray(10)
         shouldThrow<EOFException> { transport.read(readBuffer, 0, 10) }
     }
+
+    @Test
+    fun oversizedFrameIsRejected() {
+        val buffer = Buffer()
+        buffer.writeInt(1025)
+        buffer.writeUtf8("abc")
+        val transport = FramedTransport(BufferTransport(buffer), maxFrameSize = 1024)
+        shouldThrow<ProtocolException> { transport.read(ByteArray(3), 0, 3) }
+    }
+
+    @Test
+    fun negativeFrameSizeIsRejected() {
+        val buffer = Buffer()
+        buffer.writeInt(-1)
+        val transport = FramedTransport(BufferTransport(buffer))
+        shouldThrow<ProtocolException> { transport.read(ByteArray(3), 0, 3) }
+    }
+
+    @Test
+    fun consecutiveFramesReuseTheWriteBuffer() {
+        val buffer = Buffer()
+        val transport = FramedTransport(BufferTransport(buffer))
+        transport.write("a longer first frame".encodeToByteArray())
+        transport.flush()
+        transport.write("second".encodeToByteArray())
+        transport.flush()
+
+        buffer.readInt() shouldBe 20
+        buffer.readUtf8(20) shouldBe "a longer first frame"
+        buffer.readInt() shouldBe 6
+        buffer.readUtf8() shouldBe "second"
+    }
+
+    @Test
+    fun pooledBuffersAreSharedAcrossTransports() {
+        val pool = FrameBufferPool(maxBuffers = 1)
+        val buffer = Buffer()
+        val first = FramedTransport(BufferTransport(buffer), pool = pool)
+        first.write("abc".encodeToByteArray())
+        first.flush()
+        pool.size shouldBe 1
+
+        val second = FramedTransport(BufferTransport(buffer), pool = pool)
+        second.write("defg".encodeToByteArray())
+        pool.size shouldBe 0
+        second.flush()
+        pool.size shouldBe 1
+
+        buffer.readInt() shouldBe 3
+        buffer.readUtf8(3) shouldBe "abc"
+        buffer.readInt() shouldBe 4
+        buffer.readUtf8() shouldBe "defg"
+    }
+
+    @Test
+    fun buffersAboveHighWaterMarkAreNotPooled() {
+        val pool = FrameBufferPool()
+        val transport = FramedTransport(BufferTransport(Buffer()), highWaterMark = 128, pool = pool)
+        transport.write(ByteArray(200))
+        transport.flush()
+        pool.size shouldBe 0
+
+        transport.write(ByteArray(10))
+        transport.flush()
+        pool.size shouldBe 1
+    }
+
+    @Test
+    fun largeFramesDoNotDrainThePool() {
+        val pool = FrameBufferPool(maxBuffers = 1, maxBufferSize = 1024)
+        pool.release(ByteArray(64))
+
+        pool.acquire(4096).size shouldBe 4096
+        pool.size shouldBe 1
+
+        // A buffer too small for the frame is replaced by a larger one
+        val grown = pool.acquire(512)
+        pool.size shouldBe 0
+        pool.release(grown)
+        (pool.acquire(512) === grown) shouldBe true
+    }
+
+    @Test
+    fun skipStaysWithinFrames() {
+        val buffer = Buffer()
+        buffer.writeInt(3)
+        buffer.writeUtf8("abc")
+        buffer.writeInt(4)
+        buffer.writeUtf8("defg")
+        val transport = FramedTransport(BufferTransport(buffer))
+        val readBuffer = ByteArray(2)
+
+        transport.skip(5)
+        transport.read(readBuffer, 0, 2) shouldBe 2
+        readBuffer.decodeToString() shouldBe "fg"
+    }
+
+    @Test
+    fun prefetchReadsWholeFrames() {
+        val inner = CountingTransport()
+        inner.buffer.writeInt(10)
+        inner.buffer.writeUtf8("abcdefghij")
+        inner.buffer.writeInt(3)
+        inner.buffer.writeUtf8("klm")
+        val transport = FramedTransport(inner, prefetch = true)
+        val readBuffer = ByteArray(13)
+
+        transport.read(readBuffer, 0, 2) shouldBe 2
+        inner.reads shouldBe 2
+        transport.read(readBuffer, 2, 3) shouldBe 3
+        transport.skip(2)
+        transport.read(readBuffer, 5, 8) shouldBe 3
+        inner.reads shouldBe 2
+        transport.read(readBuffer, 8, 5) shouldBe 3
+        inner.reads shouldBe 4
+        inner.skips shouldBe 0
+        readBuffer.decodeToString(0, 11) shouldBe "abcdehijklm"
+    }
+
+    @Test
+    fun prefetchSkipsAcrossFrames() {
+        val buffer = Buffer()
+        buffer.writeInt(3)
+        buffer.writeUtf8("abc")
+        buffer.writeInt(4)
+        buffer.writeUtf8("defg")
+        val transport = FramedTransport(BufferTransport(buffer), prefetch = true)
+        val readBuffer = ByteArray(1)
+
+        transport.skip(6)
+        transport.read(readBuffer, 0, 1) shouldBe 1
+        readBuffer.decodeToString() shouldBe "g"
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import jp.co.gahojin.thrifty.protocol.HeaderProtocol
+import jp.co.gahojin.thrifty.service.TMessageType
+import okio.Buffer
+import okio.ProtocolException
+import kotlin.test.Test
+
+class HeaderTransportTest {
+    @Test
+    fun flushWritesHeaderFrame() {
+        val buffer = Buffer()
+        val transport = HeaderTransport(BufferTransport(buffer))
+        transport.protocolId = HeaderTransport.COMPACT_PROTOCOL_ID
+        transport.seqId = 7
+        transport.writeHeaders["k"] = "v"
+        transport.write("hello".encodeToByteArray())
+        transport.flush()
+
+        buffer.readInt() shouldBe 23
+        buffer.readInt() shouldBe 0x0FFF0000
+        buffer.readInt() shouldBe 7
+        buffer.readShort() shouldBe 2.toShort()
+        buffer.readByteString(8).hex() shouldBe "02000101016b0176"
+        buffer.readUtf8() shouldBe "hello"
+        transport.writeHeaders.isEmpty() shouldBe true
+    }
+
+    @Test
+    fun headerIsPaddedToWords() {
+        val buffer = Buffer()
+        val transport = HeaderTransport(BufferTransport(buffer))
+        transport.write("abc".encodeToByteArray())
+        transport.flush()
+
+        buffer.readInt() shouldBe 17
+        buffer.skip(8)
+        buffer.readShort() shouldBe 1.toShort()
+        buffer.readByteString(4).hex() shouldBe "00000000"
+        buffer.readUtf8() shouldBe "abc"
+    }
+
+    @Test
+    fun readsHeadersAndPayload() {
+        val buffer = Buffer()
+        val writer = HeaderTransport(BufferTransport(buffer))
+        writer.protocolId = HeaderTransport.COMPACT_PROTOCOL_ID
+        writer.seqId = 42
+        writer.writeHeaders["client"] = "test"
+        writer.writeHeaders["trace"] = "abc123"
+        writer.write("payload".encodeToByteArray())
+        writer.flush()
+
+        val reader = HeaderTransport(BufferTransport(buffer))
+        val bytes = ByteArray(7)
+        reader.read(bytes, 0, 7) shouldBe 7
+        bytes.decodeToString() shouldBe "payload"
+        reader.readProtocolId shouldBe HeaderTransport.COMPACT_PROTOCOL_ID
+        reader.readSeqId shouldBe 42
+        reader.readHeaders shouldBe mapOf("client" to "test", "trace" to "abc123")
+    }
+
+    @Test
+    fun readsSpanningMultipleFrames() {
+        val buffer = Buffer()
+        val writer = HeaderTransport(BufferTransport(buffer))
+        writer.write("abcdef".encodeToByteArray())
+        writer.flush()
+        writer.write("ghij".encodeToByteArray())
+        writer.flush()
+
+        val reader = HeaderTransport(BufferTransport(buffer))
+        val bytes = ByteArray(10)
+        reader.read(bytes, 0, 10) shouldBe 6
+        reader.read(bytes, 6, 4) shouldBe 4
+        bytes.decodeToString() shouldBe "abcdefghij"
+        buffer.size shouldBe 0L
+    }
+
+    @Test
+    fun skipCrossesFrames() {
+        val buffer = Buffer()
+        val writer = HeaderTransport(BufferTransport(buffer))
+        writer.write("abc".encodeToByteArray())
+        writer.flush()
+        writer.write("defg".encodeToByteArray())
+        writer.flush()
+
+        val reader = HeaderTransport(BufferTransport(buffer))
+        reader.skip(5)
+        val bytes = ByteArray(2)
+        reader.read(bytes, 0, 2) shouldBe 2
+        bytes.decodeToString() shouldBe "fg"
+    }
+
+    @Test
+    fun appliesTransforms() {
+        val buffer = Buffer()
+        val writer = HeaderTransport(BufferTransport(buffer))
+        writer.writeTransforms = listOf(ReverseTransform)
+        writer.write("abcde".encodeToByteArray())
+        writer.flush()
+
+        val frame = buffer.copy()
+        frame.skip(14)
+        frame.readByteString(4).hex() shouldBe "00017f00"
+        frame.readUtf8() shouldBe "edcba"
+
+        val reader = HeaderTransport(BufferTransport(buffer), listOf(ReverseTransform))
+        val bytes = ByteArray(5)
+        reader.read(bytes, 0, 5) shouldBe 5
+        bytes.decodeToString() shouldBe "abcde"
+        reader.readTransformIds shouldBe listOf(0x7F)
+    }
+
+    @Test
+    fun unknownTransformIsRejected() {
+        val buffer = Buffer()
+        val writer = HeaderTransport(BufferTransport(buffer))
+        writer.writeTransforms = listOf(ReverseTransform)
+        writer.write("abcde".encodeToByteArray())
+        writer.flush()
+
+        val reader = HeaderTransport(BufferTransport(buffer))
+        shouldThrow<ProtocolException> { reader.readFrame() }
+    }
+
+    @Test
+    fun nonHeaderFrameIsRejected() {
+        val buffer = Buffer()
+        buffer.writeInt(14)
+        buffer.writeInt(0x80010001.toInt())
+        buffer.writeUtf8("0123456789")
+
+        val reader = HeaderTransport(BufferTransport(buffer))
+        shouldThrow<ProtocolException> { reader.readFrame() }
+    }
+
+    @Test
+    fun protocolRepliesInTheRequestEncoding() {
+        val requests = Buffer()
+        val client = HeaderProtocol(BufferTransport(requests), HeaderTransport.COMPACT_PROTOCOL_ID)
+        client.headerTransport.writeHeaders["id"] = "1"
+        client.writeMessageBegin("ping", TMessageType.CALL, 3)
+        client.writeString("hello")
+        client.writeMessageEnd()
+        client.flush()
+
+        val replies = Buffer()
+        val server = HeaderProtocol(DuplexTransport(requests, replies))
+        val request = server.readMessageBegin()
+        request.name shouldBe "ping"
+        request.seqId shouldBe 3
+        server.readString() shouldBe "hello"
+        server.readMessageEnd()
+        server.headerTransport.readHeaders shouldBe mapOf("id" to "1")
+
+        server.writeMessageBegin("ping", TMessageType.REPLY, request.seqId)
+        server.writeString("world")
+        server.writeMessageEnd()
+        server.flush()
+
+        val reply = HeaderTransport(BufferTransport(replies))
+        reply.readFrame()
+        reply.readProtocolId shouldBe HeaderTransport.COMPACT_PROTOCOL_ID
+        reply.readSeqId shouldBe 3
+    }
+
+    private object ReverseTransform : HeaderTransform {
+        override val id = 0x7F
+
+        override fun encode(source: Buffer) = Buffer().write(source.readByteString().toByteArray().reversedArray())
+
+        override fun decode(source: Buffer, maxSize: Long) = encode(source)
+    }
+
+    private class DuplexTransport(private val source: Buffer, private val sink: Buffer) : Transport {
+        override fun read(buffer: ByteArray, offset: Int, count: Int) = source.read(buffer, offset, count)
+
+        override fun write(buffer: ByteArray, offset: Int, count: Int) {
+            sink.write(buffer, offset, count)
+        }
+
+        override fun flush() {
+        }
+
+        override fun skip(count: Long) = source.skip(count)
+
+        override fun close() {
+        }
+    }
+}
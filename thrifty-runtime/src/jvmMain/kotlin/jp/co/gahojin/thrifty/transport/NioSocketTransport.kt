@@ -0,0 +1,211 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import okio.EOFException
+import okio.IOException
+import java.net.InetSocketAddress
+import java.net.SocketTimeoutException
+import java.net.StandardSocketOptions
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.SocketChannel
+
+/**
+ * A blocking socket transport built directly on a [SocketChannel].
+ *
+ * Unlike [SocketTransport], no coroutine machinery runs per call.  Reads and
+ * writes go through direct buffers; [read] returns as soon as any bytes are
+ * available, and writes too large to buffer are sent together with pending
+ * bytes in a single gathering write.
+ *
+ * Instances of this class are *not* threadsafe.
+ *
+ * @param host
+ * @param port
+ * @param connectTimeout
+ *      The connect timeout in milliseconds, or 0 to wait indefinitely.
+ * @param readTimeout
+ *      The longest a read waits for data in milliseconds, or 0 to wait
+ *      indefinitely.  A read that times out throws [SocketTimeoutException].
+ * @param bufferSize
+ *      The size, in bytes, of each of the read and write buffers.
+ */
+class NioSocketTransport @JvmOverloads constructor(
+    private val host: String,
+    private val port: Int,
+    private val connectTimeout: Int = 0,
+    private val readTimeout: Int = 0,
+    bufferSize: Int = DEFAULT_BUFFER_SIZE,
+) : Transport {
+    // Holds unread bytes between position and limit
+    private val readBuffer = ByteBuffer.allocateDirect(bufferSize).apply { limit(0) }
+    private val writeBuffer = ByteBuffer.allocateDirect(bufferSize)
+    private val gather = arrayOf(writeBuffer, writeBuffer)
+
+    private var channel: SocketChannel? = null
+    private var selector: Selector? = null
+
+    @Throws(IOException::class)
+    fun connect() {
+        val channel = SocketChannel.open()
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true)
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true)
+            channel.socket().connect(InetSocketAddress(host, port), connectTimeout)
+            channel.configureBlocking(false)
+            val selector = Selector.open()
+            channel.register(selector, 0)
+            this.selector = selector
+            this.channel = channel
+        } catch (e: IOException) {
+            channel.close()
+            throw e
+        }
+    }
+
+    override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
+        if (count == 0) {
+            return 0
+        }
+        if (!readBuffer.hasRemaining() && !fill()) {
+            return -1
+        }
+        val n = count.coerceAtMost(readBuffer.remaining())
+        readBuffer.get(buffer, offset, n)
+        return n
+    }
+
+    override fun skip(count: Long) {
+        var remaining = count
+        while (remaining > 0) {
+            if (!readBuffer.hasRemaining() && !fill()) {
+                throw EOFException()
+            }
+            val n = remaining.coerceAtMost(readBuffer.remaining().toLong()).toInt()
+            readBuffer.position(readBuffer.position() + n)
+            remaining -= n
+        }
+    }
+
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        if (count <= writeBuffer.remaining()) {
+            writeBuffer.put(buffer, offset, count)
+            return
+        }
+
+        // Too large to buffer; send the pending bytes and the caller's in one system call
+        writeBuffer.flip()
+        gather[1] = ByteBuffer.wrap(buffer, offset, count)
+        try {
+            val channel = requireChannel()
+            while (gather[1].hasRemaining()) {
+                if (channel.write(gather) == 0L) {
+                    await(SelectionKey.OP_WRITE, 0)
+                }
+            }
+        } finally {
+            gather[1] = writeBuffer
+            writeBuffer.clear()
+        }
+    }
+
+    override fun flush() {
+        writeBuffer.flip()
+        try {
+            val channel = requireChannel()
+            while (writeBuffer.hasRemaining()) {
+                if (channel.write(writeBuffer) == 0) {
+                    await(SelectionKey.OP_WRITE, 0)
+                }
+            }
+        } finally {
+            writeBuffer.clear()
+        }
+    }
+
+    override fun close() {
+        selector?.close()
+        channel?.close()
+        selector = null
+        channel = null
+    }
+
+    // Reads whatever is available, waiting for at least one byte; false at end of stream
+    private fun fill(): Boolean {
+        val channel = requireChannel()
+        readBuffer.clear()
+        val deadline = if (readTimeout > 0) System.nanoTime() + readTimeout * NANOS_PER_MILLI else 0L
+        try {
+            while (true) {
+                val n = channel.read(readBuffer)
+                if (n > 0) {
+                    return true
+                }
+                if (n == -1) {
+                    return false
+                }
+                await(SelectionKey.OP_READ, deadline)
+            }
+        } finally {
+            readBuffer.flip()
+        }
+    }
+
+    // Waits until the channel is ready for [ops], or until [deadline], a
+    // System.nanoTime() value or 0 for none, has passed.  select() may also
+    // return early with nothing ready, so only the deadline ends the wait.
+    private fun await(ops: Int, deadline: Long) {
+        val selector = checkNotNull(selector) { "Not connected" }
+        val key = requireChannel().keyFor(selector)
+        key.interestOps(ops)
+        try {
+            while (true) {
+                if (deadline == 0L) {
+                    selector.select()
+                } else {
+                    val remaining = deadline - System.nanoTime()
+                    if (remaining <= 0) {
+                        throw SocketTimeoutException("Read timed out after $readTimeout ms")
+                    }
+                    // Round up, since select(0) would wait forever
+                    selector.select((remaining + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI)
+                }
+                if (selector.selectedKeys().remove(key)) {
+                    return
+                }
+            }
+        } finally {
+            key.interestOps(0)
+            selector.selectedKeys().clear()
+        }
+    }
+
+    private fun requireChannel(): SocketChannel = checkNotNull(channel) { "Not connected" }
+
+    companion object {
+        const val DEFAULT_BUFFER_SIZE = 8192
+
+        private const val NANOS_PER_MILLI = 1_000_000L
+    }
+}
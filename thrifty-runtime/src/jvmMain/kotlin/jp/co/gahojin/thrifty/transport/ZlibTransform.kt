@@ -0,0 +1,91 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import okio.Buffer
+import okio.IOException
+import okio.ProtocolException
+import java.util.zip.DataFormatException
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+/**
+ * The THeader zlib transform, using [java.util.zip].
+ *
+ * The deflater and inflater are reused across messages, so instances of this
+ * class are *not* threadsafe; give each [HeaderTransport] its own.  Their
+ * native memory is released on [close].
+ *
+ * @param level
+ *      The compression level, from 0 to 9, or -1 for the default.
+ */
+class ZlibTransform @JvmOverloads constructor(
+    level: Int = Deflater.DEFAULT_COMPRESSION,
+) : HeaderTransform {
+    private val deflater = Deflater(level)
+    private val inflater = Inflater()
+    private val scratch = ByteArray(8192)
+
+    override val id: Int
+        get() = HeaderTransport.ZLIB_TRANSFORM_ID
+
+    @Throws(IOException::class)
+    override fun encode(source: Buffer): Buffer {
+        val result = Buffer()
+        deflater.reset()
+        deflater.setInput(source.readByteArray())
+        deflater.finish()
+        while (!deflater.finished()) {
+            val n = deflater.deflate(scratch)
+            result.write(scratch, 0, n)
+        }
+        return result
+    }
+
+    @Throws(IOException::class)
+    override fun decode(source: Buffer, maxSize: Long): Buffer {
+        val result = Buffer()
+        inflater.reset()
+        inflater.setInput(source.readByteArray())
+        try {
+            while (!inflater.finished()) {
+                val n = inflater.inflate(scratch)
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw ProtocolException("Truncated zlib payload")
+                }
+                // Stop as soon as the limit is passed, so a small frame cannot inflate without bound
+                if (result.size + n > maxSize) {
+                    throw ProtocolException("Inflated zlib payload exceeds $maxSize bytes")
+                }
+                result.write(scratch, 0, n)
+            }
+        } catch (e: DataFormatException) {
+            throw ProtocolException("Invalid zlib payload: ${e.message}")
+        }
+        return result
+    }
+
+    override fun close() {
+        deflater.end()
+        inflater.end()
+    }
+}
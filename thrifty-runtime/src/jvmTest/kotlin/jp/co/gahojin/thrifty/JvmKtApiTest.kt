@@ -0,0 +1,45 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty
+
+import io.kotest.matchers.shouldBe
+import jp.co.gahojin.thrifty.protocol.BinaryProtocol
+import jp.co.gahojin.thrifty.transport.BufferedTransport
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import kotlin.test.Test
+
+class JvmKtApiTest {
+    @Test
+    fun streamTransportsCanBeBuffered() {
+        val out = ByteArrayOutputStream()
+        val writer = BinaryProtocol(BufferedTransport(out.transport()))
+        writer.writeI32(42)
+        writer.writeString("hello")
+        out.size() shouldBe 0
+        writer.flush()
+
+        val reader = BinaryProtocol(BufferedTransport(ByteArrayInputStream(out.toByteArray()).transport()))
+        reader.readI32() shouldBe 42
+        reader.readString() shouldBe "hello"
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.service
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import jp.co.gahojin.thrifty.TType
+import jp.co.gahojin.thrifty.ThriftException
+import jp.co.gahojin.thrifty.protocol.BinaryProtocol
+import jp.co.gahojin.thrifty.protocol.MessageMetadata
+import jp.co.gahojin.thrifty.protocol.Protocol
+import jp.co.gahojin.thrifty.transport.SocketTransport
+import jp.co.gahojin.thrifty.transport.Transport
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withTimeoutOrNull
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.ServerSocket
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+import kotlin.test.Test
+
+class AsyncClientBaseTest {
+    @Test
+    fun outOfOrderRepliesReachTheirCallers() {
+        ServerSocket(0).use { server ->
+            // Answers both requests, but only once both have arrived, and in reverse order
+            val serverThread = thread {
+                server.accept().use { socket ->
+                    val input = BinaryProtocol(StreamTransport(socket.getInputStream(), socket.getOutputStream()))
+                    val requests = List(2) { readRequest(input) }
+                    for ((metadata, value) in requests.asReversed()) {
+                        writeReply(input, metadata, value)
+                    }
+                }
+            }
+
+            val transport = SocketTransport.Builder("localhost", server.localPort).build()
+            transport.connect()
+            val client = EchoClient(BinaryProtocol(transport))
+            client.enablePipelining()
+
+            val first = Outcome()
+            val second = Outcome()
+            client.echo("a", first)
+            client.echo("b", second)
+
+            first.await() shouldBe "echo:a"
+            second.await() shouldBe "echo:b"
+            client.close()
+            serverThread.join()
+        }
+    }
+
+    @Test
+    fun callsAreSentWhileTheReaderIsBlocked() {
+        ServerSocket(0).use { server ->
+            val firstRead = CountDownLatch(1)
+            // Holds the first reply until the second request has arrived
+            val serverThread = thread {
+                server.accept().use { socket ->
+                    val input = BinaryProtocol(StreamTransport(socket.getInputStream(), socket.getOutputStream()))
+                    val (first, firstValue) = readRequest(input)
+                    firstRead.countDown()
+                    val (second, secondValue) = readRequest(input)
+                    writeReply(input, second, secondValue)
+                    writeReply(input, first, firstValue)
+                }
+            }
+
+            val transport = SocketTransport.Builder("localhost", server.localPort).build()
+            transport.connect()
+            val client = EchoClient(BinaryProtocol(transport))
+            client.enablePipelining()
+
+            val first = Outcome()
+            client.echo("a", first)
+            firstRead.await(10, TimeUnit.SECONDS) shouldBe true
+            // Give the reader time to block waiting for the first reply
+            Thread.sleep(100)
+
+            val second = Outcome()
+            client.echo("b", second)
+            second.await() shouldBe "echo:b"
+            first.await() shouldBe "echo:a"
+            client.running.value shouldBe true
+            client.close()
+            serverThread.join()
+        }
+    }
+
+    @Test
+    fun mismatchedReplyFailsOnlyItsCall() {
+        ServerSocket(0).use { server ->
+            val serverThread = thread {
+                server.accept().use { socket ->
+                    val input = BinaryProtocol(StreamTransport(socket.getInputStream(), socket.getOutputStream()))
+                    val requests = List(2) { readRequest(input) }
+                    writeReply(input, requests[0].first, requests[0].second, name = "other")
+                    writeReply(input, requests[1].first, requests[1].second)
+                }
+            }
+
+            val transport = SocketTransport.Builder("localhost", server.localPort).build()
+            transport.connect()
+            val client = EchoClient(BinaryProtocol(transport))
+            client.enablePipelining()
+
+            val first = Outcome()
+            val second = Outcome()
+            client.echo("a", first)
+            client.echo("b", second)
+
+            (first.awaitError() as ThriftException).kind shouldBe ThriftException.Kind.WRONG_METHOD_NAME
+            second.await() shouldBe "echo:b"
+            client.running.value shouldBe true
+            client.close()
+            serverThread.join()
+        }
+    }
+
+    @Test
+    fun timeoutClosesASerialClient() {
+        ServerSocket(0).use { server ->
+            val serverThread = thread {
+                server.accept().use { socket ->
+                    val input = BinaryProtocol(StreamTransport(socket.getInputStream(), socket.getOutputStream()))
+                    readRequest(input)
+                    // Never answers; the read ends when the client hangs up
+                    socket.getInputStream().read()
+                }
+            }
+
+            val transport = SocketTransport.Builder("localhost", server.localPort).build()
+            transport.connect()
+            val client = EchoClient(BinaryProtocol(transport))
+            client.callTimeout = 100
+
+            val outcome = Outcome()
+            client.echo("a", outcome)
+            val error = outcome.awaitError()
+            (error as ThriftException).kind shouldBe ThriftException.Kind.TIMED_OUT
+            client.running.value shouldBe false
+            serverThread.join()
+        }
+    }
+
+    @Test
+    fun timeoutKeepsAPipelinedConnection() {
+        ServerSocket(0).use { server ->
+            val serverThread = thread {
+                server.accept().use { socket ->
+                    val input = BinaryProtocol(StreamTransport(socket.getInputStream(), socket.getOutputStream()))
+                    val (late, lateValue) = readRequest(input)
+                    Thread.sleep(500)
+                    writeReply(input, late, lateValue)
+                    val (next, nextValue) = readRequest(input)
+                    writeReply(input, next, nextValue)
+                }
+            }
+
+            val transport = SocketTransport.Builder("localhost", server.localPort).build()
+            transport.connect()
+            val client = EchoClient(BinaryProtocol(transport))
+            client.enablePipelining()
+            client.callTimeout = 200
+
+            val first = Outcome()
+            client.echo("a", first)
+            (first.awaitError() as ThriftException).kind shouldBe ThriftException.Kind.TIMED_OUT
+
+            val second = Outcome()
+            client.echo("b", second)
+            second.await() shouldBe "echo:b"
+            client.running.value shouldBe true
+            client.close()
+            serverThread.join()
+        }
+    }
+
+    @Test
+    fun cancellationClosesASerialClient() {
+        ServerSocket(0).use { server ->
+            val serverThread = thread {
+                server.accept().use { socket ->
+                    val input = BinaryProtocol(StreamTransport(socket.getInputStream(), socket.getOutputStream()))
+                    readRequest(input)
+                    // Never answers; the read ends when the client hangs up
+                    socket.getInputStream().read()
+                }
+            }
+
+            val transport = SocketTransport.Builder("localhost", server.localPort).build()
+            transport.connect()
+            val client = EchoClient(BinaryProtocol(transport))
+
+            runBlocking {
+                withTimeoutOrNull(100) { client.echo("a") } shouldBe null
+            }
+            client.running.value shouldBe false
+            serverThread.join()
+        }
+    }
+
+    @Test
+    fun cancellationKeepsAPipelinedConnection() {
+        ServerSocket(0).use { server ->
+            val serverThread = thread {
+                server.accept().use { socket ->
+                    val input = BinaryProtocol(StreamTransport(socket.getInputStream(), socket.getOutputStream()))
+                    val (late, lateValue) = readRequest(input)
+                    val (next, nextValue) = readRequest(input)
+                    writeReply(input, late, lateValue)
+                    writeReply(input, next, nextValue)
+                }
+            }
+
+            val transport = SocketTransport.Builder("localhost", server.localPort).build()
+            transport.connect()
+            val client = EchoClient(BinaryProtocol(transport))
+            client.enablePipelining()
+
+            runBlocking {
+                withTimeoutOrNull(100) { client.echo("a") } shouldBe null
+                client.echo("b") shouldBe "echo:b"
+            }
+            client.running.value shouldBe true
+            client.close()
+            serverThread.join()
+        }
+    }
+
+    @Test
+    fun hedgingGivesBackTheLosingClient() {
+        ServerSocket(0).use { server ->
+            // The first connection never answers; the second answers at once
+            val serverThread = thread {
+                val slow = server.accept()
+                readRequest(BinaryProtocol(StreamTransport(slow.getInputStream(), slow.getOutputStream())))
+                server.accept().use { socket ->
+                    val input = BinaryProtocol(StreamTransport(socket.getInputStream(), socket.getOutputStream()))
+                    val (request, value) = readRequest(input)
+                    writeReply(input, request, value)
+                }
+                // The read ends when the losing client hangs up
+                slow.use { it.getInputStream().read() }
+            }
+
+            val pool = ClientPool.Builder {
+                val transport = SocketTransport.Builder("localhost", server.localPort).build()
+                transport.connect()
+                EchoClient(BinaryProtocol(transport))
+            }.maxSize(2).build()
+            val policy = CallPolicy.Builder(pool)
+                .idempotentMethods(setOf("echo"))
+                .hedgeDelay(100)
+                .build()
+
+            runBlocking {
+                policy.call("echo") { it.echo("a") } shouldBe "echo:a"
+            }
+
+            // Cancelling the losing call closes its serial client, which the pool then drops
+            val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+            while (pool.metrics.active > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10)
+            }
+            pool.metrics.active shouldBe 0
+            pool.metrics.idle shouldBe 1
+            pool.metrics.destroyed shouldBe 1L
+            policy.close()
+            pool.close()
+            serverThread.join()
+        }
+    }
+
+    private fun readRequest(protocol: Protocol): Pair<MessageMetadata, String> {
+        val metadata = protocol.readMessageBegin()
+        val value = protocol.readString()
+        protocol.readMessageEnd()
+        return metadata to value
+    }
+
+    private fun writeReply(protocol: Protocol, request: MessageMetadata, value: String, name: String = request.name) {
+        protocol.writeMessageBegin(name, TMessageType.REPLY, request.seqId)
+        protocol.writeStructBegin("echo_result")
+        protocol.writeFieldBegin("success", 0, TType.STRING)
+        protocol.writeString("echo:$value")
+        protocol.writeFieldEnd()
+        protocol.writeFieldStop()
+        protocol.writeStructEnd()
+        protocol.writeMessageEnd()
+        protocol.flush()
+    }
+
+    private class Outcome : ServiceMethodCallback<String> {
+        private val result = CompletableFuture<String>()
+
+        override fun onSuccess(result: String) {
+            this.result.complete(result)
+        }
+
+        override fun onError(error: Throwable) {
+            result.completeExceptionally(error)
+        }
+
+        fun await(): String = result.get(10, TimeUnit.SECONDS)
+
+        fun awaitError(): Throwable {
+            return shouldThrow<ExecutionException> { await() }.cause!!
+        }
+    }
+
+    private class EchoClient(protocol: Protocol) : AsyncClientBase(protocol, NoopListener) {
+        fun echo(value: String, callback: ServiceMethodCallback<String>) = enqueue(EchoCall(value, callback))
+
+        suspend fun echo(value: String): String = suspendCancellableCoroutine { cont ->
+            enqueue(EchoCall(value, object : ServiceMethodCallback<String> {
+                override fun onSuccess(result: String) {
+                    cont.resumeWith(Result.success(result))
+                }
+
+                override fun onError(error: Throwable) {
+                    cont.resumeWith(Result.failure(error))
+                }
+            }), cont)
+        }
+    }
+
+    private class EchoCall(
+        private val value: String,
+        callback: ServiceMethodCallback<String>,
+    ) : MethodCall<String>("echo", TMessageType.CALL, callback) {
+        override fun send(protocol: Protocol) = protocol.writeString(value)
+
+        override fun receive(protocol: Protocol, metadata: MessageMetadata): String {
+            protocol.readStructBegin()
+            protocol.readFieldBegin()
+            val result = protocol.readString()
+            protocol.readFieldEnd()
+            protocol.readFieldBegin()
+            protocol.readStructEnd()
+            return result
+        }
+    }
+
+    private object NoopListener : AsyncClientBase.Listener {
+        override fun onTransportClosed() {
+        }
+
+        override fun onError(error: Throwable) {
+        }
+    }
+
+    private class StreamTransport(private val input: InputStream, private val output: OutputStream) : Transport {
+        override fun read(buffer: ByteArray, offset: Int, count: Int) = input.read(buffer, offset, count)
+
+        override fun write(buffer: ByteArray, offset: Int, count: Int) = output.write(buffer, offset, count)
+
+        override fun flush() = output.flush()
+
+        override fun skip(count: Long) = input.skipNBytes(count)
+
+        override fun close() {
+        }
+    }
+}
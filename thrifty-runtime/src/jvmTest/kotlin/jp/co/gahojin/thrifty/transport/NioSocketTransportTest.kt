@@ -0,0 +1,112 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.SocketTimeoutException
+import kotlin.concurrent.thread
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+
+class NioSocketTransportTest {
+    private lateinit var server: ServerSocket
+
+    @BeforeTest
+    fun setUp() {
+        server = ServerSocket(0)
+    }
+
+    @AfterTest
+    fun tearDown() {
+        server.close()
+    }
+
+    @Test
+    fun readsReturnAvailableBytes() {
+        serve { it.getOutputStream().write("abc".encodeToByteArray()) }
+        NioSocketTransport("localhost", server.localPort).use { transport ->
+            transport.connect()
+            val buffer = ByteArray(10)
+            var total = 0
+            while (total < 3) {
+                total += transport.read(buffer, total, buffer.size - total)
+            }
+            total shouldBe 3
+            buffer.decodeToString(0, 3) shouldBe "abc"
+            transport.read(buffer, 0, buffer.size) shouldBe -1
+        }
+    }
+
+    @Test
+    fun skipConsumesBytes() {
+        serve { it.getOutputStream().write("abcdefgh".encodeToByteArray()) }
+        NioSocketTransport("localhost", server.localPort, bufferSize = 4).use { transport ->
+            transport.connect()
+            transport.skip(6)
+            val buffer = ByteArray(2)
+            var total = 0
+            while (total < 2) {
+                total += transport.read(buffer, total, 2 - total)
+            }
+            buffer.decodeToString() shouldBe "gh"
+        }
+    }
+
+    @Test
+    fun writesLargerThanTheBufferAreSentInOrder() {
+        val received = ByteArray(100)
+        val done = serve { socket ->
+            var total = 0
+            while (total < received.size) {
+                total += socket.getInputStream().read(received, total, received.size - total)
+            }
+        }
+        NioSocketTransport("localhost", server.localPort, bufferSize = 16).use { transport ->
+            transport.connect()
+            transport.write(ByteArray(10) { 1 })
+            transport.write(ByteArray(80) { 2 })
+            transport.write(ByteArray(10) { 3 })
+            transport.flush()
+            done.join()
+        }
+        received.count { it == 1.toByte() } shouldBe 10
+        received.copyOfRange(10, 90).all { it == 2.toByte() } shouldBe true
+        received.copyOfRange(90, 100).all { it == 3.toByte() } shouldBe true
+    }
+
+    @Test
+    fun readTimesOut() {
+        serve { Thread.sleep(1000) }
+        NioSocketTransport("localhost", server.localPort, readTimeout = 50).use { transport ->
+            transport.connect()
+            shouldThrow<SocketTimeoutException> { transport.read(ByteArray(1), 0, 1) }
+        }
+    }
+
+    private fun serve(block: (Socket) -> Unit) = thread {
+        server.accept().use(block)
+    }
+}
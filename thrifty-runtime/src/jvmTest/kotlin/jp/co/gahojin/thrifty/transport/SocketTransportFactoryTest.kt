@@ -0,0 +1,75 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import java.net.ServerSocket
+import kotlin.concurrent.thread
+import kotlin.test.Test
+
+class SocketTransportFactoryTest {
+    @Test
+    fun selectorsAreAssignedRoundRobin() {
+        SelectorGroup(2).use { group ->
+            group.size shouldBe 2
+            val first = group.next()
+            val second = group.next()
+            (first === second) shouldBe false
+            group.next() shouldBeSameInstanceAs first
+        }
+    }
+
+    @Test
+    fun transportsShareTheFactorySelectors() {
+        ServerSocket(0).use { server ->
+            val echo = thread {
+                repeat(2) {
+                    server.accept().use { socket ->
+                        val bytes = ByteArray(4)
+                        var total = 0
+                        while (total < bytes.size) {
+                            total += socket.getInputStream().read(bytes, total, bytes.size - total)
+                        }
+                        socket.getOutputStream().write(bytes)
+                    }
+                }
+            }
+
+            SocketTransportFactory(selectorCount = 1).use { factory ->
+                repeat(2) {
+                    val transport = factory.connect("localhost", server.localPort)
+                    transport.write("ping".encodeToByteArray())
+                    transport.flush()
+                    val bytes = ByteArray(4)
+                    var total = 0
+                    while (total < bytes.size) {
+                        total += transport.read(bytes, total, bytes.size - total)
+                    }
+                    bytes.decodeToString() shouldBe "ping"
+                    transport.close()
+                }
+            }
+            echo.join()
+        }
+    }
+}
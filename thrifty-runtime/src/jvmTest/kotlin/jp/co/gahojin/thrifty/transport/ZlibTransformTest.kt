@@ -0,0 +1,102 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ * Copyright (c) GAHOJIN, Inc.
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package jp.co.gahojin.thrifty.transport
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.assertions.throwables.shouldThrowAny
+import io.kotest.matchers.shouldBe
+import okio.Buffer
+import okio.ProtocolException
+import kotlin.test.Test
+
+class ZlibTransformTest {
+    @Test
+    fun compressedRoundTrip() {
+        val text = "this text compresses well. ".repeat(100)
+        val buffer = Buffer()
+        val writer = HeaderTransport(BufferTransport(buffer))
+        writer.writeTransforms = listOf(ZlibTransform())
+        writer.write(text.encodeToByteArray())
+        writer.flush()
+
+        (buffer.size < text.length) shouldBe true
+
+        val reader = HeaderTransport(BufferTransport(buffer), listOf(ZlibTransform()))
+        val bytes = ByteArray(text.length)
+        reader.read(bytes, 0, bytes.size) shouldBe bytes.size
+        bytes.decodeToString() shouldBe text
+        reader.readTransformIds shouldBe listOf(HeaderTransport.ZLIB_TRANSFORM_ID)
+    }
+
+    @Test
+    fun repliesMirrorRequestTransforms() {
+        val buffer = Buffer()
+        val client = HeaderTransport(BufferTransport(buffer), listOf(ZlibTransform()))
+        client.writeTransforms = listOf(ZlibTransform())
+        client.write("request".encodeToByteArray())
+        client.flush()
+
+        // The request is fully consumed, so the server's reply takes its place
+        val server = HeaderTransport(BufferTransport(buffer), listOf(ZlibTransform()))
+        server.mirrorTransforms = true
+        server.readFrame()
+        server.skip(7)
+        server.write("reply".encodeToByteArray())
+        server.flush()
+
+        client.readFrame()
+        client.readTransformIds shouldBe listOf(HeaderTransport.ZLIB_TRANSFORM_ID)
+        val bytes = ByteArray(5)
+        client.read(bytes, 0, 5) shouldBe 5
+        bytes.decodeToString() shouldBe "reply"
+    }
+
+    @Test
+    fun corruptPayloadIsRejected() {
+        val transform = ZlibTransform()
+        val payload = transform.encode(Buffer().writeUtf8("hello, hello, hello"))
+        payload.skip(4)
+        shouldThrow<ProtocolException> { transform.decode(payload, Long.MAX_VALUE) }
+    }
+
+    @Test
+    fun inflatedSizeIsLimited() {
+        val buffer = Buffer()
+        val writer = HeaderTransport(BufferTransport(buffer))
+        writer.writeTransforms = listOf(ZlibTransform())
+        writer.write(ByteArray(1_000_000))
+        writer.flush()
+
+        // A million zeros compress to a frame far below the limit
+        (buffer.size < 10_000) shouldBe true
+        val reader = HeaderTransport(BufferTransport(buffer), listOf(ZlibTransform()), maxFrameSize = 10_000)
+        shouldThrow<ProtocolException> { reader.readFrame() }
+    }
+
+    @Test
+    fun closingTheTransportEndsTheTransform() {
+        val transform = ZlibTransform()
+        val transport = HeaderTransport(BufferTransport(Buffer()), listOf(transform))
+        transport.close()
+        shouldThrowAny { transform.encode(Buffer().writeUtf8("after close")) }
+    }
+}
@@ -77,6 +77,13 @@ class ServiceMethod private constructor(
     val oneWay: Boolean
         get() = element.oneWay
 
+    /**
+     * True if this method may safely be retried or hedged, as marked by an
+     * `idempotent` annotation.
+     */
+    val isIdempotent: Boolean
+        get() = mixin.hasThriftOrJavadocAnnotation("idempotent")
+
     internal constructor(element: FunctionElement, namespaces: Map<NamespaceScope, String>) : this(
         element = element,
         mixin = UserElementMixin(element, namespaces),